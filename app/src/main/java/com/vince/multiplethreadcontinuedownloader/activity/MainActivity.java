@@ -5,6 +5,7 @@ import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Message;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -13,7 +14,12 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.vince.multiplethreadcontinuedownloader.R;
+import com.vince.multiplethreadcontinuedownloader.dao.FileService;
+import com.vince.multiplethreadcontinuedownloader.downloader.DownloadHandle;
+import com.vince.multiplethreadcontinuedownloader.downloader.DownloadLog;
+import com.vince.multiplethreadcontinuedownloader.downloader.DownloadLogger;
 import com.vince.multiplethreadcontinuedownloader.downloader.DownloadProgressListener;
+import com.vince.multiplethreadcontinuedownloader.downloader.DownloadResultListener;
 import com.vince.multiplethreadcontinuedownloader.downloader.FileDownloader;
 
 import java.io.File;
@@ -25,6 +31,8 @@ public class MainActivity extends Activity {
 
     private static final int PROGRESSING = 1;
     private static final int FAILURE = -1;
+    //进度条的最大值，文件长度可能超过int范围，进度按千分比显示
+    private static final int PROGRESS_MAX = 1000;
     private EditText pathText;
     private TextView resultView;
     private Button downloadButton;
@@ -60,12 +68,20 @@ public class MainActivity extends Activity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        //下载器的打印信息输出到Logcat
+        DownloadLog.setLogger(new DownloadLogger() {
+            @Override
+            public void log(String tag, String msg) {
+                Log.i(tag, msg);
+            }
+        });
 
         pathText = (EditText)findViewById(R.id.path);
         resultView = (TextView) findViewById(R.id.resultView);
         downloadButton = (Button) findViewById(R.id.downloadbutton);
         stopbutton = (Button) findViewById(R.id.stopbutton);
         progressBar = (ProgressBar) findViewById(R.id.progressBar);
+        progressBar.setMax(PROGRESS_MAX);
 
         ButtonClickListener listener = new ButtonClickListener();
 
@@ -110,14 +126,21 @@ public class MainActivity extends Activity {
     }
 
     public void download(String path,File saveDir){
+        //同一地址暂停后继续下载，不再重新获取文件信息
+        if(task != null && task.resume(path)){
+            return;
+        }
         task = new DownloadTask(path,saveDir);
+        //获取文件信息需要访问网络，不能在主线程中进行
         new Thread(task).start();
     }
 
     public final class DownloadTask implements Runnable{
         private String path;
         private File saveDir;
-        private FileDownloader loader;
+        private volatile FileDownloader loader;
+        private volatile DownloadHandle handle;
+        private volatile boolean exited;
 
         public DownloadTask(String path,File saveDir){
             this.path = path;
@@ -125,27 +148,54 @@ public class MainActivity extends Activity {
         }
 
         public void exit(){
-            if(loader != null){
-                loader.exit();
+            exited = true;
+            if(handle != null){
+                handle.pause();
+            }
+        }
+
+        public boolean resume(String path){
+            if(handle == null || !this.path.equals(path)){
+                return false;
             }
+            exited = false;
+            handle.resume();
+            return handle.getState() == DownloadHandle.State.RUNNING;
         }
 
         DownloadProgressListener downloadProgressListener = new DownloadProgressListener() {
             @Override
-            public void onDownloadSize(int size) {
+            public void onDownloadSize(long size) {
                 Message msg = new Message();
 
                 msg.what = PROGRESSING;
-                msg.getData().putInt("size",size);
+                msg.getData().putInt("size",(int)(size * PROGRESS_MAX / loader.getFileSize()));
                 handler.sendMessage(msg);
             }
         };
 
+        DownloadResultListener downloadResultListener = new DownloadResultListener() {
+            @Override
+            public void onComplete(long size) {
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                e.printStackTrace();
+                handler.sendMessage(handler.obtainMessage(FAILURE));
+            }
+        };
+
         public void run(){
             try{
-                loader = new FileDownloader(getApplicationContext(),path,saveDir,3);
-                loader.download(downloadProgressListener);
-                progressBar.setMax(loader.getFileSize());
+                loader = new FileDownloader(new FileService(getApplicationContext()),path,saveDir,3);
+                //从2个连接开始，按实测速度在2到8个连接之间调整
+                loader.setAdaptiveConnections(2,8);
+                handle = loader.start(downloadProgressListener,downloadResultListener);
+                //获取文件信息期间用户已经点击了停止
+                if(exited){
+                    handle.pause();
+                }
             }catch (Exception e){
                 e.printStackTrace();
                 handler.sendMessage(handler.obtainMessage(FAILURE));
@@ -11,7 +11,7 @@ public class DBOpenHelper extends SQLiteOpenHelper {
     //设置数据库的名称
     private static final String DBNAME = "eric.db";
     //设置数据库的版本
-    private static final int VERSION = 1;
+    private static final int VERSION = 6;
 
     /**
      * 通过构造方法
@@ -25,15 +25,66 @@ public class DBOpenHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         //建立数据表
-        db.execSQL("CREATE TABLE IF NOT EXISTS filedownlog (id integer primary key autoincrement, downpath varchar(100), threadid INTEGER, downlength INTEGER)");
+        //threadid为下载段id，startpos和endpos为该段在文件中的范围(包含endpos)
+        //SQLite的INTEGER列按需使用最多8个字节存储，位置和长度可以超过2G，读取时须使用getLong
+        db.execSQL("CREATE TABLE IF NOT EXISTS filedownlog (id integer primary key autoincrement, downpath varchar(100), threadid INTEGER, startpos INTEGER, endpos INTEGER, downlength INTEGER)");
+        createQueueTable(db);
+        createHashTable(db);
+        createValidatorTable(db);
+        createProgressTable(db);
+    }
+
+    /**
+     * 下载管理器的下载队列，应用重启后按优先级恢复未完成的下载
+     */
+    private void createQueueTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS downloadqueue (id integer primary key autoincrement, downpath varchar(100), savedir varchar(255), threadnum INTEGER, priority INTEGER)");
+    }
+
+    /**
+     * 数据块校验值，hashpos和hashlen为数据块在文件中的范围，crc为CRC32，续传时校验断点附近的数据
+     */
+    private void createHashTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS filehash (id integer primary key autoincrement, downpath varchar(100), hashpos INTEGER, hashlen INTEGER, crc INTEGER)");
+    }
+
+    /**
+     * 远程文件的验证信息，续传时判断文件是否变化，completed为1时表示已经下载完成，用于条件请求
+     */
+    private void createValidatorTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS filevalidator (id integer primary key autoincrement, downpath varchar(100), etag varchar(255), lastmodified varchar(64), length INTEGER, filename varchar(255), completed INTEGER)");
+    }
+
+    /**
+     * 下载进度的块位图，文件按chunksize分块，bitmap每块一位表示是否已经完整写入，
+     * 取代按下载段保存的filedownlog，后者只在升级后读取旧记录时使用
+     */
+    private void createProgressTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS fileprogress (id integer primary key autoincrement, downpath varchar(100), filesize INTEGER, chunksize INTEGER, bitmap BLOB)");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {//当版本变化时系统会调用该回调方法
-        //此处是删除数据表，在实际的业务中一般是需要数据备份的
-        db.execSQL("DROP TABLE IF EXISTS filedownlog");
-        //调用onCreate方法重新创建数据表，也可以自己根据业务需要创建新的的数据表
-        onCreate(db);
+        if (oldVersion < 2) {
+            //版本1只记录每条线程的下载长度，范围为-1的记录由下载器按原来的平均分块方式还原
+            db.execSQL("ALTER TABLE filedownlog ADD COLUMN startpos INTEGER DEFAULT -1");
+            db.execSQL("ALTER TABLE filedownlog ADD COLUMN endpos INTEGER DEFAULT -1");
+        }
+        if (oldVersion < 3) {
+            createQueueTable(db);
+        }
+        if (oldVersion < 4) {
+            //旧版本的下载记录没有校验值，续传时信任已经下载的长度
+            createHashTable(db);
+        }
+        if (oldVersion < 5) {
+            //旧版本的下载记录没有验证信息，续传时无法判断远程文件是否变化
+            createValidatorTable(db);
+        }
+        if (oldVersion < 6) {
+            //filedownlog中未完成的记录在续传时转换为块位图
+            createProgressTable(db);
+        }
     }
 }
 
@@ -4,14 +4,24 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import com.vince.multiplethreadcontinuedownloader.downloader.ChunkBitmap;
+import com.vince.multiplethreadcontinuedownloader.downloader.ChunkHash;
+import com.vince.multiplethreadcontinuedownloader.downloader.DownloadJob;
+import com.vince.multiplethreadcontinuedownloader.downloader.FileValidator;
+import com.vince.multiplethreadcontinuedownloader.downloader.ProgressStore;
+import com.vince.multiplethreadcontinuedownloader.downloader.Segment;
+
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 
 /**
- * 业务Bean，实现对数据的操作
+ * 业务Bean，实现对数据的操作，作为下载器的进度存储保存在SQLite中
  */
-public class FileService {
+public class FileService implements ProgressStore {
 	private DBOpenHelper openHelper;
 
 	public FileService(Context context) {
@@ -19,20 +29,55 @@ public class FileService {
 	}
 
 	/**
-	 * 获取特定URI的每条线程已经下载的文件长度
+	 * 获取特定URI保存的块位图
+	 * @param path 下载的路径
+	 * @return 块位图，没有记录时返回null
+	 */
+	@Override
+	public ChunkBitmap getProgress(String path){
+		SQLiteDatabase db = openHelper.getReadableDatabase();
+		Cursor cursor = db.rawQuery("select filesize, chunksize, bitmap from fileprogress where downpath=?", new String[]{path});
+		ChunkBitmap bitmap = null;
+		if(cursor.moveToNext()){
+			bitmap = new ChunkBitmap(cursor.getLong(0), cursor.getInt(1), cursor.getBlob(2));
+		}
+		cursor.close();
+		db.close();
+		return bitmap;
+	}
+
+	/**
+	 * 保存块位图，同一下载路径只保留一条
+	 * @param path 下载的路径
+	 * @param bitmap 块位图
+	 */
+	@Override
+	public void saveProgress(String path, ChunkBitmap bitmap){
+		SQLiteDatabase db = openHelper.getWritableDatabase();
+		db.beginTransaction();
+		try{
+			insertProgress(db, path, bitmap);
+			db.setTransactionSuccessful();
+		}finally{
+			db.endTransaction();
+		}
+		db.close();
+	}
+
+	/**
+	 * 获取特定URI在数据库版本5及以前按下载段保存的进度，只用于转换为块位图
 	 * @param path
-	 * @return
+	 * @return 下载段集合，版本1遗留的记录开始和结束位置为-1
 	 */
-	public Map<Integer, Integer> getData(String path){
+	@Override
+	public List<Segment> getData(String path){
 		//获取可读的数据库句柄，一般情况下在该操作的内部实现中其返回的其实是可写的数据库句柄
 		SQLiteDatabase db = openHelper.getReadableDatabase();
-		//根据下载路径查询所有线程下载数据，返回的Cursor指向第一条记录之前
-		Cursor cursor = db.rawQuery("select threadid, downlength from filedownlog where downpath=?", new String[]{path});
-		//建立一个哈希表用于存放每条线程的已经下载的文件长度
-		Map<Integer, Integer> data = new HashMap<Integer, Integer>();
+		//根据下载路径查询所有下载段，返回的Cursor指向第一条记录之前
+		Cursor cursor = db.rawQuery("select threadid, startpos, endpos, downlength from filedownlog where downpath=? order by threadid", new String[]{path});
+		List<Segment> data = new ArrayList<Segment>();
 		while(cursor.moveToNext()){
-			data.put(cursor.getInt(0), cursor.getInt(1));
-			data.put(cursor.getInt(cursor.getColumnIndexOrThrow("threadid")), cursor.getInt(cursor.getColumnIndexOrThrow("downlength")));
+			data.add(new Segment(cursor.getInt(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3)));
 		}
 		cursor.close();
 		db.close();
@@ -40,18 +85,35 @@ public class FileService {
 	}
 
 	/**
-	 * 保存每条线程已经下载的文件长度
-	 * @param path	下载的路径
-	 * @param map 现在的id和已经下载的长度的集合
+	 * 获取特定URI已经保存的数据块校验值
+	 * @param path 下载的路径
+	 * @return 校验值集合
 	 */
-	public void save(String path,  Map<Integer, Integer> map){
+	@Override
+	public List<ChunkHash> getHashes(String path){
+		SQLiteDatabase db = openHelper.getReadableDatabase();
+		Cursor cursor = db.rawQuery("select hashpos, hashlen, crc from filehash where downpath=? order by hashpos", new String[]{path});
+		List<ChunkHash> hashes = new ArrayList<ChunkHash>();
+		while(cursor.moveToNext()){
+			hashes.add(new ChunkHash(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)));
+		}
+		cursor.close();
+		db.close();
+		return hashes;
+	}
+
+	/**
+	 * 在一个事务中追加保存数据块校验值
+	 * @param path 下载的路径
+	 * @param hashes 校验值集合
+	 */
+	@Override
+	public void saveHashes(String path, List<ChunkHash> hashes){
+		if(hashes.isEmpty()) return;
 		SQLiteDatabase db = openHelper.getWritableDatabase();
 		db.beginTransaction();
 		try{
-			for(Map.Entry<Integer, Integer> entry : map.entrySet()){
-				db.execSQL("insert into filedownlog(downpath, threadid, downlength) values(?,?,?)",
-						new Object[]{path, entry.getKey(), entry.getValue()});
-			}
+			insertHashes(db, path, hashes);
 			db.setTransactionSuccessful();
 		}finally{
 			db.endTransaction();
@@ -60,24 +122,195 @@ public class FileService {
 	}
 
 	/**
-	 * 实时更新每条线程已经下载的文件长度
-	 * @param path
-	 * @param map
+	 * 在一个事务中追加保存数据块校验值并保存块位图，只打开一次数据库，进程中途结束时两者都不保存
+	 * @param path 下载的路径
+	 * @param bitmap 块位图，没有变化时为null
+	 * @param hashes 校验值集合
 	 */
-	public void update(String path, int threadId, int pos){
+	@Override
+	public void saveCheckpoint(String path, ChunkBitmap bitmap, List<ChunkHash> hashes){
+		if(bitmap == null && hashes.isEmpty()) return;
 		SQLiteDatabase db = openHelper.getWritableDatabase();
-		db.execSQL("update filedownlog set downlength=? where downpath=? and threadid=?",
-				new Object[]{pos, path, threadId});
+		db.beginTransaction();
+		try{
+			insertHashes(db, path, hashes);
+			if(bitmap != null) insertProgress(db, path, bitmap);
+			db.setTransactionSuccessful();
+		}finally{
+			db.endTransaction();
+		}
 		db.close();
 	}
 
+	private static void insertProgress(SQLiteDatabase db, String path, ChunkBitmap bitmap){
+		db.execSQL("delete from fileprogress where downpath=?", new Object[]{path});
+		db.execSQL("insert into fileprogress(downpath, filesize, chunksize, bitmap) values(?,?,?,?)",
+				new Object[]{path, bitmap.getFileSize(), bitmap.getChunkSize(), bitmap.toByteArray()});
+	}
+
+	private static void insertHashes(SQLiteDatabase db, String path, List<ChunkHash> hashes){
+		for(ChunkHash hash : hashes){
+			db.execSQL("insert into filehash(downpath, hashpos, hashlen, crc) values(?,?,?,?)",
+					new Object[]{path, hash.getOffset(), hash.getLength(), hash.getCrc()});
+		}
+	}
+
 	/**
-	 * 当文件下载完成后，删除对应的下载记录
+	 * 获取特定URI保存的远程文件验证信息
+	 * @param path 下载的路径
+	 * @return 验证信息，没有记录时返回null
+	 */
+	@Override
+	public FileValidator getValidator(String path){
+		SQLiteDatabase db = openHelper.getReadableDatabase();
+		Cursor cursor = db.rawQuery("select etag, lastmodified, length, filename, completed from filevalidator where downpath=?", new String[]{path});
+		FileValidator validator = null;
+		if(cursor.moveToNext()){
+			validator = new FileValidator(cursor.getString(0), cursor.getString(1), cursor.getLong(2), cursor.getString(3), cursor.getInt(4) != 0);
+		}
+		cursor.close();
+		db.close();
+		return validator;
+	}
+
+	/**
+	 * 保存远程文件验证信息，同一下载路径只保留一条
+	 * @param path 下载的路径
+	 * @param validator 验证信息
+	 */
+	@Override
+	public void saveValidator(String path, FileValidator validator){
+		SQLiteDatabase db = openHelper.getWritableDatabase();
+		db.beginTransaction();
+		try{
+			db.execSQL("delete from filevalidator where downpath=?", new Object[]{path});
+			db.execSQL("insert into filevalidator(downpath, etag, lastmodified, length, filename, completed) values(?,?,?,?,?,?)",
+					new Object[]{path, validator.getEtag(), validator.getLastModified(), validator.getLength(), validator.getFileName(), validator.isCompleted() ? 1 : 0});
+			db.setTransactionSuccessful();
+		}finally{
+			db.endTransaction();
+		}
+		db.close();
+	}
+
+	/**
+	 * 删除远程文件验证信息
+	 * @param path 下载的路径
+	 */
+	@Override
+	public void deleteValidator(String path){
+		SQLiteDatabase db = openHelper.getWritableDatabase();
+		db.execSQL("delete from filevalidator where downpath=?", new Object[]{path});
+		db.close();
+	}
+
+	/**
+	 * 批量获取多个URI保存的远程文件验证信息，只打开一次数据库
+	 * @param paths 下载的路径集合
+	 * @return 下载路径对应的验证信息，没有记录的路径不包含在内
+	 */
+	@Override
+	public Map<String, FileValidator> getValidators(List<String> paths){
+		SQLiteDatabase db = openHelper.getReadableDatabase();
+		Map<String, FileValidator> validators = new HashMap<String, FileValidator>();
+		for(String path : paths){
+			Cursor cursor = db.rawQuery("select etag, lastmodified, length, filename, completed from filevalidator where downpath=?", new String[]{path});
+			if(cursor.moveToNext()){
+				validators.put(path, new FileValidator(cursor.getString(0), cursor.getString(1), cursor.getLong(2), cursor.getString(3), cursor.getInt(4) != 0));
+			}
+			cursor.close();
+		}
+		db.close();
+		return validators;
+	}
+
+	/**
+	 * 在一个事务中保存多个URI的远程文件验证信息，值为null时删除该URI的验证信息
+	 * @param validators 下载路径对应的验证信息
+	 */
+	@Override
+	public void saveValidators(Map<String, FileValidator> validators){
+		if(validators.isEmpty()) return;
+		SQLiteDatabase db = openHelper.getWritableDatabase();
+		db.beginTransaction();
+		try{
+			for(Map.Entry<String, FileValidator> entry : validators.entrySet()){
+				db.execSQL("delete from filevalidator where downpath=?", new Object[]{entry.getKey()});
+				FileValidator validator = entry.getValue();
+				if(validator == null) continue;
+				db.execSQL("insert into filevalidator(downpath, etag, lastmodified, length, filename, completed) values(?,?,?,?,?,?)",
+						new Object[]{entry.getKey(), validator.getEtag(), validator.getLastModified(), validator.getLength(), validator.getFileName(), validator.isCompleted() ? 1 : 0});
+			}
+			db.setTransactionSuccessful();
+		}finally{
+			db.endTransaction();
+		}
+		db.close();
+	}
+
+	/**
+	 * 当文件下载完成后，删除对应的块位图、旧版本的下载记录和数据块校验值
 	 * @param path
 	 */
+	@Override
 	public void delete(String path){
 		SQLiteDatabase db = openHelper.getWritableDatabase();
-		db.execSQL("delete from filedownlog where downpath=?", new Object[]{path});
+		db.beginTransaction();
+		try{
+			db.execSQL("delete from fileprogress where downpath=?", new Object[]{path});
+			db.execSQL("delete from filedownlog where downpath=?", new Object[]{path});
+			db.execSQL("delete from filehash where downpath=?", new Object[]{path});
+			db.setTransactionSuccessful();
+		}finally{
+			db.endTransaction();
+		}
+		db.close();
+	}
+
+	/**
+	 * 获取下载队列中的所有任务
+	 * @return 按优先级从高到低、加入先后排列的下载任务
+	 */
+	@Override
+	public List<DownloadJob> getJobs(){
+		SQLiteDatabase db = openHelper.getReadableDatabase();
+		Cursor cursor = db.rawQuery("select downpath, savedir, threadnum, priority from downloadqueue order by priority desc, id", null);
+		List<DownloadJob> jobs = new ArrayList<DownloadJob>();
+		while(cursor.moveToNext()){
+			jobs.add(new DownloadJob(cursor.getString(0), new File(cursor.getString(1)), cursor.getInt(2), cursor.getInt(3)));
+		}
+		cursor.close();
+		db.close();
+		return jobs;
+	}
+
+	/**
+	 * 把下载任务加入下载队列，同一下载路径只保留一条
+	 * @param job 下载任务
+	 */
+	@Override
+	public void saveJob(DownloadJob job){
+		SQLiteDatabase db = openHelper.getWritableDatabase();
+		db.beginTransaction();
+		try{
+			db.execSQL("delete from downloadqueue where downpath=?", new Object[]{job.getUrl()});
+			db.execSQL("insert into downloadqueue(downpath, savedir, threadnum, priority) values(?,?,?,?)",
+					new Object[]{job.getUrl(), job.getSaveDir().getAbsolutePath(), job.getThreadNum(), job.getPriority()});
+			db.setTransactionSuccessful();
+		}finally{
+			db.endTransaction();
+		}
+		db.close();
+	}
+
+	/**
+	 * 下载任务完成、失败或取消后从下载队列中删除
+	 * @param path 下载的路径
+	 */
+	@Override
+	public void deleteJob(String path){
+		SQLiteDatabase db = openHelper.getWritableDatabase();
+		db.execSQL("delete from downloadqueue where downpath=?", new Object[]{path});
 		db.close();
 	}
 }
@@ -0,0 +1,252 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 端到端基准测试用的本地HTTP服务器，提供一个文件，支持HEAD、Range请求和长连接；
+ * 可以设置每个响应的延迟、每个连接的带宽，以及按概率返回503或在发送中途断开连接，
+ * 故障由固定种子的随机数决定，同样的设置在两次运行之间可以比较；
+ * 服务器线程处理请求时消耗的CPU时间和分配的内存单独统计，从整个进程的值中扣除后得到下载器本身的开销
+ */
+public class BenchmarkHttpServer {
+    //每次写入套接字的最大长度
+    private static final int WRITE_SIZE = 64 * 1024;
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final ServerSocket serverSocket;
+    //提供的文件内容
+    private volatile byte[] data = new byte[0];
+    //每个响应发送响应头之前等待的毫秒数，模拟往返延迟
+    private volatile long latency;
+    //每个连接每秒最多发送的字节数，为0时不限制
+    private volatile long bandwidth;
+    //Range请求返回503的概率
+    private volatile double failureRate;
+    //响应在发送中途断开连接的概率
+    private volatile double resetRate;
+    private final Random random = new Random(42);
+    //收到的请求数、返回的错误数和断开的连接数
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger resets = new AtomicInteger();
+    //服务器线程处理请求消耗的CPU时间(纳秒)和分配的内存(字节)
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    public BenchmarkHttpServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 100, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "BenchmarkHttpServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getUrl(String name) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + name;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * 设置故障注入，获取文件信息的请求(HEAD和从文件开头开始的Range请求)不受影响
+     *
+     * @param failureRate Range请求返回503的概率
+     * @param resetRate   响应在发送中途断开连接的概率
+     */
+    public void setFaults(double failureRate, double resetRate) {
+        this.failureRate = failureRate;
+        this.resetRate = resetRate;
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public int getFailureCount() {
+        return failures.get();
+    }
+
+    public int getResetCount() {
+        return resets.get();
+    }
+
+    public long getCpuNanos() {
+        return cpuNanos.get();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "BenchmarkHttpServer-worker");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        long thread = Thread.currentThread().getId();
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            //同一连接上依次处理多个请求，只统计处理请求的开销，不包括等待下一个请求的时间
+            while ((requestLine = readLine(in)) != null) {
+                if (requestLine.length() == 0) continue;
+                long cpu = THREADS.getCurrentThreadCpuTime();
+                long allocated = THREADS.getThreadAllocatedBytes(thread);
+                try {
+                    if (!handle(requestLine, in, out)) break;
+                } finally {
+                    cpuNanos.addAndGet(THREADS.getCurrentThreadCpuTime() - cpu);
+                    allocatedBytes.addAndGet(THREADS.getThreadAllocatedBytes(thread) - allocated);
+                }
+            }
+        } catch (Exception e) {
+            //客户端断开连接
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //忽略
+            }
+        }
+    }
+
+    /**
+     * 处理一个请求
+     *
+     * @return 是否继续在该连接上处理下一个请求
+     */
+    private boolean handle(String requestLine, InputStream in, OutputStream out) throws IOException, InterruptedException {
+        requests.incrementAndGet();
+        String method = requestLine.substring(0, requestLine.indexOf(' '));
+        String range = null;
+        boolean close = false;
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if ("Range".equalsIgnoreCase(name)) range = value;
+            if ("Connection".equalsIgnoreCase(name) && "close".equalsIgnoreCase(value)) close = true;
+        }
+        byte[] data = this.data;
+        if (latency > 0) Thread.sleep(latency);
+        boolean faulty = range != null && !range.startsWith("bytes=0-");
+        if (faulty && chance(failureRate)) {
+            failures.incrementAndGet();
+            out.write("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\n\r\n".getBytes("ISO-8859-1"));
+            out.flush();
+            return !close;
+        }
+        long from = 0;
+        long to = data.length - 1;
+        StringBuilder header = new StringBuilder();
+        if (range != null) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            from = Long.parseLong(bounds[0]);
+            if (bounds[1].length() > 0) to = Math.min(Long.parseLong(bounds[1]), data.length - 1);
+            header.append("HTTP/1.1 206 Partial Content\r\n");
+            header.append("Content-Range: bytes ").append(from).append('-').append(to).append('/').append(data.length).append("\r\n");
+        } else {
+            header.append("HTTP/1.1 200 OK\r\n");
+        }
+        header.append("Accept-Ranges: bytes\r\n");
+        header.append("ETag: \"").append(data.length).append("\"\r\n");
+        header.append("Content-Length: ").append(to - from + 1).append("\r\n\r\n");
+        out.write(header.toString().getBytes("ISO-8859-1"));
+        if ("HEAD".equals(method)) {
+            out.flush();
+            return !close;
+        }
+        //断开连接的响应在随机位置停止发送
+        long resetAt = faulty && chance(resetRate) ? from + (long) (nextDouble() * (to - from + 1)) : -1;
+        long bandwidth = this.bandwidth;
+        long begin = System.nanoTime();
+        long sent = 0;
+        for (long p = from; p <= to; ) {
+            int n = (int) Math.min(WRITE_SIZE, to - p + 1);
+            if (resetAt >= p && resetAt < p + n) {
+                out.write(data, (int) p, (int) (resetAt - p));
+                out.flush();
+                resets.incrementAndGet();
+                return false;
+            }
+            out.write(data, (int) p, n);
+            p += n;
+            sent += n;
+            if (bandwidth > 0) {
+                //按带宽计算已发送数据应该花费的时间，提前时等待
+                long ahead = sent * 1000000000L / bandwidth - (System.nanoTime() - begin);
+                if (ahead > 0) Thread.sleep(ahead / 1000000, (int) (ahead % 1000000));
+            }
+        }
+        out.flush();
+        return !close;
+    }
+
+    private boolean chance(double rate) {
+        return rate > 0 && nextDouble() < rate;
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') line.setLength(length - 1);
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+}
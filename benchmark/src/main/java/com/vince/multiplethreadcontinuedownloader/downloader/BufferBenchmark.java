@@ -0,0 +1,79 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读取缓冲区的获取和归还，以及写入前计算数据块校验值的开销，比较堆缓冲区和直接缓冲区
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BufferBenchmark {
+    @Param({"8192", "65536", "262144"})
+    public int size;
+    @Param({"false", "true"})
+    public boolean direct;
+    private BufferPool pool;
+    private ByteBuffer data;
+    private ChunkHasher hasher;
+    private long position;
+
+    @Setup
+    public void setUp() {
+        pool = new BufferPool(BufferPool.DEFAULT_MIN_SIZE, BufferPool.DEFAULT_MAX_SIZE, direct);
+        byte[] bytes = new byte[size];
+        new Random(1).nextBytes(bytes);
+        data = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        data.put(bytes);
+        data.flip();
+    }
+
+    /**
+     * 每轮使用新的校验跟踪器，未保存的校验值不会一直累积
+     */
+    @Setup(Level.Iteration)
+    public void newHasher() {
+        hasher = new ChunkHasher(new IntegrityTracker());
+        position = 0;
+    }
+
+    @Benchmark
+    public ByteBuffer pooled() {
+        ByteBuffer buffer = pool.acquire(size);
+        pool.release(buffer);
+        return buffer;
+    }
+
+    /**
+     * 每次分配新的缓冲区，作为缓冲池的对照
+     */
+    @Benchmark
+    public ByteBuffer allocate() {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    @Benchmark
+    public long hash() {
+        hasher.update(data, position);
+        position += size;
+        return position;
+    }
+}
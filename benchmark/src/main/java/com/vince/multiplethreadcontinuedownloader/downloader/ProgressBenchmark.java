@@ -0,0 +1,109 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 下载线程每读到一块数据都要经过的进度记录：下载段的申请和确认、运行指标的记录和已下载长度的汇总，
+ * 以及断点写入器合并下载段和流读取时查找连续完成位置的开销；已下载长度累加的竞争见ProgressCounterBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProgressBenchmark {
+    //每次读取的长度
+    private static final int READ_SIZE = 8 * 1024;
+    //4GB的文件，256K的块
+    private static final long FILE_SIZE = 4L * 1024 * 1024 * 1024;
+    //正在下载的下载段数
+    private static final int SEGMENTS = 8;
+    private ProgressCounter counter;
+    private DownloadMetrics metrics;
+    private ChunkBitmap bitmap;
+    private List<Segment> segments;
+
+    @Setup
+    public void setUp() {
+        counter = new ProgressCounter(SEGMENTS, 0);
+        metrics = new DownloadMetrics();
+        //前一半的块已经完成，后一半分给各下载段，各下载了一半
+        bitmap = new ChunkBitmap(FILE_SIZE, ChunkBitmap.DEFAULT_CHUNK_SIZE);
+        bitmap.markRange(0, FILE_SIZE / 2);
+        segments = new ArrayList<Segment>();
+        long size = FILE_SIZE / 2 / SEGMENTS;
+        for (int i = 0; i < SEGMENTS; i++) {
+            long start = FILE_SIZE / 2 + i * size;
+            segments.add(new Segment(i + 1, start, start + size - 1, size / 2));
+        }
+    }
+
+    /**
+     * 每条测试线程自己负责的下载段
+     */
+    @State(Scope.Thread)
+    public static class Worker {
+        private static final AtomicInteger NEXT = new AtomicInteger();
+        Segment segment;
+
+        @Setup
+        public void setUp() {
+            segment = new Segment(NEXT.incrementAndGet(), 0, Long.MAX_VALUE - 1, 0);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long reserveAndCommit(Worker worker) {
+        int length = worker.segment.reserve(READ_SIZE);
+        return worker.segment.commit(length);
+    }
+
+    /**
+     * 每次写入文件时记录的运行指标
+     */
+    @Benchmark
+    @Threads(4)
+    public void recordWrite() {
+        metrics.onWriteStart(READ_SIZE);
+        metrics.onWriteEnd(READ_SIZE, READ_SIZE, 20000);
+    }
+
+    @Benchmark
+    public long progressSum() {
+        return counter.sum();
+    }
+
+    /**
+     * 断点写入器把各下载段已经写入的部分合并到块位图
+     */
+    @Benchmark
+    public ChunkBitmap markSegments() {
+        bitmap.mark(segments);
+        return bitmap;
+    }
+
+    /**
+     * 流读取时从文件开头查找连续完成的位置
+     */
+    @Benchmark
+    public long completedEnd() {
+        return bitmap.getCompletedEnd(0);
+    }
+}
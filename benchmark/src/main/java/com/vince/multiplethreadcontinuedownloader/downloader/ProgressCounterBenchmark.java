@@ -0,0 +1,110 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进度计数的竞争：每个下载段一条线程，比较原来的同步累加、单个AtomicLong和分槽计数器的吞吐量，
+ * 分槽计数器的槽数等于线程数；main按1到32条线程依次运行并汇总结果，单独通过JMH运行时用-t指定线程数
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProgressCounterBenchmark {
+    //每次读取的长度
+    private static final int READ_SIZE = 8 * 1024;
+    //依次测试的线程数，即下载段数
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+    private ProgressCounter counter;
+    private AtomicLong atomic;
+    private long synchronizedSum;
+    private final Object lock = new Object();
+
+    @Setup
+    public void setUp(BenchmarkParams params) {
+        //每条线程独占一个槽，线程数超过槽数时槽会被共享，测得的就不是分槽的效果
+        counter = new ProgressCounter(params.getThreads(), 0);
+        atomic = new AtomicLong();
+    }
+
+    /**
+     * 每条测试线程的槽号，从0开始连续编号
+     */
+    @State(Scope.Thread)
+    public static class Worker {
+        int slot;
+
+        @Setup
+        public void setUp(ThreadParams params) {
+            slot = params.getThreadIndex();
+        }
+    }
+
+    @Benchmark
+    public void stripedAdd(Worker worker) {
+        counter.add(worker.slot, READ_SIZE);
+    }
+
+    /**
+     * 所有线程累加同一个AtomicLong，作为分槽计数器的对照
+     */
+    @Benchmark
+    public long atomicAdd() {
+        return atomic.addAndGet(READ_SIZE);
+    }
+
+    /**
+     * 原来的同步累加，作为分槽计数器的对照
+     */
+    @Benchmark
+    public long synchronizedAdd() {
+        synchronized (lock) {
+            return synchronizedSum += READ_SIZE;
+        }
+    }
+
+    /**
+     * 按各线程数依次运行三种累加方式，最后输出每微秒的累加次数
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> methods = Arrays.asList("synchronizedAdd", "atomicAdd", "stripedAdd");
+        double[][] scores = new double[THREADS.length][methods.size()];
+        for (int i = 0; i < THREADS.length; i++) {
+            Options options = new OptionsBuilder()
+                    .include(ProgressCounterBenchmark.class.getName() + "\\.")
+                    .threads(THREADS[i])
+                    .build();
+            for (RunResult result : new Runner(options).run()) {
+                String benchmark = result.getParams().getBenchmark();
+                int method = methods.indexOf(benchmark.substring(benchmark.lastIndexOf('.') + 1));
+                scores[i][method] = result.getPrimaryResult().getScore();
+            }
+        }
+        System.out.println("threads  synchronized(ops/us)  atomic(ops/us)  striped(ops/us)");
+        for (int i = 0; i < THREADS.length; i++) {
+            System.out.println(String.format("%7d  %20.1f  %14.1f  %15.1f", THREADS[i], scores[i][0], scores[i][1], scores[i][2]));
+        }
+    }
+}
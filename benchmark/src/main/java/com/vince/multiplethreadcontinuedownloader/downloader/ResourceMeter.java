@@ -0,0 +1,98 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.OperatingSystemMXBean;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * 统计整个进程消耗的CPU时间和在堆上分配的内存；
+ * 下载线程在下载结束时就退出，无法逐个线程统计，分配的内存按当前堆的使用量加上各次垃圾回收释放的内存计算，
+ * 精度约为一个TLAB，包括同一时间JVM中其他线程的分配
+ */
+class ResourceMeter implements NotificationListener {
+    private final OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    //各次垃圾回收释放的内存之和
+    private final AtomicLong reclaimed = new AtomicLong();
+    //已经收到通知的垃圾回收次数
+    private final AtomicLong collections = new AtomicLong();
+
+    ResourceMeter() {
+        for (GarbageCollectorMXBean collector : collectors) {
+            collections.addAndGet(Math.max(0, collector.getCollectionCount()));
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+            }
+        }
+    }
+
+    /**
+     * 进程启动以来消耗的CPU时间(纳秒)
+     */
+    long getCpuNanos() {
+        return os.getProcessCpuTime();
+    }
+
+    /**
+     * 创建以来在堆上分配的内存加上当前堆的使用量(字节)，两次调用的差为期间分配的内存
+     */
+    long getAllocatedBytes() {
+        //通知在垃圾回收结束后异步发出，等所有已经发生的回收都计入后再读取
+        long deadline = System.currentTimeMillis() + 1000;
+        while (collections.get() < getCollectionCount() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return memory.getHeapMemoryUsage().getUsed() + reclaimed.get();
+    }
+
+    private long getCollectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long before = used(info.getGcInfo().getMemoryUsageBeforeGc());
+        long after = used(info.getGcInfo().getMemoryUsageAfterGc());
+        reclaimed.addAndGet(Math.max(0, before - after));
+        collections.incrementAndGet();
+    }
+
+    /**
+     * 各堆内存池的使用量之和，非堆内存池(元空间、代码缓存等)不计入
+     */
+    private long used(Map<String, MemoryUsage> pools) {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) continue;
+            MemoryUsage usage = pools.get(pool.getName());
+            if (usage != null) used += usage.getUsed();
+        }
+        return used;
+    }
+}
@@ -0,0 +1,281 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 端到端吞吐量测试，在进程内的本地HTTP服务器上按不同的网络条件、文件大小、下载段数和下载引擎完整下载文件，
+ * 记录每次下载的速度(MB/s)、下载器消耗的CPU时间和分配的内存，结果写入JSON文件，可以与上次的结果比较
+ * <p>
+ * 用法: ThroughputSuite &lt;结果文件&gt; [--quick] [--runs n] [--baseline 上次的结果文件]
+ */
+public class ThroughputSuite {
+    private static final int MB = 1024 * 1024;
+    //吞吐量下降或CPU、内存增加超过该比例时在比较结果中标记
+    private static final double REGRESSION_THRESHOLD = 0.10;
+    //网络条件
+    private static final Scenario[] SCENARIOS = {
+            //本机回环，没有延迟和带宽限制，主要测量下载器本身的开销
+            new Scenario("local", 0, 0, 0, 0),
+            //每个响应40ms延迟，每个连接4MB/s，多个下载段可以叠加带宽
+            new Scenario("wan", 40, 4 * MB, 0, 0),
+            //5%的Range请求返回503，5%的响应中途断开，测量重试的开销
+            new Scenario("faulty", 10, 8 * MB, 0.05, 0.05)
+    };
+    private static final int[] FILE_SIZES = {MB, 16 * MB, 64 * MB};
+    private static final int[] QUICK_FILE_SIZES = {MB, 16 * MB};
+    private static final int[] SEGMENTS = {1, 2, 4, 8};
+    //故障场景中每个下载段可能连续失败多次，放宽重试次数，缩短等待时间
+    private static final RetryPolicy RETRY = new RetryPolicy(20, 500, 20);
+
+    public static void main(String[] args) throws Exception {
+        File output = null;
+        File baseline = null;
+        boolean quick = false;
+        int runs = 3;
+        for (int i = 0; i < args.length; i++) {
+            if ("--quick".equals(args[i])) {
+                quick = true;
+            } else if ("--runs".equals(args[i]) && i + 1 < args.length) {
+                runs = Integer.parseInt(args[++i]);
+            } else if ("--baseline".equals(args[i]) && i + 1 < args.length) {
+                baseline = new File(args[++i]);
+            } else {
+                output = new File(args[i]);
+            }
+        }
+        if (output == null || runs <= 0) {
+            System.err.println("usage: ThroughputSuite <output.json> [--quick] [--runs n] [--baseline previous.json]");
+            System.exit(1);
+        }
+        //下载器的日志会影响测量结果
+        DownloadLog.setLogger(new DownloadLogger() {
+            @Override
+            public void log(String tag, String msg) {
+            }
+        });
+        File saveDir = new File(System.getProperty("java.io.tmpdir"), "throughput-suite");
+        BenchmarkHttpServer server = new BenchmarkHttpServer();
+        ResourceMeter meter = new ResourceMeter();
+        List<Result> results = new ArrayList<Result>();
+        try {
+            //预热，使下载路径上的代码都经过JIT编译
+            server.setData(content(16 * MB));
+            for (int i = 0; i < 3; i++) {
+                download(server, meter, saveDir, 16 * MB, 4, false);
+                download(server, meter, saveDir, 16 * MB, 4, true);
+            }
+            System.out.println(String.format(Locale.ROOT, "%-28s %10s %10s %12s %9s %8s", "case", "MB/s", "cpu(ms)", "alloc(KB)", "requests", "retries"));
+            for (Scenario scenario : SCENARIOS) {
+                server.setLatency(scenario.latency);
+                server.setBandwidth(scenario.bandwidth);
+                server.setFaults(scenario.failureRate, scenario.resetRate);
+                for (int size : quick ? QUICK_FILE_SIZES : FILE_SIZES) {
+                    server.setData(content(size));
+                    for (int segments : SEGMENTS) {
+                        for (int engine = 0; engine < 2; engine++) {
+                            boolean selector = engine == 1;
+                            List<Result> samples = new ArrayList<Result>();
+                            for (int run = 0; run < runs; run++) {
+                                samples.add(download(server, meter, saveDir, size, segments, selector));
+                            }
+                            //取耗时的中位数，减少偶然的停顿对比较的影响
+                            Collections.sort(samples, new Comparator<Result>() {
+                                @Override
+                                public int compare(Result a, Result b) {
+                                    return a.nanos < b.nanos ? -1 : (a.nanos == b.nanos ? 0 : 1);
+                                }
+                            });
+                            Result result = samples.get(samples.size() / 2);
+                            result.scenario = scenario.name;
+                            result.runs = runs;
+                            results.add(result);
+                            System.out.println(String.format(Locale.ROOT, "%-28s %10.2f %10.1f %12d %9d %8d", result.getKey(),
+                                    result.getMbPerSecond(), result.cpuNanos / 1e6, result.allocatedBytes / 1024, result.requests, result.retries));
+                        }
+                    }
+                }
+            }
+        } finally {
+            server.close();
+        }
+        write(output, results, quick, runs);
+        System.out.println("results written to " + output.getAbsolutePath());
+        if (baseline != null) compare(baseline, results);
+    }
+
+    /**
+     * 完整下载一次文件，计时包括获取文件信息
+     */
+    private static Result download(BenchmarkHttpServer server, ResourceMeter meter, File saveDir, int size, int segments, boolean selector) throws Exception {
+        RetryPolicy.resetHosts();
+        int requests = server.getRequestCount();
+        long serverCpu = server.getCpuNanos();
+        long serverAllocated = server.getAllocatedBytes();
+        long allocated = meter.getAllocatedBytes();
+        long cpu = meter.getCpuNanos();
+        long begin = System.nanoTime();
+        FileDownloader downloader = new FileDownloader(new MemoryProgressStore(), server.getUrl(size + ".bin"), saveDir, segments);
+        downloader.setSegmentExecutor(selector ? SelectorEngine.getShared() : null);
+        downloader.setRetryPolicy(RETRY);
+        long downloaded = downloader.download(null);
+        Result result = new Result();
+        result.nanos = System.nanoTime() - begin;
+        result.cpuNanos = Math.max(0, meter.getCpuNanos() - cpu - (server.getCpuNanos() - serverCpu));
+        result.allocatedBytes = Math.max(0, meter.getAllocatedBytes() - allocated - (server.getAllocatedBytes() - serverAllocated));
+        result.fileSize = size;
+        result.segments = segments;
+        result.engine = selector ? "selector" : "blocking";
+        result.requests = server.getRequestCount() - requests;
+        result.retries = downloader.getMetrics().getRetryCount();
+        File saveFile = downloader.getSaveFile();
+        if (downloaded != size || saveFile.length() != size) {
+            throw new IllegalStateException("incomplete download: " + saveFile.length() + " of " + size);
+        }
+        if (!saveFile.delete()) saveFile.deleteOnExit();
+        return result;
+    }
+
+    private static byte[] content(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 写入结果文件，每个结果占一行，既是合法的JSON，也便于逐行比较
+     */
+    private static void write(File output, List<Result> results, boolean quick, int runs) throws IOException {
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) throw new IOException("Can't create " + parent);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+        try {
+            writer.write("{\"suite\":\"throughput\",\"timestamp\":" + System.currentTimeMillis()
+                    + ",\"java\":\"" + System.getProperty("java.version") + "\""
+                    + ",\"vm\":\"" + System.getProperty("java.vm.name") + "\""
+                    + ",\"cores\":" + Runtime.getRuntime().availableProcessors()
+                    + ",\"quick\":" + quick + ",\"runs\":" + runs + ",\"results\":[\n");
+            for (int i = 0; i < results.size(); i++) {
+                writer.write(results.get(i).toJson());
+                writer.write(i + 1 < results.size() ? ",\n" : "\n");
+            }
+            writer.write("]}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * 与上次的结果比较，打印变化的比例，吞吐量下降或开销增加超过阈值时标记
+     */
+    private static void compare(File baseline, List<Result> results) throws IOException {
+        Map<String, double[]> previous = new HashMap<String, double[]>();
+        Pattern key = Pattern.compile("\"key\":\"([^\"]+)\"");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(baseline), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = key.matcher(line);
+                if (!matcher.find()) continue;
+                previous.put(matcher.group(1), new double[]{number(line, "mbPerSec"), number(line, "cpuMs"), number(line, "allocatedBytes")});
+            }
+        } finally {
+            reader.close();
+        }
+        System.out.println("compared with " + baseline.getAbsolutePath());
+        System.out.println(String.format(Locale.ROOT, "%-28s %10s %10s %10s", "case", "MB/s", "cpu", "alloc"));
+        int regressions = 0;
+        for (Result result : results) {
+            double[] old = previous.get(result.getKey());
+            if (old == null) continue;
+            double speed = change(old[0], result.getMbPerSecond());
+            double cpu = change(old[1], result.cpuNanos / 1e6);
+            double allocated = change(old[2], result.allocatedBytes);
+            boolean regressed = speed < -REGRESSION_THRESHOLD || cpu > REGRESSION_THRESHOLD || allocated > REGRESSION_THRESHOLD;
+            if (regressed) regressions++;
+            System.out.println(String.format(Locale.ROOT, "%-28s %+9.1f%% %+9.1f%% %+9.1f%%%s", result.getKey(),
+                    speed * 100, cpu * 100, allocated * 100, regressed ? "  <<" : ""));
+        }
+        System.out.println(regressions + " case(s) regressed by more than " + (int) (REGRESSION_THRESHOLD * 100) + "%");
+    }
+
+    private static double number(String line, String name) {
+        Matcher matcher = Pattern.compile("\"" + name + "\":(-?[0-9.]+)").matcher(line);
+        return matcher.find() ? Double.parseDouble(matcher.group(1)) : Double.NaN;
+    }
+
+    private static double change(double before, double after) {
+        return before > 0 ? (after - before) / before : 0;
+    }
+
+    /**
+     * 网络条件
+     */
+    private static final class Scenario {
+        final String name;
+        //每个响应的延迟(毫秒)
+        final long latency;
+        //每个连接的带宽(字节/秒)，为0时不限制
+        final long bandwidth;
+        //Range请求返回503的概率和响应中途断开的概率
+        final double failureRate;
+        final double resetRate;
+
+        Scenario(String name, long latency, long bandwidth, double failureRate, double resetRate) {
+            this.name = name;
+            this.latency = latency;
+            this.bandwidth = bandwidth;
+            this.failureRate = failureRate;
+            this.resetRate = resetRate;
+        }
+    }
+
+    /**
+     * 一次下载的测量结果
+     */
+    private static final class Result {
+        String scenario;
+        int fileSize;
+        int segments;
+        String engine;
+        int runs;
+        long nanos;
+        long cpuNanos;
+        long allocatedBytes;
+        int requests;
+        long retries;
+
+        /**
+         * 比较两次运行的结果时用于对应的名称
+         */
+        String getKey() {
+            return scenario + "/" + (fileSize / MB) + "MB/" + segments + "/" + engine;
+        }
+
+        double getMbPerSecond() {
+            return (double) fileSize / MB / (nanos / 1e9);
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT, "{\"key\":\"%s\",\"scenario\":\"%s\",\"fileSize\":%d,\"segments\":%d,\"engine\":\"%s\",\"runs\":%d,"
+                            + "\"seconds\":%.4f,\"mbPerSec\":%.3f,\"cpuMs\":%.2f,\"allocatedBytes\":%d,\"requests\":%d,\"retries\":%d}",
+                    getKey(), scenario, fileSize, segments, engine, runs, nanos / 1e9, getMbPerSecond(), cpuNanos / 1e6, allocatedBytes, requests, retries);
+        }
+    }
+}
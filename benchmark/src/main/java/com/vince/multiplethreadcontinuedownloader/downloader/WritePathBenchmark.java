@@ -0,0 +1,169 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写入路径：按位置写入共享的文件通道，三种写入方式的比较，以及断点写入器合并下载段并保存进度，
+ * 文件在每次保存前不同步，只测量下载器自身的开销，不测量存储设备
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WritePathBenchmark {
+    //写入的文件大小，写到末尾后从头开始
+    private static final long FILE_SIZE = 64 * 1024 * 1024;
+
+    @State(Scope.Thread)
+    public static class Write {
+        @Param({"8192", "65536", "262144"})
+        public int size;
+        @Param({"false", "true"})
+        public boolean direct;
+        @Param({"false", "true"})
+        public boolean metrics;
+        File file;
+        SaveFileChannel channel;
+        ByteBuffer data;
+        long position;
+
+        @Setup
+        public void setUp() throws IOException {
+            file = File.createTempFile("write-path", ".bin");
+            channel = new SaveFileChannel(file, FILE_SIZE, DurabilityPolicy.SYNC_ON_COMPLETION);
+            if (metrics) channel.setMetrics(new DownloadMetrics());
+            data = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            channel.close();
+            if (!file.delete()) file.deleteOnExit();
+        }
+    }
+
+    /**
+     * 三种写入方式：stream为原来的RandomAccessFile加锁后定位再写入，channel为文件通道按位置写入，mapped为复制到内存映射的窗口
+     */
+    @State(Scope.Thread)
+    public static class Sink {
+        @Param({"stream", "channel", "mapped"})
+        public String mode;
+        @Param({"8192", "65536", "262144"})
+        public int size;
+        File file;
+        RandomAccessFile stream;
+        SaveFileChannel channel;
+        ByteBuffer data;
+        long position;
+
+        @Setup
+        public void setUp() throws IOException {
+            file = File.createTempFile("write-sink", ".bin");
+            if ("stream".equals(mode)) {
+                stream = new RandomAccessFile(file, "rw");
+                stream.setLength(FILE_SIZE);
+            } else if ("mapped".equals(mode)) {
+                channel = new MappedSaveFile(file, FILE_SIZE, DurabilityPolicy.SYNC_ON_COMPLETION);
+            } else {
+                channel = new SaveFileChannel(file, FILE_SIZE, DurabilityPolicy.SYNC_ON_COMPLETION);
+            }
+            //下载线程从输入流读取到堆内存的缓冲区
+            data = ByteBuffer.allocate(size);
+        }
+
+        void write() throws IOException {
+            if (stream != null) {
+                synchronized (stream) {
+                    stream.seek(position);
+                    stream.write(data.array(), 0, size);
+                }
+            } else {
+                data.clear();
+                channel.write(data, position);
+            }
+            position = (position + size) % FILE_SIZE;
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            if (stream != null) stream.close();
+            if (channel != null) channel.close();
+            if (!file.delete()) file.deleteOnExit();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Checkpoint {
+        //每次保存前每个下载段新写入的长度
+        private static final int ADVANCE = 64 * 1024;
+        //4GB的文件
+        private static final long CHECKPOINT_FILE_SIZE = 4L * 1024 * 1024 * 1024;
+        @Param({"1", "8", "32"})
+        public int segments;
+        List<Segment> list;
+        CheckpointWriter writer;
+
+        @Setup
+        public void setUp() {
+            list = new ArrayList<Segment>();
+            long size = CHECKPOINT_FILE_SIZE / segments;
+            for (int i = 0; i < segments; i++) {
+                list.add(new Segment(i + 1, i * size, (i + 1) * size - 1, 0));
+            }
+            ChunkBitmap bitmap = new ChunkBitmap(CHECKPOINT_FILE_SIZE, ChunkBitmap.DEFAULT_CHUNK_SIZE);
+            writer = new CheckpointWriter(new MemoryProgressStore(), "http://127.0.0.1/benchmark.bin",
+                    new SegmentScheduler(list), new ProgressCounter(segments, 0), new IntegrityTracker(), bitmap);
+        }
+
+        void advance() {
+            //下载段写完后重新开始，相对于每次保存的开销可以忽略
+            if (list.get(0).getRemaining() < ADVANCE) setUp();
+            for (Segment segment : list) {
+                segment.commit(segment.reserve(ADVANCE));
+            }
+        }
+    }
+
+    @Benchmark
+    public long write(Write state) throws IOException {
+        ByteBuffer data = state.data;
+        data.clear();
+        state.channel.write(data, state.position);
+        state.position = (state.position + state.size) % FILE_SIZE;
+        return state.position;
+    }
+
+    @Benchmark
+    public long sink(Sink state) throws IOException {
+        state.write();
+        return state.position;
+    }
+
+    @Benchmark
+    public CheckpointWriter checkpoint(Checkpoint state) {
+        state.advance();
+        state.writer.flush();
+        return state.writer;
+    }
+}
@@ -0,0 +1,234 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 批量下载大量小文件，例如同步清单中的文件：每个主机最多使用固定数量的连接，每个连接依次下载分到的文件，
+ * 下载完的连接回到长连接池供下一个文件使用；下载前一次读取所有文件的验证信息，本地文件仍是最新的时服务器返回304，不再下载；
+ * 各文件不保存下载进度，全部结束后所有文件的验证信息在一次写入中保存
+ * <p>
+ * HttpURLConnection每个主机保留的长连接数由系统属性http.maxConnections决定(默认5)，每个主机的连接数不应超过该值
+ */
+public class BatchDownloader {
+    private static final String TAG = "BatchDownloader";
+    //默认的总连接数
+    public static final int DEFAULT_MAX_CONNECTIONS = 16;
+    //默认的每个主机的连接数
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+    //验证信息的存储
+    private final ProgressStore progressStore;
+    //所有主机的总连接数，即工作线程数
+    private final int maxConnections;
+    //每个主机的连接数
+    private final int maxConnectionsPerHost;
+    //写入文件的持久化策略
+    private volatile DurabilityPolicy durability = DurabilityPolicy.SYNC_ON_CHECKPOINT;
+    //停止下载标志
+    private volatile boolean exited;
+    //正在下载的文件，停止时一起退出
+    private final Set<FileDownloader> active = Collections.newSetFromMap(new ConcurrentHashMap<FileDownloader, Boolean>());
+
+    public BatchDownloader(ProgressStore progressStore) {
+        this(progressStore, DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    /**
+     * @param progressStore         验证信息的存储，Android中为FileService
+     * @param maxConnections        所有主机的总连接数
+     * @param maxConnectionsPerHost 每个主机的连接数
+     */
+    public BatchDownloader(ProgressStore progressStore, int maxConnections, int maxConnectionsPerHost) {
+        if (maxConnections <= 0 || maxConnectionsPerHost <= 0) throw new IllegalArgumentException("Connection limits must be positive");
+        this.progressStore = progressStore;
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * 设置写入文件的持久化策略，各文件不保存下载进度，SYNC_ON_COMPLETION在完成时同步即可
+     */
+    public void setDurability(DurabilityPolicy durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * 停止批量下载，正在下载的文件立即停止，尚未开始的文件不再下载，停止前完成的文件的验证信息仍然保存
+     */
+    public void exit() {
+        this.exited = true;
+        for (FileDownloader downloader : active) {
+            downloader.exit();
+        }
+    }
+
+    /**
+     * 下载所有文件，在当前线程中等待全部结束，单个文件失败不影响其他文件
+     *
+     * @param urls     下载路径
+     * @param saveDir  文件保存目录
+     * @param listener 监听每个文件的结果，可以为null
+     * @return 批量下载的结果
+     * @throws InterruptedException 等待时被中断，此时停止所有下载，已经完成的文件的验证信息仍然保存
+     */
+    public BatchResult download(List<String> urls, File saveDir, BatchListener listener) throws InterruptedException {
+        this.exited = false;
+        BatchResult result = new BatchResult();
+        //按主机分组，每个主机的若干个连接共同领取该主机的文件
+        Map<String, Queue<String>> hosts = new LinkedHashMap<String, Queue<String>>();
+        for (String url : urls) {
+            String host;
+            try {
+                host = new URL(url).getAuthority();
+            } catch (MalformedURLException e) {
+                result.onFailure(url, e);
+                if (listener != null) listener.onFileFailure(url, e);
+                continue;
+            }
+            Queue<String> queue = hosts.get(host);
+            if (queue == null) {
+                queue = new ConcurrentLinkedQueue<String>();
+                hosts.put(host, queue);
+            }
+            queue.add(url);
+        }
+        Queue<Queue<String>> lanes = new ConcurrentLinkedQueue<Queue<String>>();
+        for (Queue<String> queue : hosts.values()) {
+            for (int i = Math.min(maxConnectionsPerHost, queue.size()); i > 0; i--) {
+                lanes.add(queue);
+            }
+        }
+        //一次读取所有文件上次下载时的验证信息，各文件的下载器从内存中读取
+        MemoryProgressStore seeds = new MemoryProgressStore();
+        Map<String, FileValidator> saved = progressStore.getValidators(urls);
+        seeds.saveValidators(saved);
+        //下载完成的文件的验证信息，下载失败且有旧记录的文件记录为null以删除旧记录
+        Map<String, FileValidator> completions = new HashMap<String, FileValidator>();
+        int workers = Math.min(maxConnections, lanes.size());
+        CountDownLatch done = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            SegmentThreads.start(new Worker(lanes, saveDir, seeds, saved, completions, result, listener, done), "BatchDownloader-" + (i + 1));
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            exit();
+            done.await();
+            throw e;
+        } finally {
+            save(completions);
+        }
+        return result;
+    }
+
+    /**
+     * 在一次写入中保存所有文件的验证信息
+     */
+    private void save(Map<String, FileValidator> completions) {
+        Map<String, FileValidator> validators;
+        synchronized (completions) {
+            if (completions.isEmpty()) return;
+            validators = new HashMap<String, FileValidator>(completions);
+        }
+        progressStore.saveValidators(validators);
+        print("Saved " + validators.size() + " validators");
+    }
+
+    /**
+     * 一个工作线程，依次领取各主机的连接位置，用该位置下载主机的文件直到没有剩余
+     */
+    private final class Worker implements Runnable {
+        private final Queue<Queue<String>> lanes;
+        private final File saveDir;
+        private final ProgressStore seeds;
+        private final Map<String, FileValidator> saved;
+        private final Map<String, FileValidator> completions;
+        private final BatchResult result;
+        private final BatchListener listener;
+        private final CountDownLatch done;
+
+        Worker(Queue<Queue<String>> lanes, File saveDir, ProgressStore seeds, Map<String, FileValidator> saved,
+               Map<String, FileValidator> completions, BatchResult result, BatchListener listener, CountDownLatch done) {
+            this.lanes = lanes;
+            this.saveDir = saveDir;
+            this.seeds = seeds;
+            this.saved = saved;
+            this.completions = completions;
+            this.result = result;
+            this.listener = listener;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Queue<String> lane;
+                while (!exited && (lane = lanes.poll()) != null) {
+                    String url;
+                    while (!exited && (url = lane.poll()) != null) {
+                        fetch(url);
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void fetch(String url) {
+            FileDownloader downloader = null;
+            try {
+                //同一主机的请求复用长连接，小文件直接读取获取文件信息时的响应体
+                downloader = new FileDownloader(seeds, url, saveDir, 1);
+                downloader.setDurability(durability);
+                active.add(downloader);
+                if (exited) return;
+                //服务器返回304时所有块都已完成，不再建立连接
+                boolean unchanged = downloader.getDownloadedSize() == downloader.getFileSize();
+                long size = downloader.download(null);
+                if (exited || size != downloader.getFileSize()) return;
+                FileValidator validator = downloader.getValidator();
+                synchronized (completions) {
+                    if (validator != null && validator.isCompleted()) {
+                        completions.put(url, validator);
+                    } else if (saved.containsKey(url)) {
+                        //没有可以用于条件请求的验证信息，删除旧记录
+                        completions.put(url, null);
+                    }
+                }
+                if (unchanged) {
+                    result.onUnchanged();
+                } else {
+                    result.onDownloaded(size);
+                }
+                if (listener != null) listener.onFileComplete(url, downloader.getSaveFile(), !unchanged);
+            } catch (Exception e) {
+                if (exited) return;
+                //本地文件可能已经被部分覆盖，旧的验证信息不再有效
+                if (saved.containsKey(url)) {
+                    synchronized (completions) {
+                        completions.put(url, null);
+                    }
+                }
+                result.onFailure(url, e);
+                if (listener != null) listener.onFileFailure(url, e);
+            } finally {
+                if (downloader != null) active.remove(downloader);
+            }
+        }
+    }
+
+    private static void print(String msg) {
+        DownloadLog.i(TAG, msg);
+    }
+}
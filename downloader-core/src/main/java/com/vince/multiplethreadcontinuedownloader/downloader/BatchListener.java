@@ -0,0 +1,23 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.File;
+
+/**
+ * 批量下载中每个文件的结果监听器，在批量下载的工作线程中调用
+ */
+public interface BatchListener {
+	/**
+	 * 一个文件下载完成，或者服务器确认文件没有变化
+	 * @param url 下载路径
+	 * @param file 保存的文件
+	 * @param changed 是否重新下载了文件，为false时本地的文件仍是最新的
+	 */
+	public void onFileComplete(String url, File file, boolean changed);
+
+	/**
+	 * 一个文件下载失败，批量下载中的其他文件继续下载
+	 * @param url 下载路径
+	 * @param e 失败原因
+	 */
+	public void onFileFailure(String url, Exception e);
+}
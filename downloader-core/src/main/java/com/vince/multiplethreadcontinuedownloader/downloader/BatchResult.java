@@ -0,0 +1,53 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 批量下载的结果，统计下载完成、没有变化和失败的文件数，由各工作线程并发更新
+ */
+public class BatchResult {
+    //重新下载的文件数和下载的字节数
+    private int downloaded;
+    private long bytes;
+    //服务器确认没有变化的文件数
+    private int unchanged;
+    //失败的下载路径和原因
+    private final Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+
+    synchronized void onDownloaded(long size) {
+        downloaded++;
+        bytes += size;
+    }
+
+    synchronized void onUnchanged() {
+        unchanged++;
+    }
+
+    synchronized void onFailure(String url, Exception e) {
+        failures.put(url, e);
+    }
+
+    public synchronized int getDownloadedCount() {
+        return downloaded;
+    }
+
+    public synchronized long getDownloadedBytes() {
+        return bytes;
+    }
+
+    public synchronized int getUnchangedCount() {
+        return unchanged;
+    }
+
+    public synchronized int getFailureCount() {
+        return failures.size();
+    }
+
+    /**
+     * 获取失败的下载路径和原因
+     */
+    public synchronized Map<String, Exception> getFailures() {
+        return new LinkedHashMap<String, Exception>(failures);
+    }
+}
@@ -0,0 +1,106 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 读写缓冲区池，按2的幂分级缓存缓冲区，下载线程在下载段之间和调整缓冲区大小时复用，读取循环中不再分配内存
+ */
+public class BufferPool {
+    //默认的最小缓冲区
+    public static final int DEFAULT_MIN_SIZE = 8 * 1024;
+    //默认的最大缓冲区
+    public static final int DEFAULT_MAX_SIZE = 256 * 1024;
+    //每级最多缓存的缓冲区数量
+    private static final int MAX_POOLED = 32;
+    //所有下载器默认共享的缓冲区池
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, false);
+
+    private final int minSize;
+    private final int maxSize;
+    //是否使用直接内存，只有直接从通道读取数据的写入路径才能使用
+    private final boolean direct;
+    //每一级缓存的缓冲区，ArrayBlockingQueue存取时不分配节点；泛型数组只能用未检查的转换创建，使用列表
+    private final List<ArrayBlockingQueue<ByteBuffer>> levels;
+
+    /**
+     * @param minSize 最小缓冲区，向上取整为2的幂
+     * @param maxSize 最大缓冲区，向上取整为2的幂
+     * @param direct  是否使用直接内存
+     */
+    public BufferPool(int minSize, int maxSize, boolean direct) {
+        if (minSize <= 0 || maxSize < minSize) throw new IllegalArgumentException("Invalid buffer size " + minSize + "-" + maxSize);
+        this.minSize = roundUp(minSize);
+        this.maxSize = roundUp(maxSize);
+        this.direct = direct;
+        int count = level(this.maxSize) + 1;
+        this.levels = new ArrayList<ArrayBlockingQueue<ByteBuffer>>(count);
+        for (int i = 0; i < count; i++) {
+            levels.add(new ArrayBlockingQueue<ByteBuffer>(MAX_POOLED));
+        }
+    }
+
+    public static BufferPool getShared() {
+        return SHARED;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * 把大小限制在池的范围内并取整为所在级别的大小
+     */
+    public int normalize(int size) {
+        if (size <= minSize) return minSize;
+        if (size >= maxSize) return maxSize;
+        return roundUp(size);
+    }
+
+    /**
+     * 获取缓冲区，容量为normalize(size)，position为0，limit为容量
+     *
+     * @param size 需要的大小
+     * @return 缓冲区
+     */
+    public ByteBuffer acquire(int size) {
+        int capacity = normalize(size);
+        ByteBuffer buffer = levels.get(level(capacity)).poll();
+        if (buffer == null) {
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，该级别已满时丢弃
+     *
+     * @param buffer 从本池获取的缓冲区
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() != direct) return;
+        int capacity = buffer.capacity();
+        if (capacity < minSize || capacity > maxSize || Integer.bitCount(capacity) != 1) return;
+        levels.get(level(capacity)).offer(buffer);
+    }
+
+    private int level(int capacity) {
+        return Integer.numberOfTrailingZeros(capacity) - Integer.numberOfTrailingZeros(minSize);
+    }
+
+    private static int roundUp(int size) {
+        int highest = Integer.highestOneBit(size);
+        return highest == size ? size : highest << 1;
+    }
+}
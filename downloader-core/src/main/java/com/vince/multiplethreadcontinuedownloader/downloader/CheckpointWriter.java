@@ -0,0 +1,198 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 断点写入器，达到时间或字节阈值时读取各下载段的最新位置，把完整写入的块标记到块位图中后写入数据库
+ */
+public class CheckpointWriter {
+    private static final String TAG = "CheckpointWriter";
+    //默认的刷新时间间隔(毫秒)
+    public static final long DEFAULT_INTERVAL = 1000;
+    //默认的刷新字节阈值
+    public static final long DEFAULT_BYTES = 1024 * 1024;
+    //下载进度的存储
+    private final ProgressStore progressStore;
+    //下载路径
+    private final String downloadUrl;
+    //下载段调度器，刷新时从中读取各下载段的最新位置
+    private final SegmentScheduler scheduler;
+    //已下载长度计数器
+    private final ProgressCounter progress;
+    //校验跟踪器，数据块校验值与下载进度一起保存
+    private final IntegrityTracker integrity;
+    //已经完成的块的位图，只在持有flushLock时修改
+    private volatile ChunkBitmap bitmap;
+    //上次刷新时的已下载总长度，只在持有flushLock时修改
+    private volatile long flushedTotal;
+    //保证同一时刻只有一个线程在写数据库
+    private final ReentrantLock flushLock = new ReentrantLock();
+    //刷新时间间隔
+    private volatile long interval = DEFAULT_INTERVAL;
+    //刷新字节阈值
+    private volatile long bytesThreshold = DEFAULT_BYTES;
+    //上次刷新的时间
+    private volatile long lastFlushTime = System.currentTimeMillis();
+    //下载文件，保存进度前先把数据同步到存储设备
+    private volatile SaveFileChannel saveFile;
+    //记录保存耗时的下载指标，为null时不记录
+    private volatile DownloadMetrics metrics;
+
+    public CheckpointWriter(ProgressStore progressStore, String downloadUrl, SegmentScheduler scheduler, ProgressCounter progress, IntegrityTracker integrity, ChunkBitmap bitmap) {
+        this.progressStore = progressStore;
+        this.downloadUrl = downloadUrl;
+        this.scheduler = scheduler;
+        this.progress = progress;
+        this.integrity = integrity;
+        this.bitmap = bitmap;
+        this.flushedTotal = progress.sum();
+    }
+
+    /**
+     * 更换块位图，下载开始前修改块大小时调用
+     */
+    void setBitmap(ChunkBitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * 设置刷新时间间隔，断电或崩溃时最多丢失一个间隔内的下载进度
+     *
+     * @param interval 毫秒
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * 设置刷新字节阈值
+     *
+     * @param bytesThreshold 新下载的字节数达到该值时刷新
+     */
+    public void setBytesThreshold(long bytesThreshold) {
+        this.bytesThreshold = bytesThreshold;
+    }
+
+    public long getBytesThreshold() {
+        return bytesThreshold;
+    }
+
+    /**
+     * 设置下载文件，其持久化策略决定保存进度前是否同步以及是否按阈值保存
+     *
+     * @param saveFile 下载文件
+     */
+    public void setSaveFile(SaveFileChannel saveFile) {
+        this.saveFile = saveFile;
+    }
+
+    void setMetrics(DownloadMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 只在完成时同步的策略下，中途保存的进度可能超过已经落盘的数据，因此不按阈值保存
+     */
+    private boolean isPeriodic() {
+        SaveFileChannel file = this.saveFile;
+        return file == null || file.getPolicy() != DurabilityPolicy.SYNC_ON_COMPLETION;
+    }
+
+    /**
+     * 下载线程写入数据后调用，达到阈值时写入数据库，不修改任何共享状态
+     */
+    public void record() {
+        if (!isPeriodic()) return;
+        if (progress.sum() - flushedTotal >= bytesThreshold) {
+            tryFlush();
+        } else if (System.currentTimeMillis() - lastFlushTime >= interval) {
+            tryFlush();
+        }
+    }
+
+    /**
+     * 到了刷新时间时写入数据库，供下载器的监视循环调用，使停顿的线程的进度也能按时保存
+     */
+    public void flushIfDue() {
+        if (isPeriodic() && System.currentTimeMillis() - lastFlushTime >= interval) {
+            tryFlush();
+        }
+    }
+
+    /**
+     * 如果其他线程正在刷新则直接返回，避免下载线程在数据库上排队
+     */
+    private void tryFlush() {
+        if (flushLock.tryLock()) {
+            try {
+                doFlush();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 立即把所有未写入的进度写入数据库，在暂停、失败和完成时调用
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            doFlush();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void doFlush() {
+        long total = progress.sum();
+        lastFlushTime = System.currentTimeMillis();
+        //校验值在读取位置之前取出，其覆盖的数据不会超过读到的位置
+        List<ChunkHash> hashes = integrity.drain();
+        //先读取位置再同步文件，读到的位置之前的数据都已经写入
+        List<Segment> segments = scheduler.getSegments();
+        List<Segment> snapshot = new ArrayList<Segment>();
+        for (Segment segment : segments) {
+            snapshot.add(new Segment(segment.getId(), segment.getStart(), segment.getEnd(), segment.getDownloaded()));
+        }
+        boolean changed = false;
+        for (int i = 0; i < segments.size(); i++) {
+            if (snapshot.get(i).getDownloaded() != segments.get(i).getFlushed()) changed = true;
+        }
+        flushedTotal = total;
+        if (!changed && hashes.isEmpty()) return;
+        long begin = System.nanoTime();
+        SaveFileChannel file = this.saveFile;
+        if (file != null) {
+            try {
+                //数据落盘后才能保存进度，否则断电后会从未写入的位置之后续传
+                file.sync();
+            } catch (IOException e) {
+                //同步失败时不保存进度，留待下次刷新
+                DownloadLog.i(TAG, "sync failed:" + e);
+                integrity.requeue(hashes);
+                return;
+            }
+        }
+        ChunkBitmap bitmap = null;
+        if (changed) {
+            bitmap = this.bitmap;
+            bitmap.mark(snapshot);
+        }
+        //校验值和块位图在同一个事务中保存，不会只保存了其中一个
+        progressStore.saveCheckpoint(downloadUrl, bitmap, hashes);
+        integrity.markSaved(hashes);
+        for (int i = 0; i < segments.size(); i++) {
+            segments.get(i).setFlushed(snapshot.get(i).getDownloaded());
+        }
+        DownloadMetrics metrics = this.metrics;
+        if (metrics != null) metrics.onCheckpoint(System.nanoTime() - begin);
+    }
+}
@@ -0,0 +1,186 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 下载进度的块位图，文件按固定大小分块，每块一位表示是否已经完整写入，
+ * 续传时相邻的未完成块合并为一个下载段，用一个Range请求下载，任何线程都可以领取任何未完成的部分
+ */
+public class ChunkBitmap {
+    //默认的块大小，异常退出后每个正在下载的位置最多重新下载一块
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    //文件大小
+    private final long fileSize;
+    //块大小，最后一块可能较小
+    private final int chunkSize;
+    //块数
+    private final int count;
+    //每块一位，第i块对应bits[i / 8]的第i % 8位
+    private final byte[] bits;
+
+    /**
+     * 创建没有完成任何块的位图
+     */
+    public ChunkBitmap(long fileSize, int chunkSize) {
+        this(fileSize, chunkSize, null);
+    }
+
+    /**
+     * 从保存的数据还原位图
+     *
+     * @param bits 保存的位，为null或长度不符时视为没有完成任何块
+     */
+    public ChunkBitmap(long fileSize, int chunkSize, byte[] bits) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive");
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        long chunks = (fileSize + chunkSize - 1) / chunkSize;
+        if (chunks > Integer.MAX_VALUE) throw new IllegalArgumentException("chunkSize too small for " + fileSize);
+        this.count = (int) chunks;
+        this.bits = new byte[(count + 7) / 8];
+        if (bits != null && bits.length == this.bits.length) System.arraycopy(bits, 0, this.bits, 0, bits.length);
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return count;
+    }
+
+    /**
+     * 获取保存用的数据
+     */
+    public synchronized byte[] toByteArray() {
+        return bits.clone();
+    }
+
+    public synchronized boolean isComplete(int index) {
+        return (bits[index >> 3] & (1 << (index & 7))) != 0;
+    }
+
+    synchronized void setComplete(int index, boolean complete) {
+        if (complete) {
+            bits[index >> 3] |= 1 << (index & 7);
+        } else {
+            bits[index >> 3] &= ~(1 << (index & 7));
+        }
+    }
+
+    /**
+     * 块在文件中的开始位置
+     */
+    public long getChunkStart(int index) {
+        return (long) index * chunkSize;
+    }
+
+    /**
+     * 块在文件中的结束位置(不包含)
+     */
+    public long getChunkEnd(int index) {
+        return Math.min(getChunkStart(index + 1), fileSize);
+    }
+
+    /**
+     * 已经完成的块的总长度
+     */
+    public synchronized long getCompletedSize() {
+        long size = 0;
+        for (int i = 0; i < count; i++) {
+            if (isComplete(i)) size += getChunkEnd(i) - getChunkStart(i);
+        }
+        return size;
+    }
+
+    /**
+     * 从文件开头连续完成的长度
+     */
+    public synchronized long getCompletedPrefix() {
+        int i = 0;
+        while (i < count && isComplete(i)) i++;
+        return i == count ? fileSize : getChunkStart(i);
+    }
+
+    /**
+     * 从指定位置开始连续完成的块的结束位置
+     *
+     * @param from 文件中的位置
+     * @return 所在的块未完成时返回from
+     */
+    public synchronized long getCompletedEnd(long from) {
+        int i = (int) (from / chunkSize);
+        while (i < count && isComplete(i)) i++;
+        return Math.max(from, i == count ? fileSize : getChunkStart(i));
+    }
+
+    /**
+     * 标记完全位于[from, to)之内的块为已完成
+     */
+    synchronized void markRange(long from, long to) {
+        int first = (int) ((from + chunkSize - 1) / chunkSize);
+        for (int i = first; i < count && getChunkEnd(i) <= to; i++) {
+            setComplete(i, true);
+        }
+    }
+
+    /**
+     * 合并已经完成的块与各下载段已经写入的部分，把完整覆盖的块标记为已完成，
+     * 跨越两个下载段的块在两边都写入后才算完成
+     *
+     * @param segments 下载段，只读取开始位置和已经下载的长度
+     */
+    synchronized void mark(List<Segment> segments) {
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (Segment segment : segments) {
+            if (segment.getDownloaded() > 0) ranges.add(new long[]{segment.getStart(), segment.getStart() + segment.getDownloaded()});
+        }
+        if (ranges.isEmpty()) return;
+        for (int i = 0; i < count; i++) {
+            if (isComplete(i)) ranges.add(new long[]{getChunkStart(i), getChunkEnd(i)});
+        }
+        Collections.sort(ranges, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+        long from = ranges.get(0)[0];
+        long to = ranges.get(0)[1];
+        for (long[] range : ranges) {
+            if (range[0] > to) {
+                markRange(from, to);
+                from = range[0];
+            }
+            to = Math.max(to, range[1]);
+        }
+        markRange(from, to);
+    }
+
+    /**
+     * 把相邻的未完成块合并为下载段，每段对应一个Range请求
+     *
+     * @return id从1开始的下载段
+     */
+    public synchronized List<Segment> getMissingSegments() {
+        List<Segment> segments = new ArrayList<Segment>();
+        int i = 0;
+        while (i < count) {
+            if (isComplete(i)) {
+                i++;
+                continue;
+            }
+            int first = i;
+            while (i < count && !isComplete(i)) i++;
+            segments.add(new Segment(segments.size() + 1, getChunkStart(first), getChunkEnd(i - 1) - 1, 0));
+        }
+        return segments;
+    }
+}
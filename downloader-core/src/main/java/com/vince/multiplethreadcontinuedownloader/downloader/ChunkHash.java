@@ -0,0 +1,39 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+/**
+ * 数据块的校验值，表示文件中[offset, offset + length)的数据的CRC32，
+ * 由同一线程连续写入且不跨越固定大小的块边界
+ */
+public class ChunkHash {
+    //在文件中的位置
+    private final long offset;
+    //长度
+    private final long length;
+    //CRC32校验值
+    private final long crc;
+
+    public ChunkHash(long offset, long length, long crc) {
+        this.offset = offset;
+        this.length = length;
+        this.crc = crc;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * 结束位置(不包含)
+     */
+    public long getEnd() {
+        return offset + length;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+}
@@ -0,0 +1,82 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * 下载线程写入数据时计算校验值，每遇到块边界或写入位置不连续时结束当前的数据块，交给校验跟踪器保存，
+ * 只由负责的下载线程或非阻塞引擎的连接访问
+ */
+class ChunkHasher {
+    //直接缓冲区没有数组，复制到该数组后计算
+    private static final int SCRATCH_SIZE = 8 * 1024;
+    private final IntegrityTracker tracker;
+    private final CRC32 crc = new CRC32();
+    //当前数据块的开始位置和已经计算的长度
+    private long pieceStart;
+    private long pieceLength;
+    private byte[] scratch;
+
+    ChunkHasher(IntegrityTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    /**
+     * 计算即将写入文件指定位置的数据，不改变缓冲区的位置
+     *
+     * @param src      数据缓冲区中剩余的数据
+     * @param position 文件中的位置
+     */
+    void update(ByteBuffer src, long position) {
+        if (src.hasArray()) {
+            update(src.array(), src.arrayOffset() + src.position(), src.remaining(), position);
+            return;
+        }
+        if (scratch == null) scratch = new byte[SCRATCH_SIZE];
+        //直接读取缓冲区后恢复位置，每次读取都创建视图会在热路径上分配对象
+        int start = src.position();
+        try {
+            while (src.hasRemaining()) {
+                int n = Math.min(scratch.length, src.remaining());
+                src.get(scratch, 0, n);
+                update(scratch, 0, n, position);
+                position += n;
+            }
+        } finally {
+            src.position(start);
+        }
+    }
+
+    /**
+     * 计算即将写入文件指定位置的数据
+     */
+    void update(byte[] b, int off, int len, long position) {
+        //文件开头连续的数据同时计算整个文件的SHA-256
+        tracker.digest(b, off, len, position);
+        long chunkSize = tracker.getChunkSize();
+        while (len > 0) {
+            if (pieceLength > 0 && position != pieceStart + pieceLength) finish();
+            if (pieceLength == 0) {
+                pieceStart = position;
+                crc.reset();
+            }
+            long chunkEnd = (position / chunkSize + 1) * chunkSize;
+            int n = (int) Math.min(len, chunkEnd - position);
+            crc.update(b, off, n);
+            pieceLength += n;
+            position += n;
+            off += n;
+            len -= n;
+            if (position == chunkEnd) finish();
+        }
+    }
+
+    /**
+     * 结束当前的数据块，在块边界、位置不连续和任务结束时调用
+     */
+    void finish() {
+        //校验值由跟踪器保留到写入数据库，每个数据块创建一个，不是每次读取
+        if (pieceLength > 0) tracker.record(new ChunkHash(pieceStart, pieceLength, crc.getValue()));
+        pieceLength = 0;
+    }
+}
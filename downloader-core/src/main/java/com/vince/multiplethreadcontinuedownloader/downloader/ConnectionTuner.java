@@ -0,0 +1,122 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+/**
+ * 连接数调节器，按时间窗口测量总下载速度，每次增加一个连接，速度提升不足时撤回并保持一段时间后再试探
+ */
+public class ConnectionTuner {
+    //默认的测量窗口(毫秒)
+    public static final long DEFAULT_WINDOW = 2000;
+    //增加连接后速度至少提升的比例，否则认为已经饱和
+    public static final double DEFAULT_MIN_GAIN = 0.1;
+    //饱和后保持连接数的窗口数，之后再次试探
+    private static final int HOLD_WINDOWS = 5;
+
+    private final int minConnections;
+    private final int maxConnections;
+    //测量窗口(纳秒)
+    private final long windowNanos;
+    private final double minGain;
+    //目标连接数
+    private int target;
+    //当前连接数下的速度(字节/秒)，为负时尚未测量
+    private double baseline = -1;
+    //是否刚增加了一个连接，正在比较速度
+    private boolean probing;
+    //饱和后剩余的保持窗口数
+    private int hold;
+    //当前窗口的开始时间和开始时的已下载长度
+    private long windowStart;
+    private long windowBytes;
+    private boolean started;
+
+    public ConnectionTuner(int minConnections, int maxConnections) {
+        this(minConnections, maxConnections, DEFAULT_WINDOW, DEFAULT_MIN_GAIN);
+    }
+
+    /**
+     * @param minConnections 最少连接数，也是初始连接数
+     * @param maxConnections 最多连接数
+     * @param window         测量窗口(毫秒)
+     * @param minGain        增加一个连接后速度至少提升的比例
+     */
+    public ConnectionTuner(int minConnections, int maxConnections, long window, double minGain) {
+        if (minConnections <= 0 || maxConnections < minConnections) throw new IllegalArgumentException("Invalid connection range " + minConnections + "-" + maxConnections);
+        this.minConnections = minConnections;
+        this.maxConnections = maxConnections;
+        this.windowNanos = window * 1000000L;
+        this.minGain = minGain;
+        this.target = minConnections;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public synchronized int getTarget() {
+        return target;
+    }
+
+    public long getWindow() {
+        return windowNanos / 1000000L;
+    }
+
+    /**
+     * 重新开始测量，暂停后继续下载时调用，已经找到的连接数作为新的起点
+     */
+    public synchronized void reset() {
+        started = false;
+        baseline = -1;
+        probing = false;
+        hold = 0;
+    }
+
+    /**
+     * 记录已下载长度，一个测量窗口结束时调整目标连接数
+     *
+     * @param now        当前时间(纳秒)
+     * @param downloaded 已下载的总长度
+     * @return 目标连接数
+     */
+    public synchronized int sample(long now, long downloaded) {
+        if (!started) {
+            started = true;
+            windowStart = now;
+            windowBytes = downloaded;
+            return target;
+        }
+        long elapsed = now - windowStart;
+        if (elapsed < windowNanos) return target;
+        double rate = (downloaded - windowBytes) * 1000000000.0 / elapsed;
+        windowStart = now;
+        windowBytes = downloaded;
+        if (probing) {
+            probing = false;
+            if (rate >= baseline * (1 + minGain)) {
+                //新连接带来了足够的提升，继续增加
+                baseline = rate;
+                grow();
+            } else {
+                //提升不足，撤回新连接并保持
+                target = Math.max(minConnections, target - 1);
+                hold = HOLD_WINDOWS;
+            }
+        } else if (baseline < 0) {
+            baseline = rate;
+            grow();
+        } else if (hold > 0 && --hold == 0) {
+            //网络状况可能已经变化，以当前速度为基准再次试探
+            baseline = rate;
+            grow();
+        }
+        return target;
+    }
+
+    private void grow() {
+        if (target < maxConnections) {
+            target++;
+            probing = true;
+        } else {
+            hold = HOLD_WINDOWS;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 下载句柄，由FileDownloader.start()返回，可以暂停、继续和取消下载，get()在下载完成、失败或取消时返回
+ */
+public class DownloadHandle implements Future<Long> {
+    //下载状态
+    public enum State {
+        RUNNING, PAUSED, COMPLETED, FAILED, CANCELLED
+    }
+
+    private final FileDownloader downloader;
+    private final DownloadProgressListener listener;
+    private final DownloadResultListener resultListener;
+    //执行下载的执行器，为null时使用新线程
+    private final Executor executor;
+    private State state = State.PAUSED;
+    //是否有下载任务在执行，暂停后任务需要等线程结束才会退出
+    private boolean running;
+    //暂停尚未生效时请求了继续下载
+    private boolean resumeRequested;
+    private long result;
+    private Exception failure;
+
+    DownloadHandle(FileDownloader downloader, DownloadProgressListener listener, DownloadResultListener resultListener, Executor executor) {
+        this.downloader = downloader;
+        this.listener = listener;
+        this.resultListener = resultListener;
+        this.executor = executor;
+    }
+
+    public FileDownloader getDownloader() {
+        return downloader;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 暂停下载，断开所有连接并保存下载进度，之后可以调用resume()继续
+     */
+    public synchronized void pause() {
+        if (state != State.RUNNING) return;
+        state = State.PAUSED;
+        resumeRequested = false;
+        downloader.exit();
+    }
+
+    /**
+     * 从保存的下载进度继续下载，不会重新获取文件信息
+     */
+    public synchronized void resume() {
+        if (state != State.PAUSED) return;
+        state = State.RUNNING;
+        if (running) {
+            //上一次的下载任务还在退出，由其结束后继续
+            resumeRequested = true;
+            return;
+        }
+        running = true;
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                execute();
+            }
+        };
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            SegmentThreads.start(task, "FileDownloader");
+        }
+    }
+
+    /**
+     * 取消下载，删除下载记录和已经下载的文件
+     *
+     * @param mayInterruptIfRunning 未使用，下载线程总是通过断开连接停止
+     * @return 下载已经结束时返回false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED) return false;
+            state = State.CANCELLED;
+            resumeRequested = false;
+            notifyAll();
+            if (running) {
+                //由下载任务在线程结束后清理
+                downloader.exit();
+                return true;
+            }
+        }
+        downloader.discard();
+        return true;
+    }
+
+    private void execute() {
+        long size = 0;
+        Exception error = null;
+        while (true) {
+            synchronized (this) {
+                if (state != State.RUNNING) break;
+                //在锁内清除暂停标志，之后的pause()一定会被本次下载看到
+                downloader.resetExit();
+            }
+            size = 0;
+            error = null;
+            try {
+                size = downloader.download(listener);
+            } catch (Exception e) {
+                error = e;
+            }
+            synchronized (this) {
+                if (state == State.CANCELLED) break;
+                if (error == null && size == downloader.getFileSize()) {
+                    state = State.COMPLETED;
+                    result = size;
+                } else if (resumeRequested) {
+                    //暂停后又请求了继续，再次下载
+                    resumeRequested = false;
+                    continue;
+                } else if (state == State.RUNNING) {
+                    //没有暂停却未能下载完整，视为失败
+                    state = State.FAILED;
+                    failure = error != null ? error : new Exception("Download incomplete: " + size + "/" + downloader.getFileSize());
+                }
+                break;
+            }
+        }
+        State outcome;
+        synchronized (this) {
+            running = false;
+            outcome = state;
+            notifyAll();
+        }
+        if (outcome == State.CANCELLED) {
+            downloader.discard();
+        } else if (resultListener != null && outcome == State.COMPLETED) {
+            resultListener.onComplete(size);
+        } else if (resultListener != null && outcome == State.FAILED) {
+            resultListener.onFailure(failure);
+        }
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    @Override
+    public synchronized Long get() throws InterruptedException, ExecutionException {
+        while (!isDone()) {
+            wait();
+        }
+        return report();
+    }
+
+    @Override
+    public synchronized Long get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isDone()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return report();
+    }
+
+    private Long report() throws ExecutionException {
+        if (state == State.CANCELLED) throw new CancellationException();
+        if (state == State.FAILED) throw new ExecutionException(failure);
+        return result;
+    }
+}
@@ -0,0 +1,117 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.File;
+
+/**
+ * 下载管理器中的下载任务，获取文件信息后持有下载器和下载句柄
+ */
+public class DownloadJob {
+    //下载路径
+    private final String url;
+    //文件保存目录
+    private final File saveDir;
+    //下载线程数
+    private final int threadNum;
+    //优先级，数值越大越优先
+    private final int priority;
+    //获取文件信息后设置
+    private volatile FileDownloader downloader;
+    private volatile DownloadHandle handle;
+    //获取文件信息前取消
+    private volatile boolean cancelled;
+    //取消时从下载队列中删除任务
+    private volatile Runnable onCancel;
+
+    public DownloadJob(String url, File saveDir, int threadNum, int priority) {
+        this.url = url;
+        this.saveDir = saveDir;
+        this.threadNum = threadNum;
+        this.priority = priority;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public File getSaveDir() {
+        return saveDir;
+    }
+
+    public int getThreadNum() {
+        return threadNum;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * 获取下载器，尚未获取文件信息时返回null
+     */
+    public FileDownloader getDownloader() {
+        return downloader;
+    }
+
+    /**
+     * 获取下载句柄，尚未开始下载时返回null
+     */
+    public DownloadHandle getHandle() {
+        return handle;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 暂停下载，尚未开始下载时无效
+     */
+    public void pause() {
+        DownloadHandle handle = this.handle;
+        if (handle != null) handle.pause();
+    }
+
+    /**
+     * 继续下载，下载重新在下载管理器中排队
+     */
+    public void resume() {
+        DownloadHandle handle = this.handle;
+        if (handle != null) handle.resume();
+    }
+
+    /**
+     * 取消下载，删除下载记录和已经下载的文件
+     */
+    public void cancel() {
+        DownloadHandle handle;
+        synchronized (this) {
+            if (cancelled) return;
+            cancelled = true;
+            handle = this.handle;
+        }
+        if (handle != null) handle.cancel(true);
+        Runnable onCancel = this.onCancel;
+        if (onCancel != null) onCancel.run();
+    }
+
+    void setOnCancel(Runnable onCancel) {
+        this.onCancel = onCancel;
+    }
+
+    /**
+     * 获取文件信息后设置下载器
+     */
+    void setDownloader(FileDownloader downloader) {
+        this.downloader = downloader;
+    }
+
+    /**
+     * 开始下载后设置下载句柄
+     *
+     * @return 任务已经取消时返回false，调用者应取消下载
+     */
+    synchronized boolean setHandle(DownloadHandle handle) {
+        this.handle = handle;
+        return !cancelled;
+    }
+}
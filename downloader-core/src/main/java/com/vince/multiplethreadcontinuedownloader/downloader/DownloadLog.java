@@ -0,0 +1,39 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.logging.Logger;
+
+/**
+ * 下载器各类打印信息的入口，通过setLogger()替换输出方式
+ */
+public final class DownloadLog {
+    //默认使用java.util.logging输出
+    private static final DownloadLogger DEFAULT = new DownloadLogger() {
+        @Override
+        public void log(String tag, String msg) {
+            Logger.getLogger(tag).info(msg);
+        }
+    };
+    private static volatile DownloadLogger logger = DEFAULT;
+
+    private DownloadLog() {
+    }
+
+    /**
+     * 设置日志输出
+     *
+     * @param logger 日志输出，为null时恢复默认
+     */
+    public static void setLogger(DownloadLogger logger) {
+        DownloadLog.logger = logger != null ? logger : DEFAULT;
+    }
+
+    /**
+     * 打印信息
+     *
+     * @param tag 来源
+     * @param msg 信息
+     */
+    public static void i(String tag, String msg) {
+        logger.log(tag, msg);
+    }
+}
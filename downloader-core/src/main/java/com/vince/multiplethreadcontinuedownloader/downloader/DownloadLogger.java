@@ -0,0 +1,13 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+/**
+ * 下载器的日志输出，Android中输出到Logcat，其他环境默认使用java.util.logging
+ */
+public interface DownloadLogger {
+	/**
+	 * 输出一条信息
+	 * @param tag 来源
+	 * @param msg 信息
+	 */
+	public void log(String tag, String msg);
+}
@@ -0,0 +1,191 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载管理器，多个下载共享一个线程池，限制同时运行的下载数、总连接数和每个主机的连接数，
+ * 等待的下载按优先级排队，队列保存在数据库中，应用重启后可以恢复
+ */
+public class DownloadManager {
+    private static final String TAG = "DownloadManager";
+    //下载进度的存储
+    private final ProgressStore progressStore;
+    //运行下载器的获取文件信息和监视循环，线程数为同时运行的下载数
+    private final ThreadPoolExecutor coordinators;
+    //共享的下载线程任务调度器
+    private final SegmentDispatcher dispatcher;
+    //排队序号，优先级相同时先加入的先运行
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * 按优先级排序的任务，优先级相同时按加入顺序
+     */
+    private static final class PriorityTask implements Runnable, Comparable<PriorityTask> {
+        final int priority;
+        final long sequence;
+        final Runnable task;
+
+        PriorityTask(int priority, long sequence, Runnable task) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PriorityTask another) {
+            if (priority != another.priority) return priority > another.priority ? -1 : 1;
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * @param progressStore         下载进度和下载队列的存储，Android中为FileService
+     * @param maxActiveDownloads    同时运行的下载数
+     * @param maxConnections        所有下载的总连接数
+     * @param maxConnectionsPerHost 每个主机的连接数
+     */
+    public DownloadManager(ProgressStore progressStore, int maxActiveDownloads, int maxConnections, int maxConnectionsPerHost) {
+        if (maxActiveDownloads <= 0) throw new IllegalArgumentException("maxActiveDownloads must be positive");
+        this.progressStore = progressStore;
+        this.dispatcher = new SegmentDispatcher(maxConnections, maxConnectionsPerHost);
+        this.coordinators = new ThreadPoolExecutor(maxActiveDownloads, maxActiveDownloads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+        this.coordinators.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 设置下载线程任务的时间片，超过时间片且有其他下载等待连接时让出连接
+     *
+     * @param quantum 毫秒
+     */
+    public void setQuantum(long quantum) {
+        dispatcher.setQuantum(quantum);
+    }
+
+    /**
+     * 获取保存在下载队列中的下载任务，应用重启后由调用者设置监听器后重新加入
+     *
+     * @return 尚未开始的下载任务
+     */
+    public List<DownloadJob> getSavedJobs() {
+        return progressStore.getJobs();
+    }
+
+    /**
+     * 把下载任务加入下载队列
+     *
+     * @param job            下载任务，可以是getSavedJobs()返回的任务
+     * @param listener       监听下载数量的变化,可以为null
+     * @param resultListener 监听下载完成或失败,可以为null
+     * @return 下载任务
+     */
+    public DownloadJob enqueue(DownloadJob job, DownloadProgressListener listener, DownloadResultListener resultListener) {
+        progressStore.saveJob(job);
+        job.setOnCancel(new Forget(job.getUrl()));
+        coordinators.execute(new PriorityTask(job.getPriority(), sequence.getAndIncrement(), new Probe(job, listener, resultListener)));
+        return job;
+    }
+
+    /**
+     * 把下载加入下载队列
+     *
+     * @param downloadUrl    下载路径
+     * @param fileSaveDir    文件保存目录
+     * @param threadNum      下载线程数
+     * @param priority       优先级，数值越大越优先
+     * @param listener       监听下载数量的变化,可以为null
+     * @param resultListener 监听下载完成或失败,可以为null
+     * @return 下载任务
+     */
+    public DownloadJob enqueue(String downloadUrl, File fileSaveDir, int threadNum, int priority, DownloadProgressListener listener, DownloadResultListener resultListener) {
+        return enqueue(new DownloadJob(downloadUrl, fileSaveDir, threadNum, priority), listener, resultListener);
+    }
+
+    /**
+     * 不再接受新的下载，已经开始的下载会运行到结束
+     */
+    public void shutdown() {
+        coordinators.shutdown();
+        dispatcher.shutdown();
+    }
+
+    /**
+     * 从下载队列中删除结束的下载任务
+     */
+    private final class Forget implements Runnable {
+        private final String url;
+
+        Forget(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            progressStore.deleteJob(url);
+        }
+    }
+
+    /**
+     * 获取文件信息并在共享线程池中开始下载
+     */
+    private final class Probe implements Runnable {
+        private final DownloadJob job;
+        private final DownloadProgressListener listener;
+        private final DownloadResultListener resultListener;
+
+        Probe(DownloadJob job, DownloadProgressListener listener, DownloadResultListener resultListener) {
+            this.job = job;
+            this.listener = listener;
+            this.resultListener = resultListener;
+        }
+
+        @Override
+        public void run() {
+            if (job.isCancelled()) return;
+            FileDownloader downloader;
+            try {
+                downloader = new FileDownloader(progressStore, job.getUrl(), job.getSaveDir(), job.getThreadNum());
+            } catch (RuntimeException e) {
+                DownloadLog.i(TAG, "probe failed:" + e);
+                progressStore.deleteJob(job.getUrl());
+                if (resultListener != null) resultListener.onFailure(e);
+                return;
+            }
+            downloader.setSegmentExecutor(dispatcher);
+            downloader.setPriority(job.getPriority());
+            job.setDownloader(downloader);
+            //下载的监视循环按优先级在同一个线程池中排队，暂停后继续时重新排队
+            final int priority = job.getPriority();
+            Executor executor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    coordinators.execute(new PriorityTask(priority, sequence.getAndIncrement(), command));
+                }
+            };
+            DownloadHandle handle = downloader.start(listener, new DownloadResultListener() {
+                @Override
+                public void onComplete(long size) {
+                    progressStore.deleteJob(job.getUrl());
+                    if (resultListener != null) resultListener.onComplete(size);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    progressStore.deleteJob(job.getUrl());
+                    if (resultListener != null) resultListener.onFailure(e);
+                }
+            }, executor);
+            if (!job.setHandle(handle)) handle.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个下载的运行指标，下载线程在热路径上只做原子加法和直方图记录，不加锁也不分配对象；
+ * 可以随时读取，也可以设置导出器由下载器定时导出。时间单位都是纳秒，速度单位是字节/秒
+ */
+public class DownloadMetrics {
+    //连接建立的耗时，复用长连接时接近0
+    private final Histogram connectLatency = new Histogram();
+    //请求发出到收到响应的第一个字节的耗时
+    private final Histogram timeToFirstByte = new Histogram();
+    //每个下载段请求的平均速度
+    private final Histogram segmentThroughput = new Histogram();
+    //保存一次下载进度的耗时，包括同步文件
+    private final Histogram checkpointLatency = new Histogram();
+    //写入一个缓冲区的耗时
+    private final Histogram diskWriteLatency = new Histogram();
+    //本下载器写入文件的字节数和正在写入的字节数
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesInFlight = new AtomicLong();
+    //请求数、失败后等待重试的次数、不能恢复的失败次数和放弃的镜像数
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong mirrorsDropped = new AtomicLong();
+    //发送的重复请求数和其中先完成的数量
+    private final AtomicLong hedgesStarted = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    //之前各次下载的运行时间之和，和本次下载开始的时间，未在下载时为0
+    private final AtomicLong activeNanos = new AtomicLong();
+    private volatile long startedAt;
+    //导出器和导出间隔
+    private volatile MetricsReporter reporter;
+    private volatile long reportInterval;
+    private volatile long lastReport;
+
+    /**
+     * 设置导出器，下载过程中按间隔导出，每次下载结束时再导出一次
+     *
+     * @param reporter 导出器，为null时不导出
+     * @param interval 导出间隔(毫秒)
+     */
+    public void setReporter(MetricsReporter reporter, long interval) {
+        this.reportInterval = interval;
+        this.reporter = reporter;
+    }
+
+    public MetricsReporter getReporter() {
+        return reporter;
+    }
+
+    public Histogram getConnectLatency() {
+        return connectLatency;
+    }
+
+    public Histogram getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    public Histogram getSegmentThroughput() {
+        return segmentThroughput;
+    }
+
+    public Histogram getCheckpointLatency() {
+        return checkpointLatency;
+    }
+
+    public Histogram getDiskWriteLatency() {
+        return diskWriteLatency;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * 已经从网络读取、正在写入文件的字节数
+     */
+    public long getBytesInFlight() {
+        return bytesInFlight.get();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public long getMirrorsDropped() {
+        return mirrorsDropped.get();
+    }
+
+    public long getHedgesStarted() {
+        return hedgesStarted.get();
+    }
+
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /**
+     * 下载的累计运行时间，包括正在进行的下载
+     */
+    public long getActiveNanos() {
+        long started = startedAt;
+        return activeNanos.get() + (started != 0 ? System.nanoTime() - started : 0);
+    }
+
+    /**
+     * 整个下载的平均速度，按运行时间计算，不包括暂停的时间
+     *
+     * @return 字节/秒，尚未运行时返回0
+     */
+    public double getThroughput() {
+        long nanos = getActiveNanos();
+        return nanos <= 0 ? 0 : bytesWritten.get() * 1000000000.0 / nanos;
+    }
+
+    /**
+     * 清除所有指标，导出器保留
+     */
+    public void reset() {
+        connectLatency.reset();
+        timeToFirstByte.reset();
+        segmentThroughput.reset();
+        checkpointLatency.reset();
+        diskWriteLatency.reset();
+        bytesWritten.set(0);
+        requests.set(0);
+        retries.set(0);
+        failures.set(0);
+        mirrorsDropped.set(0);
+        hedgesStarted.set(0);
+        hedgesWon.set(0);
+        activeNanos.set(0);
+        if (startedAt != 0) startedAt = System.nanoTime();
+    }
+
+    void onStart() {
+        startedAt = System.nanoTime();
+        lastReport = System.currentTimeMillis();
+    }
+
+    void onStop() {
+        long started = startedAt;
+        if (started == 0) return;
+        startedAt = 0;
+        activeNanos.addAndGet(System.nanoTime() - started);
+    }
+
+    void onConnect(long nanos) {
+        connectLatency.record(nanos);
+    }
+
+    void onFirstByte(long nanos) {
+        timeToFirstByte.record(nanos);
+    }
+
+    /**
+     * 一个下载段请求结束
+     *
+     * @param bytes 请求下载的长度
+     * @param nanos 请求持续的时间
+     */
+    void onRequest(long bytes, long nanos) {
+        requests.incrementAndGet();
+        if (bytes > 0 && nanos > 0) segmentThroughput.record(bytes * 1000000000L / nanos);
+    }
+
+    void onWriteStart(int bytes) {
+        bytesInFlight.addAndGet(bytes);
+    }
+
+    /**
+     * 一次写入结束
+     *
+     * @param bytes   开始写入时的长度
+     * @param written 实际写入的长度，失败时可能小于bytes
+     * @param nanos   写入的耗时
+     */
+    void onWriteEnd(int bytes, int written, long nanos) {
+        bytesInFlight.addAndGet(-bytes);
+        bytesWritten.addAndGet(written);
+        diskWriteLatency.record(nanos);
+    }
+
+    void onCheckpoint(long nanos) {
+        checkpointLatency.record(nanos);
+    }
+
+    void onRetry() {
+        retries.incrementAndGet();
+    }
+
+    void onFailure() {
+        failures.incrementAndGet();
+    }
+
+    void onMirrorDropped() {
+        mirrorsDropped.incrementAndGet();
+    }
+
+    void onHedgeStarted() {
+        hedgesStarted.incrementAndGet();
+    }
+
+    void onHedgeWon() {
+        hedgesWon.incrementAndGet();
+    }
+
+    /**
+     * 到了导出时间时导出，由下载器的等待线程调用
+     */
+    void reportIfDue() {
+        MetricsReporter reporter = this.reporter;
+        if (reporter == null || System.currentTimeMillis() - lastReport < reportInterval) return;
+        lastReport = System.currentTimeMillis();
+        reporter.report(this);
+    }
+
+    /**
+     * 立即导出，下载结束时调用
+     */
+    void report() {
+        MetricsReporter reporter = this.reporter;
+        if (reporter == null) return;
+        lastReport = System.currentTimeMillis();
+        reporter.report(this);
+    }
+}
@@ -0,0 +1,18 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+/**
+ * 下载结果监听器
+ */
+public interface DownloadResultListener {
+	/**
+	 * 下载完成
+	 * @param size 文件大小
+	 */
+	public void onComplete(long size);
+
+	/**
+	 * 下载失败，暂停和取消不会调用该方法
+	 * @param e 失败原因
+	 */
+	public void onFailure(Exception e);
+}
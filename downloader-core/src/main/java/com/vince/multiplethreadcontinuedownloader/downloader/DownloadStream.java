@@ -0,0 +1,168 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * 按顺序读取正在下载的文件，从文件开头连续写入的数据可以立即读取，只在读到尚未下载的位置时等待；
+ * 读取的位置交给调度器，优先下载该位置之后的数据，下载暂停时等待继续，下载失败时读取抛出异常
+ */
+public class DownloadStream extends InputStream implements ReadableByteChannel {
+    //等待数据时检查的最长间隔(毫秒)，块位图的更新不会通知等待的流
+    private static final long WAIT_SLICE = 50;
+
+    private final FileDownloader downloader;
+    //读取文件的通道，第一次读取时打开，文件在开始下载时才创建
+    private FileChannel channel;
+    private RandomAccessFile file;
+    //下一个读取的位置
+    private long position;
+    private volatile boolean closed;
+    //是否有线程在等待数据，只在等待时通知
+    private volatile boolean waiting;
+    private final Object lock = new Object();
+
+    DownloadStream(FileDownloader downloader, long position) {
+        this.downloader = downloader;
+        this.position = position;
+    }
+
+    /**
+     * 下一个读取的位置
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        if (closed) throw new ClosedChannelException();
+        if (position >= downloader.getFileSize()) return -1;
+        if (!dst.hasRemaining()) return 0;
+        long end = await();
+        int limit = dst.limit();
+        if (end - position < dst.remaining()) dst.limit(dst.position() + (int) (end - position));
+        int n;
+        try {
+            n = open().read(dst, position);
+        } finally {
+            dst.limit(limit);
+        }
+        if (n > 0) {
+            position += n;
+            downloader.setStreamPosition(position);
+        }
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        int n;
+        do {
+            n = read(ByteBuffer.wrap(b, off, len));
+        } while (n == 0);
+        return n;
+    }
+
+    /**
+     * 跳过的部分不需要已经下载
+     */
+    @Override
+    public synchronized long skip(long n) throws IOException {
+        if (closed) throw new ClosedChannelException();
+        if (n <= 0) return 0;
+        long skipped = Math.min(n, downloader.getFileSize() - position);
+        position += skipped;
+        downloader.setStreamPosition(position);
+        return skipped;
+    }
+
+    /**
+     * 不等待就可以读取的长度
+     */
+    @Override
+    public synchronized int available() throws IOException {
+        if (closed) throw new ClosedChannelException();
+        return (int) Math.min(Integer.MAX_VALUE, downloader.getContiguousEnd(position) - position);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        downloader.closeStream(this);
+        //唤醒等待数据的线程
+        signal();
+        synchronized (this) {
+            if (file != null) file.close();
+            file = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * 写入新数据或下载结束时由下载器调用
+     */
+    void signal() {
+        if (!waiting) return;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 等待当前位置的数据写入文件
+     *
+     * @return 从当前位置开始连续可以读取的数据的结束位置
+     */
+    private long await() throws IOException {
+        long end = downloader.getContiguousEnd(position);
+        if (end > position) return end;
+        //等待期间优先下载当前位置
+        downloader.setStreamPosition(position);
+        synchronized (lock) {
+            waiting = true;
+            try {
+                while (true) {
+                    if (closed) throw new ClosedChannelException();
+                    end = downloader.getContiguousEnd(position);
+                    if (end > position) return end;
+                    //下载失败或远程文件已经变化时不会再有数据
+                    downloader.checkStreamable();
+                    lock.wait(WAIT_SLICE);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for data");
+            } finally {
+                waiting = false;
+            }
+        }
+    }
+
+    private FileChannel open() throws IOException {
+        if (channel == null) {
+            file = new RandomAccessFile(downloader.getSaveFile(), "r");
+            channel = file.getChannel();
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,511 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * 下载线程的任务，根据具体下载地址、保持到的文件和调度器分配的下载段进行下载，完成后继续向调度器领取新的下载段，
+ * 可以运行在独立线程中，也可以由下载管理器的共享线程池执行
+ */
+public class DownloadThread implements Runnable {
+    private static final String TAG = "DownloadThread";
+    //统计读取速度的时间窗口
+    private static final long ADAPT_WINDOW_NANOS = 250 * 1000 * 1000L;
+    //每次读取的目标耗时，缓冲区大小按读取速度乘以该时间调整
+    private static final long TARGET_READ_MILLIS = 50;
+    //下载的数据保存到的文件，所有线程共享
+    private SaveFileChannel saveFile;
+    private URL downUrl;
+    //当前负责的下载段
+    private Segment segment;
+    //初始化线程id设置
+    private int threadId = -1;
+    //该线程本次运行已经下载的数据长度
+    private volatile long downloadedLength;
+    //该线程是否完成下载的标志
+    private volatile boolean finished = false;
+    //下载失败的原因和重试策略给出的等待时间，不能恢复时等待时间为-1
+    private volatile Exception error;
+    private volatile long retryDelay;
+    //是否为了让其他下载获得连接而主动让出
+    private volatile boolean yielded;
+    //是否被连接数调节器撤回
+    private volatile boolean retired;
+    //是否因为重复请求先完成而被取消
+    private volatile boolean cancelled;
+    //作为重复请求时被加速的慢速线程和它负责的下载段，不是重复请求时为null
+    private volatile DownloadThread straggler;
+    private volatile Segment hedgeTarget;
+    //任务开始运行的时间，尚未运行时为0
+    private volatile long taskStart;
+    //当前或上一个请求使用的镜像，请求开始的时间和当时的已下载长度，用于测量镜像的速度
+    private volatile Mirror mirror;
+    private long requestStart;
+    private long requestBytes;
+    //文件下载器
+    private FileDownloader downloader;
+    //当前的连接，暂停时断开以立即结束阻塞的读取
+    private volatile HttpURLConnection connection;
+    //读取缓冲区的池
+    private BufferPool bufferPool;
+    //写入时计算数据块的校验值
+    private final ChunkHasher hasher;
+    //根据读取速度调整的缓冲区大小，在该线程的各下载段之间保留
+    private int bufferSize;
+    //当前统计窗口的开始时间和读取的数据量
+    private long windowStart;
+    private long windowBytes;
+
+    public DownloadThread(FileDownloader downloader, URL downUrl, SaveFileChannel saveFile, Segment segment, int threadId) {
+        this.downUrl = downUrl;
+        this.saveFile = saveFile;
+        this.segment = segment;
+        this.downloader = downloader;
+        this.threadId = threadId;
+        this.bufferPool = downloader.getBufferPool();
+        this.bufferSize = bufferPool.getMinSize();
+        this.hasher = new ChunkHasher(downloader.getIntegrity());
+    }
+
+    @Override
+    public void run() {
+        taskStart = System.nanoTime();
+        Exception error = null;
+        try {
+            //排队后才开始运行的任务在此时领取下载段
+            if (segment == null && !downloader.getExited()) segment = downloader.nextSegment();
+            //当前段下载完成后向调度器领取无人负责的段，或拆分其他线程剩余最多的段的后一半
+            while (!stopping() && segment != null) {
+                if (!segment.isComplete()) download(segment);
+                endRequest();
+                //重复请求结束后与慢速线程比较结果，之后作为普通线程领取下载段
+                if (hedgeTarget != null) downloader.endHedge(this);
+                if (stopping()) break;
+                segment = downloader.nextSegment();
+            }
+        } catch (Exception e) {    //出现异常
+            error = e;
+        }
+        complete(error);
+    }
+
+    /**
+     * 任务结束时调用，保存下载进度，释放未完成的下载段并通知下载器，非阻塞引擎在连接结束时也调用该方法
+     *
+     * @param error 出错时的异常，正常结束、暂停、让出或撤回时为null
+     */
+    void complete(Exception error) {
+        endRequest();
+        boolean hedge = hedgeTarget != null;
+        //出错或暂停的重复请求按失败处理，慢速线程继续下载
+        if (hedge) downloader.endHedge(this);
+        //结束未满一块的数据块，使其校验值与进度一起保存
+        hasher.finish();
+        try {
+            //暂停、出错或完成时立即保存该线程的下载进度，重启的线程从这里继续
+            downloader.flushCheckpoint();
+        } catch (RuntimeException e) {
+            if (error == null) error = e;
+        }
+        if (error == null || downloader.getExited() || cancelled) {
+            //暂停或取消时断开连接引起的异常不算下载失败
+            if (downloader.getExited()) {
+                print("Thread " + this.threadId + " has been paused");
+            } else if (cancelled) {
+                print("Thread " + this.threadId + " has been cancelled by a hedged request");
+            } else if (yielded) {
+                print("Thread " + this.threadId + " yields its connection");
+            } else if (retired) {
+                print("Thread " + this.threadId + " has been retired");
+            } else {
+                print("Thread " + this.threadId + " download finish");
+            }
+            //设置完成标志为true，无论是下载完成还是用户主动中断下载
+            this.finished = true;
+        } else {
+            //设置该线程已经下载的长度为-1
+            this.error = error;
+            //在释放下载段之前设置重新领取的时间，使其他线程不会立即重试；重复请求失败时由慢速线程继续下载，不需要重试
+            if (!hedge && segment != null) this.retryDelay = downloader.onSegmentFailure(mirror, segment, error);
+            this.downloadedLength = -1;
+            //打印出异常信息
+            print("Thread " + this.threadId + ":" + error);
+        }
+        //释放未完成的下载段，由重启或继续下载的线程重新领取
+        if (segment != null && !segment.isComplete()) downloader.releaseSegment(segment);
+        //通知下载器该线程已经结束，由其决定是否重启
+        downloader.onThreadExit(this);
+    }
+
+    /**
+     * 下载指定的下载段，该段的后半部分被其他线程拆走时提前结束
+     *
+     * @param segment 下载段
+     * @throws Exception
+     */
+    private void download(Segment segment) throws Exception {
+        long startPos = segment.getStart() + segment.getDownloaded();
+        long endPos = segment.getEnd();
+        //新下载的第一个下载段直接读取获取文件信息时的响应体，其范围到文件末尾
+        HttpURLConnection http = downloader.takeProbeConnection(segment);
+        boolean probed = http != null;
+        //获取文件信息的连接属于下载路径，其他请求按各镜像的速度选择
+        beginRequest(probed ? downloader.getPrimaryMirror() : downloader.selectMirror(this, false));
+        if (!probed) {
+            //开启HttpURLConnection连接，通用请求头由下载器设置
+            http = FileDownloader.openConnection(mirror.getUrl());
+            //设置获取实体数据的范围,如果超过了实体数据的大小会自动返回实际的数据大小
+            http.setRequestProperty("Range", "bytes=" + startPos + "-" + endPos);
+            //远程文件变化时服务器返回整个新文件，不会把新文件的数据写到旧文件的后面
+            String ifRange = downloader.getIfRange();
+            if (ifRange != null) http.setRequestProperty("If-Range", ifRange);
+        }
+        this.connection = http;
+        //暂停与建立连接同时发生时，由本线程断开
+        if (downloader.getExited()) {
+            http.disconnect();
+            this.connection = null;
+            return;
+        }
+        if (!probed) {
+            //分别测量建立连接和等待响应的耗时，复用长连接时建立连接几乎不耗时
+            DownloadMetrics metrics = downloader.getMetrics();
+            long begin = System.nanoTime();
+            http.connect();
+            long connected = System.nanoTime();
+            metrics.onConnect(connected - begin);
+            http.getResponseCode();
+            metrics.onFirstByte(System.nanoTime() - connected);
+        }
+        //发送了If-Range却返回整个文件，说明远程文件已经变化
+        if (!probed && http.getResponseCode() == HttpURLConnection.HTTP_OK && downloader.getIfRange() != null) {
+            http.disconnect();
+            this.connection = null;
+            downloader.onContentChanged();
+            throw new IOException("Remote file changed");
+        }
+        //服务器忽略了Range时返回的是整个文件，不能写到当前位置；错误的响应码和Retry-After交给重试策略
+        int code = http.getResponseCode();
+        if (code != HttpURLConnection.HTTP_PARTIAL && !(code == HttpURLConnection.HTTP_OK && startPos == 0)) {
+            HttpStatusException error = HttpStatusException.from(http);
+            http.disconnect();
+            this.connection = null;
+            throw error;
+        }
+
+        //获取远程连接的输入流
+        InputStream inStream = http.getInputStream();
+        //请求的范围全部读完时只关闭输入流，连接回到长连接池供下一个请求使用
+        boolean drained = false;
+        //从池中获取本地数据缓存，大小随读取速度在池的上下限之间调整
+        ByteBuffer byteBuffer = bufferPool.acquire(bufferSize);
+        byte[] buffer = byteBuffer.array();
+        //设置每次读取的数据量
+        int offset = 0;
+        //打印该线程开始下载的位置
+        print("Thread " + this.threadId + " starts to download segment " + segment.getId() + " from position " + startPos);
+        windowStart = System.nanoTime();
+        windowBytes = 0;
+        try {
+            while (!downloader.getExited() && (offset = inStream.read(buffer, 0, byteBuffer.capacity())) != -1) {    //但用户没有要求停止下载，同时没有到达请求数据的末尾时候会一直循环读取数据
+                //申请写入，剩余部分被拆分给其他线程后只写入属于本段的数据
+                int length = segment.reserve(offset);
+                if (length > 0) {
+                    byteBuffer.clear();
+                    byteBuffer.limit(length);
+                    long position = segment.getStart() + segment.getDownloaded();
+                    //写入前计算校验值
+                    hasher.update(buffer, 0, length, position);
+                    //直接把数据写到文件中申请到的位置
+                    saveFile.write(byteBuffer, position);
+                    //把新下载的已经写到文件中的数据加入到下载长度中
+                    downloadedLength += length;
+                    //更新该段已经下载的数据长度，由断点写入器读取后批量写入数据库
+                    segment.commit(length);
+                    //把新下载的数据长度加入到已经下载的数据总长度中，重复请求的数据在胜出后一次性计入
+                    if (hedgeTarget == null) downloader.update(this.threadId, length);
+                    //超出速率限制时等待
+                    downloader.throttle(length);
+                }
+                //本段已经下载完毕，后面的数据属于其他段，不再读取
+                if (length < offset || segment.isComplete() || retired || raceLost()) {
+                    drained = length == offset && segment.isComplete() && segment.getEnd() == (probed ? downloader.getFileSize() - 1 : endPos);
+                    break;
+                }
+                //运行时间片用完且有其他下载在等待连接时让出，剩余部分由重新排队的任务继续
+                if (downloader.shouldYield(System.nanoTime() - taskStart)) {
+                    yielded = true;
+                    break;
+                }
+                windowBytes += offset;
+                if (adaptBufferSize() != byteBuffer.capacity()) {
+                    //读取速度变化后换用池中另一级别的缓冲区
+                    bufferPool.release(byteBuffer);
+                    byteBuffer = bufferPool.acquire(bufferSize);
+                    buffer = byteBuffer.array();
+                }
+            }//该段下载数据完毕或者下载被用户停止
+        } finally {
+            bufferPool.release(byteBuffer);
+            this.connection = null;
+            inStream.close();
+            if (!drained) http.disconnect();
+        }
+        //服务器提前结束了数据流
+        if (!stopping() && !segment.isComplete() && !raceLost()) {
+            throw new IOException("Segment " + segment.getId() + " ended before position " + segment.getEnd());
+        }
+    }
+
+    /**
+     * 使用指定的镜像开始一个请求
+     */
+    void beginRequest(Mirror mirror) {
+        this.mirror = mirror;
+        mirror.acquire();
+        requestStart = System.nanoTime();
+        requestBytes = downloadedLength;
+    }
+
+    /**
+     * 请求结束，把下载的长度和时间计入镜像的速度，没有进行中的请求时不做任何事
+     */
+    void endRequest() {
+        if (requestStart == 0) return;
+        long bytes = downloadedLength - requestBytes;
+        long nanos = System.nanoTime() - requestStart;
+        mirror.release(bytes, nanos);
+        downloader.getMetrics().onRequest(bytes, nanos);
+        requestStart = 0;
+    }
+
+    /**
+     * 当前或上一个请求使用的镜像，尚未发送请求时为null
+     */
+    public Mirror getMirror() {
+        return mirror;
+    }
+
+    /**
+     * 暂停、让出或撤回时结束下载
+     */
+    private boolean stopping() {
+        return downloader.getExited() || yielded || retired || cancelled;
+    }
+
+    /**
+     * 作为重复请求时，慢速线程是否已经申请完了全部数据，此时慢速线程先完成，重复请求不再继续
+     */
+    boolean raceLost() {
+        Segment target = hedgeTarget;
+        return target != null && target.getRemaining() <= 0;
+    }
+
+    /**
+     * 每个统计窗口结束时按读取速度重新计算缓冲区大小，使每次读取约为TARGET_READ_MILLIS毫秒的数据量
+     *
+     * @return 缓冲区大小
+     */
+    private int adaptBufferSize() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < ADAPT_WINDOW_NANOS) return bufferSize;
+        //每秒读取的字节数
+        long rate = windowBytes * 1000000000L / elapsed;
+        bufferSize = bufferPool.normalize((int) Math.min(Integer.MAX_VALUE, rate * TARGET_READ_MILLIS / 1000));
+        windowStart = now;
+        windowBytes = 0;
+        return bufferSize;
+    }
+
+    /**
+     * 打印信息
+     *
+     * @param msg 信息
+     */
+    private static void print(String msg) {
+        //使用Logcat的Information方式打印信息
+        DownloadLog.i(TAG, msg);
+    }
+
+    /**
+     * 下载是否完成
+     *
+     * @return
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * 断开当前连接，使阻塞在读取上的线程立即结束，由下载器在暂停时调用
+     */
+    public void abort() {
+        HttpURLConnection http = this.connection;
+        if (http != null) http.disconnect();
+    }
+
+    /**
+     * 排队中的任务在下载器暂停时不再运行，释放下载段后直接通知下载器结束
+     */
+    public void skip() {
+        if (segment != null && !segment.isComplete()) downloader.releaseSegment(segment);
+        this.finished = true;
+        downloader.onThreadExit(this);
+    }
+
+    /**
+     * 减少连接数时调用，读取完当前的数据后释放下载段并结束
+     */
+    public void retire() {
+        this.retired = true;
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * 重复请求先完成时调用，断开停顿或慢速的连接并结束，已经写入的数据保留
+     */
+    void cancel() {
+        this.cancelled = true;
+        //JDK的HttpURLConnection断开时要等待正在进行的读取返回，在单独的线程中断开，不阻塞调用者
+        SegmentThreads.start(new Runnable() {
+            @Override
+            public void run() {
+                abort();
+            }
+        }, "DownloadThread-" + threadId + "-cancel");
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 设置为慢速线程的重复请求，在任务开始运行前调用
+     *
+     * @param straggler 慢速线程
+     * @param target    慢速线程负责的下载段
+     */
+    void hedge(DownloadThread straggler, Segment target) {
+        this.straggler = straggler;
+        this.hedgeTarget = target;
+    }
+
+    /**
+     * 是否是尚未结束的重复请求
+     */
+    public boolean isHedge() {
+        return hedgeTarget != null;
+    }
+
+    DownloadThread getStraggler() {
+        return straggler;
+    }
+
+    Segment getHedgeTarget() {
+        return hedgeTarget;
+    }
+
+    /**
+     * 重复请求结束，之后作为普通线程运行
+     */
+    void clearHedge() {
+        this.straggler = null;
+        this.hedgeTarget = null;
+    }
+
+    /**
+     * 是否正在运行，排队中、已经结束或正在停止的任务返回false
+     */
+    boolean isActive() {
+        return taskStart != 0 && !finished && downloadedLength != -1 && !stopping();
+    }
+
+    Segment getSegment() {
+        return segment;
+    }
+
+    void setSegment(Segment segment) {
+        this.segment = segment;
+    }
+
+    SaveFileChannel getSaveFile() {
+        return saveFile;
+    }
+
+    URL getUrl() {
+        return downUrl;
+    }
+
+    ChunkHasher getHasher() {
+        return hasher;
+    }
+
+    long getTaskStart() {
+        return taskStart;
+    }
+
+    void setTaskStart(long taskStart) {
+        this.taskStart = taskStart;
+    }
+
+    /**
+     * 累计本次运行下载的长度，由非阻塞引擎调用
+     */
+    void addDownloaded(int length) {
+        this.downloadedLength += length;
+    }
+
+    /**
+     * 标记为主动让出连接，由非阻塞引擎调用
+     */
+    void markYielded() {
+        this.yielded = true;
+    }
+
+    /**
+     * 是否为了让其他下载获得连接而主动结束
+     */
+    public boolean isYielded() {
+        return yielded;
+    }
+
+    /**
+     * 下载失败的原因
+     *
+     * @return 没有失败时返回null
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * 重试策略给出的重新下载前的等待时间
+     *
+     * @return 毫秒，失败不能恢复时返回-1
+     */
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public int getThreadId() {
+        return threadId;
+    }
+
+    /**
+     * 该线程本次运行已经下载的内容大小
+     *
+     * @return 如果返回值为-1,代表下载失败
+     */
+    public long getDownloadedLength() {
+        return downloadedLength;
+    }
+}
+
+
@@ -0,0 +1,19 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+/**
+ * 写入文件的持久化策略，决定何时把数据强制写入存储设备
+ */
+public enum DurabilityPolicy {
+    /**
+     * 每次写入都同步到存储设备，相当于以"rwd"模式打开文件，最慢
+     */
+    SYNC_EVERY_WRITE,
+    /**
+     * 每次把下载进度写入数据库之前同步，数据库中的进度不会超过已经落盘的数据
+     */
+    SYNC_ON_CHECKPOINT,
+    /**
+     * 只在暂停、失败和完成时同步并保存进度，下载过程中异常退出会丢失本次运行的进度
+     */
+    SYNC_ON_COMPLETION
+}
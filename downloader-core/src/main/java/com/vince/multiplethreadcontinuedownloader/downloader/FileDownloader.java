@@ -0,0 +1,1413 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 下载类
+ */
+public class FileDownloader {
+    private static final String TAG = "FileDownloader";
+    //响应码为200，即访问成功
+    private static final int RESPONSEOK = 200;
+    //请求使用的用户代理
+    static final String USER_AGENT = "Mozilla/4.0 (compatible; MSIE 8.0; Windows NT 5.2; Trident/4.0; .NET CLR 1.1.4322; .NET CLR 2.0.50727; .NET CLR 3.0.04506.30; .NET CLR 3.0.4506.2152; .NET CLR 3.5.30729)";
+    //响应码为206，即返回了请求的范围
+    private static final int RESPONSE_PARTIAL = 206;
+    //读取超时(毫秒)，停顿的服务器最终会使请求失败并交给重试策略，而不是永远等待
+    static final int READ_TIMEOUT = 30 * 1000;
+    //限速等待时每次休眠的最长时间(毫秒)，使修改速率和暂停在这段时间内生效
+    private static final long THROTTLE_SLICE = 50;
+    //默认的小文件阈值，不超过一个块的文件无法记录部分进度，保存进度没有意义
+    public static final long DEFAULT_SMALL_FILE_THRESHOLD = ChunkBitmap.DEFAULT_CHUNK_SIZE;
+    //不超过该长度的新下载只用一个连接，不保存任何进度
+    private static volatile long smallFileThreshold = DEFAULT_SMALL_FILE_THRESHOLD;
+    //下载进度的存储
+    private ProgressStore progressStore;
+    //停止下载标志
+    private volatile boolean exited;
+    //已下载文件长度，各线程分槽累加
+    private ProgressCounter progress;
+    //原始文件长度
+    private long fileSize = 0;
+    //根据线程数设置下载线程池
+    private DownloadThread[] threads;
+    //下载线程任务的执行器，为null时每个任务使用独立的线程
+    private SegmentExecutor segmentExecutor;
+    //服务器是否支持Range请求，不支持时只能用一个连接从头下载
+    private boolean rangeSupported = true;
+    //获取文件信息的GET请求的连接，其响应体从文件开头开始，由第一个下载段的线程继续读取
+    private HttpURLConnection probeConnection;
+    //连接数调节器，为null时使用固定的线程数
+    private ConnectionTuner tuner;
+    //重复请求策略，为null时不检测慢速线程
+    private HedgePolicy hedging = new HedgePolicy();
+    //失败的下载段的重试策略，为null时任何失败都结束下载
+    private RetryPolicy retryPolicy = new RetryPolicy();
+    //使下载失败的不能恢复的错误
+    private volatile Exception failure;
+    //下载优先级，数值越大越优先，由下载管理器使用
+    private int priority;
+    //数据保存到的本地文件
+    private File saveFile;
+    //下载段调度器
+    private SegmentScheduler scheduler;
+    //下载路径
+    private String downloadUrl;
+    //下载路径和内容相同的镜像，下载段分散到各镜像
+    private MirrorSet mirrors;
+    //断点写入器，合并各线程的下载进度后批量写入数据库
+    private CheckpointWriter checkpointWriter;
+    //远程文件的验证信息，续传的下载段以此发送If-Range
+    private FileValidator validator;
+    //下载过程中发现远程文件已经变化
+    private volatile boolean contentChanged;
+    //已经完成的块的位图，由断点写入器更新并保存
+    private ChunkBitmap bitmap;
+    //校验跟踪器，计算并保存数据块的校验值，续传时校验断点附近的数据
+    private final IntegrityTracker integrity = new IntegrityTracker();
+    //写入文件的持久化策略
+    private DurabilityPolicy durability = DurabilityPolicy.SYNC_ON_CHECKPOINT;
+    //写入文件的方式
+    private WriteMode writeMode = WriteMode.CHANNEL;
+    //下载线程的读取缓冲区池，默认与其他下载器共享
+    private BufferPool bufferPool = BufferPool.getShared();
+    //结束的下载线程，由下载线程在结束时放入
+    private final BlockingQueue<DownloadThread> exitEvents = new LinkedBlockingQueue<DownloadThread>();
+    //本下载的限速器，默认不限速，同时受全局限速器限制
+    private final RateLimiter rateLimiter = new RateLimiter(0);
+    //下载进度发布器，没有监听器时为null
+    private volatile ProgressPublisher publisher;
+    //进度通知的最小间隔和最小增量
+    private long progressInterval = ProgressPublisher.DEFAULT_MIN_INTERVAL;
+    private long progressMinDelta = ProgressPublisher.DEFAULT_MIN_DELTA;
+    //正在按顺序读取该文件的流，打开和关闭时整体替换，下载线程每次写入后遍历时不分配迭代器
+    private volatile DownloadStream[] streams = new DownloadStream[0];
+    private final Object streamLock = new Object();
+    //运行指标，下载线程在热路径上记录，可以随时读取或由导出器定时导出
+    private final DownloadMetrics metrics = new DownloadMetrics();
+    //是否为小文件，小文件在调用download()的线程中用一个连接下载
+    private boolean small;
+
+    /**
+     * 获取线程数
+     */
+    public int getThreadSize() {
+        return threads.length;
+    }
+
+    /**
+     * 退出下载
+     */
+    public void exit() {
+        //设置退出标志为true
+        this.exited = true;
+        //断开各线程的连接，使阻塞的读取立即结束
+        for (DownloadThread thread : this.threads) {
+            if (thread != null) thread.abort();
+        }
+        //结束在共享线程池中排队的任务
+        SegmentExecutor executor = this.segmentExecutor;
+        if (executor != null) executor.release(this);
+    }
+
+    /**
+     * 清除退出标志，暂停后继续下载时从内存中的下载段继续，不再重新获取文件信息
+     */
+    void resetExit() {
+        this.exited = false;
+    }
+
+    public boolean getExited() {
+        return this.exited;
+    }
+
+    /**
+     * 获取文件大小
+     *
+     * @return
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * 获取已下载大小
+     */
+    public long getDownloadedSize() {
+        return progress.sum();
+    }
+
+    /**
+     * 累计已下载大小，下载段的位置已由线程写入Segment，此处不需要加锁
+     *
+     * @param threadId 线程id
+     * @param size     新下载的长度
+     */
+    protected void update(int threadId, long size) {
+        //把实时下载的长度加入到该线程的计数槽中
+        this.progress.add(threadId, size);
+        //由断点写入器按时间或字节阈值批量更新数据库
+        this.checkpointWriter.record();
+        //按频率限制通知监听器
+        ProgressPublisher publisher = this.publisher;
+        if (publisher != null) publisher.onProgress();
+        //唤醒等待数据的流
+        DownloadStream[] streams = this.streams;
+        for (int i = 0; i < streams.length; i++) {
+            streams[i].signal();
+        }
+    }
+
+    /**
+     * 下载线程写入数据后调用，本下载或全局的速率超出限制时等待
+     *
+     * @param size 新下载的长度
+     * @throws InterruptedException
+     */
+    protected void throttle(int size) throws InterruptedException {
+        consumeBandwidth(size);
+        long delay;
+        //分段休眠，期间修改的速率和暂停都能及时生效
+        while (!this.exited && (delay = getBandwidthDelay()) > 0) {
+            Thread.sleep(Math.min(TimeUnit.NANOSECONDS.toMillis(delay) + 1, THROTTLE_SLICE));
+        }
+    }
+
+    /**
+     * 从本下载和全局的限速器中扣除新下载的长度
+     */
+    void consumeBandwidth(int size) {
+        rateLimiter.consume(size);
+        RateLimiter.getGlobal().consume(size);
+    }
+
+    /**
+     * 本下载和全局的限速器恢复到可以继续读取还需要的时间
+     *
+     * @return 纳秒，不需要等待时返回0
+     */
+    long getBandwidthDelay() {
+        return Math.max(rateLimiter.getDelay(), RateLimiter.getGlobal().getDelay());
+    }
+
+    /**
+     * 设置本下载的速率限制，可以在下载过程中修改
+     *
+     * @param bytesPerSecond 每秒的字节数，0为不限速
+     */
+    public void setRateLimit(long bytesPerSecond) {
+        rateLimiter.setRate(bytesPerSecond);
+    }
+
+    public long getRateLimit() {
+        return rateLimiter.getRate();
+    }
+
+    /**
+     * 设置所有下载共享的速率限制，可以在下载过程中修改
+     *
+     * @param bytesPerSecond 每秒的字节数，0为不限速
+     */
+    public static void setGlobalRateLimit(long bytesPerSecond) {
+        RateLimiter.getGlobal().setRate(bytesPerSecond);
+    }
+
+    /**
+     * 设置所有下载器共享的小文件阈值，之后创建的下载器生效；不超过该长度的新下载不再分段，
+     * 在调用download()的线程中直接读取获取文件信息时的响应体，不保存任何进度，暂停或失败后从头下载
+     *
+     * @param bytes 字节数，0为不使用小文件下载
+     */
+    public static void setSmallFileThreshold(long bytes) {
+        smallFileThreshold = bytes;
+    }
+
+    public static long getSmallFileThreshold() {
+        return smallFileThreshold;
+    }
+
+    /**
+     * 是否按小文件下载
+     */
+    public boolean isSmallFile() {
+        return small;
+    }
+
+    /**
+     * 设置进度通知的频率限制，两次通知之间至少间隔interval毫秒且至少增加minDelta字节
+     *
+     * @param interval 最小间隔(毫秒)
+     * @param minDelta 最小增量(字节)
+     */
+    public void setProgressThrottle(long interval, long minDelta) {
+        this.progressInterval = interval;
+        this.progressMinDelta = minDelta;
+    }
+
+    /**
+     * 给完成了当前下载段的线程分配新的下载段
+     *
+     * @return 下载段，没有剩余工作时返回null
+     */
+    protected Segment nextSegment() {
+        return this.scheduler.next();
+    }
+
+    /**
+     * 释放失败线程负责的下载段
+     */
+    protected void releaseSegment(Segment segment) {
+        this.scheduler.release(segment);
+    }
+
+    /**
+     * 设置写入文件的持久化策略，默认在每次保存下载进度前同步
+     *
+     * @param durability 持久化策略
+     */
+    public void setDurability(DurabilityPolicy durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * 设置写入文件的方式，默认通过文件通道写入；内存映射时同时映射的窗口数不少于下载段数，
+     * 修改过的窗口随下载进度一起写回，暂停和完成时解除映射
+     *
+     * @param writeMode 写入方式，只影响下一次download()
+     */
+    public void setWriteMode(WriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    public WriteMode getWriteMode() {
+        return writeMode;
+    }
+
+    /**
+     * 设置读取缓冲区池，缓冲区大小在池的上下限之间随读取速度调整
+     *
+     * @param bufferPool 缓冲区池，下载线程从输入流读取数据，只能使用非直接内存的池
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        if (bufferPool.isDirect()) throw new IllegalArgumentException("Stream reads need a heap buffer pool");
+        this.bufferPool = bufferPool;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * 设置下载线程任务的执行器，下载管理器通过它共享线程池并限制连接数
+     *
+     * @param segmentExecutor 执行器，为null时每个任务使用独立的线程
+     */
+    public void setSegmentExecutor(SegmentExecutor segmentExecutor) {
+        this.segmentExecutor = segmentExecutor;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * 获取下载地址的主机名，用于按主机限制连接数
+     */
+    public String getHost() {
+        try {
+            return new URL(this.downloadUrl).getHost();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    public String getDownloadUrl() {
+        return downloadUrl;
+    }
+
+    /**
+     * 下载线程任务判断是否应该让出连接
+     *
+     * @param runningNanos 任务已经运行的时间
+     */
+    protected boolean shouldYield(long runningNanos) {
+        SegmentExecutor executor = this.segmentExecutor;
+        return executor != null && executor.shouldYield(this, runningNanos);
+    }
+
+    /**
+     * 使用自适应的连接数，从最少连接数开始，按测得的总下载速度逐个增加或减少连接，
+     * 下载进度按下载段保存，与连接数无关，继续下载时连接数不同也不会丢失进度
+     *
+     * @param minConnections 最少连接数
+     * @param maxConnections 最多连接数
+     */
+    public void setAdaptiveConnections(int minConnections, int maxConnections) {
+        //不支持Range请求时只能使用一个连接
+        if (!this.rangeSupported) return;
+        this.tuner = new ConnectionTuner(minConnections, maxConnections);
+        if (this.threads.length < maxConnections) this.threads = new DownloadThread[maxConnections];
+    }
+
+    /**
+     * 设置重复请求策略，停顿或远慢于其他线程的线程剩余的部分由空闲的线程位置重复请求，先完成的一方胜出
+     *
+     * @param hedging 重复请求策略，为null时不检测慢速线程
+     */
+    public void setHedgePolicy(HedgePolicy hedging) {
+        this.hedging = hedging;
+    }
+
+    /**
+     * 获取重复请求策略，可以读取重复请求的次数
+     */
+    public HedgePolicy getHedgePolicy() {
+        return hedging;
+    }
+
+    /**
+     * 添加内容相同的镜像，先确认镜像支持Range请求，且文件长度和ETag、Last-Modified与下载路径一致，
+     * 续传的If-Range使用下载路径的验证信息，验证信息不同的镜像不能使用
+     *
+     * @param mirrorUrl 镜像地址
+     * @return 是否添加，不一致或无法连接时返回false
+     */
+    public boolean addMirror(String mirrorUrl) {
+        //不支持Range请求时只能使用一个连接
+        if (!this.rangeSupported) return false;
+        try {
+            URL url = new URL(mirrorUrl);
+            HttpURLConnection conn = probe(url, "HEAD", null);
+            if (conn.getResponseCode() != RESPONSEOK && conn.getResponseCode() != RESPONSE_PARTIAL) {
+                //有的服务器不接受HEAD请求
+                conn.disconnect();
+                conn = probe(url, "GET", null);
+            }
+            try {
+                int code = conn.getResponseCode();
+                boolean ranges = code == RESPONSE_PARTIAL
+                        || (code == RESPONSEOK && "HEAD".equals(conn.getRequestMethod()) && "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges")));
+                FileValidator mirror = FileValidator.from(conn, getContentLength(conn), this.validator.getFileName());
+                if (!ranges || !mirror.matches(this.validator)) {
+                    print("Mirror " + mirrorUrl + " doesn't match " + this.downloadUrl);
+                    return false;
+                }
+                //记录重定向后的地址
+                url = conn.getURL();
+            } finally {
+                conn.disconnect();
+            }
+            this.mirrors.add(new Mirror(url));
+            return true;
+        } catch (IOException e) {
+            print("Can't connect mirror " + mirrorUrl + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * 获取下载路径和已经添加的镜像，可以读取各镜像测得的速度
+     */
+    public List<Mirror> getMirrors() {
+        return this.mirrors.getAll();
+    }
+
+    Mirror getPrimaryMirror() {
+        return this.mirrors.getPrimary();
+    }
+
+    /**
+     * 为下载线程任务的下一个请求选择镜像，重复请求尽量避开慢速线程使用的镜像
+     *
+     * @param httpOnly 是否只能选择http镜像，非阻塞引擎不支持https
+     */
+    Mirror selectMirror(DownloadThread task, boolean httpOnly) {
+        DownloadThread straggler = task.getStraggler();
+        Mirror avoid = straggler != null ? straggler.getMirror() : null;
+        return this.mirrors.select(task.getMirror(), avoid, httpOnly);
+    }
+
+    /**
+     * 设置失败的下载段的重试策略，区分可以恢复的错误与不能恢复的错误，可以恢复时按退避时间等待后重新下载
+     *
+     * @param retryPolicy 重试策略，为null时任何失败都结束下载
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * 下载段失败时由下载线程在释放该段之前调用，有其他镜像时放弃失败的镜像，该段立即由其他镜像下载，
+     * 否则按重试策略设置该段可以重新领取的时间
+     *
+     * @param mirror 失败的请求使用的镜像，可以为null
+     * @return 等待时间(毫秒)，不能恢复时返回-1
+     */
+    long onSegmentFailure(Mirror mirror, Segment segment, Exception error) {
+        //本地文件的错误换镜像也不能恢复
+        if (mirror != null && !(error instanceof StorageException) && this.mirrors.drop(mirror)) {
+            print("Drop mirror " + mirror + ": " + error);
+            this.metrics.onMirrorDropped();
+            //立即可以重新领取，由下载器在空闲的线程位置重新下载
+            segment.setRetryAt(System.currentTimeMillis());
+            return 0;
+        }
+        RetryPolicy policy = this.retryPolicy;
+        long delay = policy != null ? policy.onFailure(segment, mirror != null ? mirror.getHost() : getHost(), error) : -1;
+        if (delay >= 0) this.metrics.onRetry();
+        return delay;
+    }
+
+    /**
+     * 设置可拆分给空闲线程的最小剩余长度
+     *
+     * @param minSplitSize 字节数
+     */
+    public void setMinSplitSize(int minSplitSize) {
+        this.scheduler.setMinSplitSize(minSplitSize);
+    }
+
+    /**
+     * 立即把各线程的下载进度写入数据库，在线程暂停、失败或完成时调用
+     */
+    protected void flushCheckpoint() {
+        this.checkpointWriter.flush();
+    }
+
+    /**
+     * 下载段请求的If-Range请求头的值，远程文件变化时服务器返回整个新文件而不是旧文件的一段
+     *
+     * @return 不支持Range请求或没有可用的验证信息时返回null
+     */
+    String getIfRange() {
+        return this.rangeSupported && this.validator != null ? this.validator.getIfRange() : null;
+    }
+
+    /**
+     * 远程文件的验证信息，下载完成后标记为已完成，批量下载时由批量下载器统一保存
+     */
+    FileValidator getValidator() {
+        return this.validator;
+    }
+
+    /**
+     * 下载线程发现If-Range不匹配时调用，停止所有线程，下载结束时删除下载记录
+     */
+    void onContentChanged() {
+        if (!this.contentChanged) print("Remote file changed during download");
+        this.contentChanged = true;
+        exit();
+    }
+
+    IntegrityTracker getIntegrity() {
+        return integrity;
+    }
+
+    /**
+     * 设置块位图和数据块校验值的块大小，块越小异常退出后重新下载的数据越少，保存的进度越大；
+     * 已经有下载进度时块大小由下载记录决定，不能修改
+     *
+     * @param chunkSize 字节数
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize == this.bitmap.getChunkSize()) return;
+        if (this.progress.sum() > 0) {
+            print("Chunk size is fixed by saved progress: " + this.bitmap.getChunkSize());
+            return;
+        }
+        this.bitmap = new ChunkBitmap(this.fileSize, chunkSize);
+        this.integrity.setChunkSize(chunkSize);
+        this.checkpointWriter.setBitmap(this.bitmap);
+    }
+
+    /**
+     * 获取块大小
+     */
+    public int getChunkSize() {
+        return this.bitmap.getChunkSize();
+    }
+
+    /**
+     * 下载时计算整个文件的SHA-256，从文件开头连续写入的数据直接计算，其他线程先写入的数据在连续后从页缓存中补充读取；
+     * 与期望值不一致时下载失败并删除下载记录
+     *
+     * @param expected 期望的十六进制SHA-256，为null时只计算不比较
+     */
+    public void enableSha256(String expected) {
+        this.integrity.enableSha256(expected);
+    }
+
+    /**
+     * 获取下载完成后计算的SHA-256
+     *
+     * @return 十六进制字符串，没有开启或没有完成时返回null
+     */
+    public String getSha256() {
+        return this.integrity.getSha256();
+    }
+
+    /**
+     * 设置下载进度写入数据库的时间间隔，异常退出时最多丢失一个间隔内的进度
+     *
+     * @param interval 毫秒
+     */
+    public void setCheckpointInterval(long interval) {
+        this.checkpointWriter.setInterval(interval);
+    }
+
+    /**
+     * 设置触发写入数据库的新下载字节数
+     *
+     * @param bytes 字节数
+     */
+    public void setCheckpointBytes(long bytes) {
+        this.checkpointWriter.setBytesThreshold(bytes);
+    }
+
+    /**
+     * 构建文件下载器，下载进度只保存在内存中
+     *
+     * @param downloadUrl 下载路径
+     * @param fileSaveDir 文件保存目录
+     * @param threadNum   下载线程数
+     */
+    public FileDownloader(String downloadUrl, File fileSaveDir, int threadNum) {
+        this(new MemoryProgressStore(), downloadUrl, fileSaveDir, threadNum);
+    }
+
+    /**
+     * 构建从多个镜像下载同一文件的下载器，第一个地址作为下载路径保存进度，其他地址确认长度和验证信息一致后作为镜像使用
+     *
+     * @param progressStore 下载进度的存储，Android中为FileService
+     * @param downloadUrls  下载路径和镜像地址
+     * @param fileSaveDir   文件保存目录
+     * @param threadNum     下载线程数
+     */
+    public FileDownloader(ProgressStore progressStore, List<String> downloadUrls, File fileSaveDir, int threadNum) {
+        this(progressStore, downloadUrls.get(0), fileSaveDir, threadNum);
+        for (int i = 1; i < downloadUrls.size(); i++) {
+            addMirror(downloadUrls.get(i));
+        }
+    }
+
+    /**
+     * 构建文件下载器
+     *
+     * @param progressStore 下载进度的存储，Android中为FileService
+     * @param downloadUrl   下载路径
+     * @param fileSaveDir   文件保存目录
+     * @param threadNum     下载线程数
+     */
+    public FileDownloader(ProgressStore progressStore, String downloadUrl, File fileSaveDir, int threadNum) {
+        try {
+            this.downloadUrl = downloadUrl;
+            this.progressStore = progressStore;
+            URL url = new URL(this.downloadUrl);
+            this.mirrors = new MirrorSet(new Mirror(url));
+            //如果指定的文件不存在，则创建目录，此处可以创建多层目录
+            if (!fileSaveDir.exists()) fileSaveDir.mkdirs();
+            this.threads = new DownloadThread[threadNum];
+            //获取下载记录，没有块位图时读取旧版本按下载段保存的记录
+            ChunkBitmap logbitmap = progressStore.getProgress(downloadUrl);
+            List<Segment> logdata = logbitmap == null ? progressStore.getData(downloadUrl) : new ArrayList<Segment>();
+            boolean resuming = logbitmap != null || !logdata.isEmpty();
+            //上次下载时远程文件的验证信息
+            FileValidator saved = progressStore.getValidator(downloadUrl);
+            //已经下载完成且文件仍在时使用条件请求，文件没有变化则不再下载
+            FileValidator finished = !resuming && saved != null && saved.isCompleted() && saved.isUsable()
+                    && new File(fileSaveDir, saved.getFileName()).length() == saved.getLength() ? saved : null;
+            //续传时文件开头已经下载，只需要HEAD请求获取文件信息；新下载使用从0开始的GET请求，响应体留给第一个下载段
+            HttpURLConnection conn = probe(url, resuming ? "HEAD" : "GET", finished);
+            if (conn.getResponseCode() != RESPONSEOK && conn.getResponseCode() != RESPONSE_PARTIAL && "HEAD".equals(conn.getRequestMethod())) {
+                //有的服务器不接受HEAD请求
+                conn.disconnect();
+                conn = probe(url, "GET", null);
+            }
+            //打印返回的HTTP头字段集合
+            printResponseHeader(conn);
+            //此处的请求会打开返回流并获取返回的状态码，用于检查是否请求成功，当返回码为200或206时执行下面的代码
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && finished != null) {
+                //304没有响应体，关闭输入流后连接回到长连接池，批量检查大量文件时不必每次重新建立连接
+                release(conn);
+                print("File not modified, skip download");
+                //文件没有变化，所有块都已完成，下载时不再建立任何连接
+                this.fileSize = finished.getLength();
+                this.validator = finished;
+                this.saveFile = new File(fileSaveDir, finished.getFileName());
+                this.bitmap = new ChunkBitmap(this.fileSize, ChunkBitmap.DEFAULT_CHUNK_SIZE);
+                this.bitmap.markRange(0, this.fileSize);
+                init(new ArrayList<Segment>(), threadNum);
+            } else if (code == RESPONSEOK || code == RESPONSE_PARTIAL) {
+                //HttpURLConnection跟随了重定向时，下载段直接请求重定向后的地址，非阻塞引擎不必再处理重定向
+                URL location = conn.getURL();
+                if (!location.toString().equals(url.toString())) {
+                    print("Redirected to " + location);
+                    this.mirrors = new MirrorSet(new Mirror(location));
+                }
+                this.fileSize = getContentLength(conn);
+                //当文件大小为小于等于零时抛出运行时异常
+                if (this.fileSize <= 0) {
+                    conn.disconnect();
+                    throw new RuntimeException("Unkown file size ");
+                }
+                //返回206说明支持Range请求，HEAD请求返回200时以Accept-Ranges为准，GET请求返回200说明忽略了Range
+                this.rangeSupported = code == RESPONSE_PARTIAL
+                        || ("HEAD".equals(conn.getRequestMethod()) && "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges")));
+
+                //获取文件名称
+                String filename = getFileName(conn);
+                //根据文件保存目录和文件名构建保存文件
+                this.saveFile = new File(fileSaveDir, filename);
+                this.validator = FileValidator.from(conn, this.fileSize, filename);
+                if (resuming && ((saved != null && !this.validator.matches(saved))
+                        || (logbitmap != null && logbitmap.getFileSize() != this.fileSize))) {
+                    //远程文件已经变化，已经下载的数据属于旧文件，删除记录从头下载
+                    print("Remote file changed, restart download");
+                    progressStore.delete(downloadUrl);
+                    resuming = false;
+                }
+                List<Segment> data;
+                if (!resuming && this.fileSize <= smallFileThreshold) {
+                    //小文件只用获取文件信息的连接下载，进度只记录在内存中，不写入进度存储
+                    this.small = true;
+                    if (saved != null) progressStore.deleteValidator(downloadUrl);
+                    this.progressStore = new MemoryProgressStore();
+                    this.bitmap = new ChunkBitmap(this.fileSize, ChunkBitmap.DEFAULT_CHUNK_SIZE);
+                    data = splitFile(this.fileSize, 1);
+                    this.threads = new DownloadThread[1];
+                } else if (!this.rangeSupported) {
+                    //不支持Range请求时无法续传和分段，使用一个连接从头下载
+                    if (resuming) progressStore.delete(downloadUrl);
+                    this.bitmap = new ChunkBitmap(this.fileSize, ChunkBitmap.DEFAULT_CHUNK_SIZE);
+                    data = splitFile(this.fileSize, 1);
+                    this.threads = new DownloadThread[1];
+                } else if (!resuming) {//如果原先未曾下载，按线程数平均分块
+                    this.bitmap = new ChunkBitmap(this.fileSize, ChunkBitmap.DEFAULT_CHUNK_SIZE);
+                    data = splitFile(this.fileSize, this.threads.length);
+                } else if (logbitmap != null) {
+                    //续传前校验断点附近的块，损坏或没有校验值的块重新下载
+                    this.integrity.verify(logbitmap, progressStore.getHashes(downloadUrl), this.saveFile);
+                    this.bitmap = logbitmap;
+                    //相邻的未完成块合并为一个下载段，每段用一个Range请求下载
+                    data = logbitmap.getMissingSegments();
+                } else {
+                    //旧版本的下载记录转换为块位图，没有校验值，只能信任已经下载的长度
+                    this.bitmap = new ChunkBitmap(this.fileSize, ChunkBitmap.DEFAULT_CHUNK_SIZE);
+                    for (Segment segment : restoreSegments(logdata)) {
+                        this.bitmap.markRange(segment.getStart(), segment.getStart() + segment.getDownloaded());
+                    }
+                    data = this.bitmap.getMissingSegments();
+                }
+                if ("GET".equals(conn.getRequestMethod())) {
+                    this.probeConnection = conn;
+                } else {
+                    conn.disconnect();
+                }
+                init(data, this.threads.length);
+            } else {
+                //打印错误
+                print("服务器响应错误:" + conn.getResponseCode() + conn.getResponseMessage());
+                conn.disconnect();
+                //抛出运行时服务器返回异常
+                throw new RuntimeException("server response error ");
+            }
+        } catch (Exception e) {
+            //打印错误
+            print(e.toString());
+            //抛出运行时无法连接的异常
+            throw new RuntimeException("Can't connection this url");
+        }
+    }
+
+    /**
+     * 根据块位图和未完成的下载段创建调度器、计数器和断点写入器
+     */
+    private void init(List<Segment> data, int threadNum) {
+        this.scheduler = new SegmentScheduler(data);
+        this.scheduler.setSplitEnabled(this.rangeSupported);
+        this.integrity.setChunkSize(this.bitmap.getChunkSize());
+        //已经完成的块的长度作为计数器的初始值
+        this.progress = new ProgressCounter(threadNum, this.bitmap.getCompletedSize() + this.scheduler.getDownloadedSize());
+        if (this.progress.sum() > 0) {
+            //打印出已经下载的数据总和
+            print("已经下载的长度" + this.progress.sum() + "个字节");
+        }
+        this.checkpointWriter = new CheckpointWriter(progressStore, downloadUrl, this.scheduler, this.progress, this.integrity, this.bitmap);
+        this.checkpointWriter.setMetrics(this.metrics);
+    }
+
+    /**
+     * 发送获取文件信息的请求，请求从0开始的范围以判断服务器是否支持Range请求
+     *
+     * @param method   HEAD或GET
+     * @param finished 已经下载完成的文件的验证信息，不为null时发送条件请求，文件没有变化时返回304
+     */
+    private HttpURLConnection probe(URL url, String method, FileValidator finished) throws IOException {
+        HttpURLConnection conn = openConnection(url);
+        conn.setRequestMethod(method);
+        conn.setRequestProperty("Range", "bytes=0-");
+        if (finished != null) {
+            if (finished.getEtag() != null) conn.setRequestProperty("If-None-Match", finished.getEtag());
+            if (finished.getLastModified() != null) conn.setRequestProperty("If-Modified-Since", finished.getLastModified());
+        }
+        //和远程资源建立真正的连接，但尚无返回的数据流
+        conn.connect();
+        return conn;
+    }
+
+    /**
+     * 关闭没有响应体的连接的输入流，使连接回到长连接池，失败时断开连接
+     */
+    private static void release(HttpURLConnection conn) {
+        try {
+            conn.getInputStream().close();
+        } catch (IOException e) {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * 打开设置了通用请求头的连接，获取文件信息和各下载线程共用，
+     * 下载段的数据读取完毕后只关闭输入流而不断开连接，由HttpURLConnection复用长连接
+     *
+     * @param url 下载路径
+     * @return 尚未连接的HttpURLConnection
+     */
+    static HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        //设置连接超时时间为5秒钟
+        conn.setConnectTimeout(5 * 1000);
+        //获取文件信息的请求也要设置读取超时，它的响应体会作为第一个下载段继续读取
+        conn.setReadTimeout(READ_TIMEOUT);
+        //设置客户端可以接受的媒体类型
+        conn.setRequestProperty("Accept", "*/*");
+        //设置客户端语言
+        conn.setRequestProperty("Accept-Language", "zh-CN");
+        //设置请求的来源页面，便于服务端进行来源统计
+        conn.setRequestProperty("Referer", url.toString());
+        //设置用户代理
+        conn.setRequestProperty("User-Agent", USER_AGENT);
+        //设置Connection的方式
+        conn.setRequestProperty("Connection", "Keep-Alive");
+        return conn;
+    }
+
+    /**
+     * 领取获取文件信息时打开的连接，只有从文件开头开始且尚未下载的下载段可以使用，只能领取一次
+     *
+     * @param segment 下载段
+     * @return 连接，没有可用的连接时返回null
+     */
+    protected synchronized HttpURLConnection takeProbeConnection(Segment segment) {
+        HttpURLConnection conn = this.probeConnection;
+        if (conn == null || segment.getStart() != 0 || segment.getDownloaded() != 0) return null;
+        this.probeConnection = null;
+        return conn;
+    }
+
+    /**
+     * 断开未被领取的获取文件信息的连接
+     */
+    private synchronized void closeProbeConnection() {
+        if (this.probeConnection != null) {
+            this.probeConnection.disconnect();
+            this.probeConnection = null;
+        }
+    }
+
+    /**
+     * 服务器是否支持Range请求
+     */
+    public boolean isRangeSupported() {
+        return rangeSupported;
+    }
+
+    /**
+     * 按数量平均分块
+     *
+     * @param fileSize 文件大小
+     * @param count    块数
+     * @return 下载段集合
+     */
+    private static List<Segment> splitFile(long fileSize, int count) {
+        List<Segment> segments = new ArrayList<Segment>();
+        //计算每块的长度
+        long block = (fileSize % count) == 0 ? fileSize / count : fileSize / count + 1;
+        for (int i = 0; i < count && block * i < fileSize; i++) {
+            segments.add(new Segment(i + 1, block * i, Math.min(block * (i + 1), fileSize) - 1, 0));
+        }
+        return segments;
+    }
+
+    /**
+     * 还原数据库版本1遗留的下载记录，这些记录只保存了线程id和下载长度，范围按原来的平均分块方式计算
+     */
+    private List<Segment> restoreSegments(List<Segment> logdata) {
+        if (logdata.isEmpty() || logdata.get(0).getStart() >= 0) return logdata;
+        List<Segment> blocks = splitFile(this.fileSize, logdata.size());
+        List<Segment> segments = new ArrayList<Segment>();
+        for (Segment log : logdata) {
+            if (log.getId() < 1 || log.getId() > blocks.size()) continue;
+            Segment block = blocks.get(log.getId() - 1);
+            segments.add(new Segment(log.getId(), block.getStart(), block.getEnd(), Math.min(log.getDownloaded(), block.getEnd() - block.getStart() + 1)));
+        }
+        return segments;
+    }
+
+    /**
+     * 获取文件名
+     */
+    private String getFileName(HttpURLConnection conn) {
+        //从下载路径的字符串中获取文件名称
+        String filename = this.downloadUrl.substring(this.downloadUrl.lastIndexOf('/') + 1);
+
+        if (filename == null || "".equals(filename.trim())) {//如果获取不到文件名称
+            for (int i = 0; ; i++) {    //无限循环遍历
+                //从返回的流中获取特定索引的头字段值
+                String mine = conn.getHeaderField(i);
+                //如果遍历到了返回头末尾这退出循环
+                if (mine == null) break;
+                if ("content-disposition".equals(conn.getHeaderFieldKey(i).toLowerCase())) {    //获取content-disposition返回头字段，里面可能会包含文件名
+                    //使用正则表达式查询文件名
+                    Matcher m = Pattern.compile(".*filename=(.*)").matcher(mine.toLowerCase());
+                    //如果有符合正则表达规则的字符串
+                    if (m.find()) return m.group(1);
+                }
+            }
+            //由网卡上的标识数字(每个网卡都有唯一的标识号)以及 CPU 时钟的唯一数字生成的的一个 16 字节的二进制作为文件名
+            filename = UUID.randomUUID() + ".tmp";
+        }
+        return filename;
+    }
+
+    /**
+     * 在新线程中开始下载文件，立即返回可以暂停、继续和取消的下载句柄
+     *
+     * @param listener       监听下载数量的变化,可以为null
+     * @param resultListener 监听下载完成或失败,可以为null
+     * @return 下载句柄
+     */
+    public DownloadHandle start(DownloadProgressListener listener, DownloadResultListener resultListener) {
+        return start(listener, resultListener, null);
+    }
+
+    /**
+     * 在指定的执行器中开始下载文件，立即返回可以暂停、继续和取消的下载句柄
+     *
+     * @param listener       监听下载数量的变化,可以为null
+     * @param resultListener 监听下载完成或失败,可以为null
+     * @param executor       执行下载的执行器，为null时使用新线程
+     * @return 下载句柄
+     */
+    public DownloadHandle start(DownloadProgressListener listener, DownloadResultListener resultListener, Executor executor) {
+        DownloadHandle handle = new DownloadHandle(this, listener, resultListener, executor);
+        handle.resume();
+        return handle;
+    }
+
+    /**
+     * 删除下载记录和已经下载的文件，取消下载时调用
+     */
+    protected void discard() {
+        progressStore.delete(this.downloadUrl);
+        progressStore.deleteValidator(this.downloadUrl);
+        if (this.saveFile != null && this.saveFile.exists() && !this.saveFile.delete()) {
+            print("Can't delete " + this.saveFile);
+        }
+    }
+
+    /**
+     * 获取运行指标，包括各类耗时的直方图、速度以及重试和重复请求的次数，可以通过setReporter()定时导出
+     */
+    public DownloadMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 打开按顺序读取该文件的流，可以在下载开始前或下载过程中调用，已经连续下载的数据立即可以读取，
+     * 读到尚未下载的位置时等待，读取的位置之后的数据优先下载
+     */
+    public DownloadStream openStream() {
+        return openStream(0);
+    }
+
+    /**
+     * 从指定位置打开按顺序读取该文件的流
+     *
+     * @param position 开始读取的位置
+     */
+    public DownloadStream openStream(long position) {
+        DownloadStream stream = new DownloadStream(this, position);
+        synchronized (this.streamLock) {
+            DownloadStream[] streams = Arrays.copyOf(this.streams, this.streams.length + 1);
+            streams[streams.length - 1] = stream;
+            this.streams = streams;
+        }
+        setStreamPosition(position);
+        return stream;
+    }
+
+    void closeStream(DownloadStream stream) {
+        synchronized (this.streamLock) {
+            List<DownloadStream> streams = new ArrayList<DownloadStream>(Arrays.asList(this.streams));
+            if (!streams.remove(stream)) return;
+            this.streams = streams.toArray(new DownloadStream[streams.size()]);
+            if (streams.isEmpty()) this.scheduler.setPriorityPosition(-1);
+        }
+    }
+
+    /**
+     * 流读取到新的位置，调度器优先分配和拆分该位置之后的段
+     */
+    void setStreamPosition(long position) {
+        this.scheduler.setPriorityPosition(position);
+    }
+
+    /**
+     * 获取从指定位置开始连续可以读取的数据的结束位置，包括块位图中已经完成的块和各下载段已经写入的部分
+     *
+     * @param position 文件中的位置
+     * @return 该位置的数据尚未下载时返回position
+     */
+    long getContiguousEnd(long position) {
+        long end = position;
+        while (end < this.fileSize) {
+            long next = Math.max(this.bitmap.getCompletedEnd(end), this.scheduler.getWrittenEnd(end));
+            if (next <= end) break;
+            end = next;
+        }
+        return Math.min(end, this.fileSize);
+    }
+
+    /**
+     * 流等待数据时检查下载是否已经不可能继续
+     *
+     * @throws IOException 下载失败或远程文件已经变化
+     */
+    void checkStreamable() throws IOException {
+        Exception failure = this.failure;
+        if (failure != null) throw new IOException("Download failed permanently: " + failure.getMessage(), failure);
+        if (this.contentChanged) throw new IOException("Remote file changed during download");
+    }
+
+    /**
+     * 获取下载的数据保存到的文件
+     */
+    public File getSaveFile() {
+        return saveFile;
+    }
+
+    /**
+     * 开始下载文件
+     *
+     * @param listener 监听下载数量的变化,如果不需要了解实时下载的数量,可以设置为null
+     * @return 已下载文件大小
+     * @throws Exception
+     */
+    public long download(DownloadProgressListener listener) throws Exception {    //进行下载，并抛出异常给调用者，如果有异常的话
+        try {
+            //打开所有线程共享的文件通道并设置文件的大小
+            SaveFileChannel output;
+            if (this.writeMode == WriteMode.MEMORY_MAPPED && !this.small && this.fileSize > 0) {
+                //每个下载段至少有一个窗口，另留一个给跨越窗口边界的写入
+                output = new MappedSaveFile(this.saveFile, this.fileSize, this.durability, MappedSaveFile.DEFAULT_WINDOW_SIZE,
+                        Math.max(MappedSaveFile.DEFAULT_MAX_WINDOWS, this.threads.length + 1));
+            } else {
+                output = new SaveFileChannel(this.saveFile, this.fileSize, this.durability);
+            }
+            this.checkpointWriter.setSaveFile(output);
+            output.setMetrics(this.metrics);
+            this.metrics.onStart();
+            try {
+                download(listener, output);
+            } finally {
+                //暂停或出错时第一个下载段可能没有领取获取文件信息的连接
+                closeProbeConnection();
+                //同步并关闭文件
+                output.close();
+                //暂停的时间不计入运行时间，每次下载结束时导出一次
+                this.metrics.onStop();
+                this.metrics.report();
+            }
+        } catch (Exception e) {
+            //打印错误
+            print(e.toString());
+            //抛出文件下载异常，保留原因使调用者可以区分失败的类型
+            throw new Exception("File downloads error", e);
+        }
+        return this.progress.sum();
+    }
+
+    /**
+     * 启动下载线程并等待全部完成，线程结束时通过事件队列通知，不再定时轮询
+     */
+    private void download(DownloadProgressListener listener, SaveFileChannel output) throws Exception {
+        URL url = new URL(this.downloadUrl);
+        if (this.contentChanged) {
+            //已经下载的数据属于旧文件，须重新创建下载器从头下载
+            throw new IOException("Remote file changed, download must restart");
+        }
+        //如果存在下载记录，删除它们，然后重新添加，旧版本的下载段记录和已经失效的校验值随之删除
+        progressStore.delete(this.downloadUrl);
+        //把已经下载的实时数据写入数据库，暂停后继续下载时使用内存中最新的下载段
+        progressStore.saveCheckpoint(this.downloadUrl, this.bitmap, this.integrity.getSaved());
+        //保存验证信息，续传时判断远程文件是否变化
+        if (!this.validator.isCompleted()) progressStore.saveValidator(this.downloadUrl, this.validator);
+        this.exitEvents.clear();
+        //用户重新开始下载时重新计算失败次数
+        this.scheduler.resetFailures();
+        this.failure = null;
+        this.publisher = listener != null ? new ProgressPublisher(this.progress, listener, this.progressInterval, this.progressMinDelta) : null;
+        //正在运行的线程数和其中已经撤回的线程数
+        int running = 0;
+        int retiring = 0;
+        //自适应时从调节器的目标连接数开始
+        int initial = this.threads.length;
+        if (this.tuner != null) {
+            this.tuner.reset();
+            initial = this.tuner.getTarget();
+        }
+        if (this.hedging != null) this.hedging.reset();
+        for (int i = 0; i < this.threads.length; i++) {//开启线程进行下载
+            if (i >= initial) {
+                this.threads[i] = null;
+                continue;
+            }
+            //领取下载段，没有剩余工作时不再启动线程
+            Segment segment = this.scheduler.next();
+            if (segment != null) {
+                startThread(url, output, segment, i + 1);
+                running++;
+            } else {
+                //表明在线程已经完成下载任务
+                this.threads[i] = null;
+            }
+        }
+        //等待所有线程结束，失败的下载段在退避结束后重新下载
+        while (running > 0 || (!this.exited && this.scheduler.getRetryAt() > 0)) {
+            long timeout = this.checkpointWriter.getInterval();
+            if (this.tuner != null) timeout = Math.min(timeout, this.tuner.getWindow());
+            if (this.hedging != null) timeout = Math.min(timeout, this.hedging.getInterval());
+            //有空闲的线程位置时等到最早的重试时间，没有时等待线程结束
+            long retryAt = this.scheduler.getRetryAt();
+            if (retryAt > 0 && freeSlot(running - retiring) >= 0) {
+                timeout = Math.max(0, Math.min(timeout, retryAt - System.currentTimeMillis()));
+            }
+            DownloadThread thread = this.exitEvents.poll(timeout, TimeUnit.MILLISECONDS);
+            if (thread != null) {
+                running--;
+                if (thread.isRetired()) {
+                    //撤回的线程不再重启
+                    retiring--;
+                    this.threads[thread.getThreadId() - 1] = null;
+                } else if (thread.isYielded() && !this.exited) {
+                    //让出连接的任务立即重新排队，由执行器决定何时运行
+                    startThread(url, output, null, thread.getThreadId());
+                    running++;
+                } else if (thread.getDownloadedLength() == -1 && !this.exited) {
+                    //如果下载失败，可以恢复时该段退避后在已经下载的数据长度的基础上重新下载，不能恢复时结束下载
+                    this.threads[thread.getThreadId() - 1] = null;
+                    if (thread.getRetryDelay() < 0) {
+                        this.failure = thread.getError();
+                        print("Thread " + thread.getThreadId() + " failed permanently: " + this.failure);
+                        this.metrics.onFailure();
+                        exit();
+                    }
+                } else {
+                    //正常下载了数据，清除主机的连续失败次数
+                    Mirror mirror = thread.getMirror();
+                    if (thread.getDownloadedLength() > 0 && mirror != null && this.retryPolicy != null) this.retryPolicy.onSuccess(mirror.getHost());
+                    //结束的线程空出位置，自适应时可以启动新的连接
+                    this.threads[thread.getThreadId() - 1] = null;
+                }
+            }
+            retryAt = this.scheduler.getRetryAt();
+            if (retryAt > 0 && retryAt <= System.currentTimeMillis()) {
+                //重新开辟下载线程，失败线程释放的下载段由其重新领取
+                int slot;
+                while (!this.exited && (slot = freeSlot(running - retiring)) >= 0) {
+                    Segment segment = this.scheduler.next();
+                    if (segment == null) break;
+                    startThread(url, output, segment, slot + 1);
+                    running++;
+                }
+            }
+            //撤回的线程释放的下载段可能在其他线程都结束后才出现，因此没有运行的线程时也要检查
+            if (this.tuner != null && !this.exited) {
+                int target = this.tuner.sample(System.nanoTime(), this.progress.sum());
+                //增加连接，新线程领取无人负责的下载段或拆分剩余最多的段
+                for (int i = 0; i < this.threads.length && running - retiring < target; i++) {
+                    if (this.threads[i] != null) continue;
+                    Segment segment = this.scheduler.next();
+                    if (segment == null) break;
+                    startThread(url, output, segment, i + 1);
+                    running++;
+                }
+                //减少连接，撤回id最大的线程，其下载段由其他线程领取
+                for (int i = this.threads.length - 1; i >= 0 && running - retiring > target; i--) {
+                    DownloadThread task = this.threads[i];
+                    if (task == null || task.isFinished() || task.isRetired()) continue;
+                    task.retire();
+                    retiring++;
+                }
+            }
+            //慢速线程的剩余部分使用空闲的线程位置重复请求，限速时各线程的速度不能反映线路的好坏
+            if (this.hedging != null && this.rangeSupported && !this.exited
+                    && getRateLimit() == 0 && RateLimiter.getGlobal().getRate() == 0) {
+                running += startHedges(url, output);
+            }
+            //停顿的线程不会触发写入，此处按时间间隔补充写入
+            this.checkpointWriter.flushIfDue();
+            this.metrics.reportIfDue();
+            //补充计算已经连续下载的数据的SHA-256
+            this.integrity.advanceDigest(output, this.bitmap.getCompletedPrefix());
+        }
+        //写入最后的下载进度
+        this.checkpointWriter.flush();
+        //等待数据的流重新检查，下载失败时结束读取
+        for (DownloadStream stream : this.streams) {
+            stream.signal();
+        }
+        //通知最终的下载长度
+        if (this.publisher != null) this.publisher.publish();
+        if (this.failure != null) {
+            //保留已经下载的进度，排除原因后可以继续下载
+            throw new IOException("Download failed permanently: " + this.failure.getMessage(), this.failure);
+        }
+        if (this.contentChanged) {
+            //远程文件在下载过程中变化，删除记录，重新下载时从头开始
+            progressStore.delete(this.downloadUrl);
+            progressStore.deleteValidator(this.downloadUrl);
+            throw new IOException("Remote file changed during download");
+        }
+        if (this.progress.sum() == this.fileSize) {
+            try {
+                //比较整个文件的SHA-256，不一致时抛出异常
+                this.integrity.finishDigest(output, this.fileSize);
+            } catch (IOException e) {
+                progressStore.deleteValidator(this.downloadUrl);
+                throw e;
+            } finally {
+                //下载完成删除记录，SHA-256不一致时也删除，重新下载时从头开始
+                progressStore.delete(this.downloadUrl);
+            }
+            //保留验证信息并标记为完成，之后的条件请求确认文件没有变化时不再下载
+            if (this.validator.isUsable()) {
+                this.validator = this.validator.complete();
+                progressStore.saveValidator(this.downloadUrl, this.validator);
+            }
+        }
+    }
+
+    /**
+     * 查找可以启动新线程的空闲位置，自适应时正在运行的线程数不能超过调节器的目标连接数
+     *
+     * @param active 正在运行且没有撤回的线程数
+     * @return 位置的下标，没有时返回-1
+     */
+    private int freeSlot(int active) {
+        if (this.tuner != null && active >= this.tuner.getTarget()) return -1;
+        for (int i = 0; i < this.threads.length; i++) {
+            if (this.threads[i] == null) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 启动指定id的下载线程
+     *
+     * @param segment 下载段，为null时由任务开始运行时领取
+     */
+    private void startThread(URL url, SaveFileChannel output, Segment segment, int threadId) {
+        startThread(new DownloadThread(this, url, output, segment, threadId));
+    }
+
+    /**
+     * 在任务的线程id对应的位置启动下载线程任务
+     */
+    private void startThread(DownloadThread task) {
+        this.threads[task.getThreadId() - 1] = task;
+        if (this.segmentExecutor != null) {
+            this.segmentExecutor.execute(this, task);
+            return;
+        }
+        if (this.small) {
+            //小文件只有一个连接，在当前线程中下载，结束事件在等待之前已经放入队列
+            task.run();
+            return;
+        }
+        //JDK 21及以上使用虚拟线程，Android使用优先级为7的平台线程
+        SegmentThreads.start(task, "DownloadThread-" + task.getThreadId());
+    }
+
+    /**
+     * 测量各线程的速度，给停顿或慢速的线程剩余的部分发送重复请求
+     *
+     * @return 启动的重复请求数
+     */
+    private int startHedges(URL url, SaveFileChannel output) {
+        int started = 0;
+        for (DownloadThread straggler : this.hedging.sample(System.nanoTime(), this.threads)) {
+            int slot = -1;
+            for (int i = 0; i < this.threads.length && slot < 0; i++) {
+                if (this.threads[i] == null) slot = i;
+            }
+            //没有空闲的线程位置时等待其他线程结束
+            if (slot < 0) break;
+            Segment target = straggler.getSegment();
+            Segment hedge = target != null ? this.scheduler.hedge(target) : null;
+            if (hedge == null) continue;
+            print("Thread " + straggler.getThreadId() + " is too slow, hedge segment " + target.getId() + " from position " + hedge.getStart());
+            DownloadThread task = new DownloadThread(this, url, output, hedge, slot + 1);
+            task.hedge(straggler, target);
+            this.hedging.onStarted();
+            this.metrics.onHedgeStarted();
+            startThread(task);
+            started++;
+        }
+        return started;
+    }
+
+    /**
+     * 重复请求结束时调用，先完成的一方胜出；重复请求胜出时截短慢速线程的下载段，
+     * 把补上的部分计入进度并取消慢速线程，慢速线程胜出或重复请求失败时丢弃重复请求的结果
+     *
+     * @param task 重复请求的任务
+     */
+    void endHedge(DownloadThread task) {
+        Segment hedge = task.getSegment();
+        Segment target = task.getHedgeTarget();
+        DownloadThread straggler = task.getStraggler();
+        task.clearHedge();
+        if (hedge == null || target == null) return;
+        if (!hedge.isComplete()) {
+            target.unhedge();
+            return;
+        }
+        long cut = target.truncate(hedge.getStart());
+        if (cut < 0) {
+            print("Thread " + straggler.getThreadId() + " finished segment " + target.getId() + " before the hedged request");
+            return;
+        }
+        long end = hedge.getEnd();
+        if (cut <= end) {
+            //补上的部分作为已完成的下载段加入调度器，由断点写入器标记到块位图中
+            this.scheduler.adopt(new Segment(hedge.getId(), cut, end, end - cut + 1));
+            update(task.getThreadId(), end - cut + 1);
+        }
+        if (this.hedging != null) this.hedging.onWon();
+        this.metrics.onHedgeWon();
+        print("Hedged request of thread " + task.getThreadId() + " won segment " + target.getId());
+        //慢速线程仍在下载该段时取消，已经申请的部分由其写完，失败时释放给其他线程
+        if (straggler.getSegment() == target && !straggler.isFinished()) straggler.cancel();
+    }
+
+    /**
+     * 下载线程结束时调用，无论是完成、暂停还是失败
+     */
+    protected void onThreadExit(DownloadThread thread) {
+        this.exitEvents.offer(thread);
+    }
+
+    /**
+     * 从Content-Range或Content-Length头字段获取实体数据的长度，getContentLength()超过2G时会返回-1
+     *
+     * @param http HttpURLConnection对象
+     * @return 实体数据的长度，未知时返回-1
+     */
+    public static long getContentLength(HttpURLConnection http) {
+        //分段响应的格式为bytes 0-1023/4096，斜杠后面为完整长度
+        String range = http.getHeaderField("Content-Range");
+        if (range != null) {
+            int slash = range.lastIndexOf('/');
+            if (slash >= 0) {
+                try {
+                    return Long.parseLong(range.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    //长度为*时继续读取Content-Length
+                }
+            }
+        }
+        String length = http.getHeaderField("Content-Length");
+        if (length != null) {
+            try {
+                return Long.parseLong(length.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 获取Http响应头字段
+     *
+     * @param http HttpURLConnection对象
+     * @return 返回头字段的LinkedHashMap
+     */
+    public static Map<String, String> getHttpResponseHeader(HttpURLConnection http) {
+        //使用LinkedHashMap保证写入和遍历的时候的顺序相同，而且允许空值存在
+        Map<String, String> header = new LinkedHashMap<String, String>();
+        for (int i = 0; ; i++) {    //此处为无限循环，因为不知道头字段的数量
+            //getHeaderField(int n)用于返回 第n个头字段的值。
+            String fieldValue = http.getHeaderField(i);
+
+            //如果第i个字段没有值了，则表明头字段部分已经循环完毕，此处使用Break退出循环
+            if (fieldValue == null) break;
+            //getHeaderFieldKey(int n)用于返回 第n个头字段的键。
+            header.put(http.getHeaderFieldKey(i), fieldValue);
+        }
+        return header;
+    }
+
+    /**
+     * 打印Http头字段
+     *
+     * @param http HttpURLConnection对象
+     */
+    public static void printResponseHeader(HttpURLConnection http) {
+        //获取Http响应头字段
+        Map<String, String> header = getHttpResponseHeader(http);
+        //使用For-Each循环的方式遍历获取的头字段的值，此时遍历的循序和输入的顺序相同
+        for (Map.Entry<String, String> entry : header.entrySet()) {
+            //当有键的时候这获取键，如果没有则为空字符串
+            String key = entry.getKey() != null ? entry.getKey() + ":" : "";
+            print(key + entry.getValue());    //答应键和值的组合
+        }
+    }
+
+    /**
+     * 打印信息
+     *
+     * @param msg 信息字符串
+     */
+    private static void print(String msg) {
+        //使用LogCat的Information方式打印信息
+        DownloadLog.i(TAG, msg);
+    }
+}
@@ -0,0 +1,97 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.net.HttpURLConnection;
+
+/**
+ * 远程文件的验证信息，包括ETag、Last-Modified和长度，与下载进度一起保存，
+ * 续传时用于判断远程文件是否变化，下载完成后用于条件请求
+ */
+public class FileValidator {
+    //ETag，服务器没有返回时为null
+    private final String etag;
+    //Last-Modified，服务器没有返回时为null
+    private final String lastModified;
+    //文件长度
+    private final long length;
+    //保存的文件名
+    private final String fileName;
+    //是否已经下载完成
+    private final boolean completed;
+
+    public FileValidator(String etag, String lastModified, long length, String fileName, boolean completed) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.fileName = fileName;
+        this.completed = completed;
+    }
+
+    /**
+     * 从响应头获取验证信息
+     *
+     * @param conn     获取文件信息的连接
+     * @param length   文件长度
+     * @param fileName 保存的文件名
+     */
+    static FileValidator from(HttpURLConnection conn, long length, String fileName) {
+        return new FileValidator(conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"), length, fileName, false);
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * 标记为已经下载完成
+     */
+    FileValidator complete() {
+        return new FileValidator(etag, lastModified, length, fileName, true);
+    }
+
+    /**
+     * 是否有可以用于条件请求的ETag或Last-Modified
+     */
+    public boolean isUsable() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * If-Range请求头的值，弱ETag不能用于If-Range，此时使用Last-Modified
+     *
+     * @return 没有可用的验证信息时返回null
+     */
+    public String getIfRange() {
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return lastModified;
+    }
+
+    /**
+     * 与之前保存的验证信息比较，长度、ETag或Last-Modified任何一项不同都认为文件已经变化
+     *
+     * @param saved 之前保存的验证信息
+     * @return 是否是同一个文件
+     */
+    public boolean matches(FileValidator saved) {
+        return length == saved.length && equal(etag, saved.etag) && equal(lastModified, saved.lastModified);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,182 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 重复请求策略，按时间窗口测量每个线程的下载速度，与同一下载的其他线程比较，
+ * 停顿或持续远慢于其他线程的线程剩余的部分由空闲的线程位置发送重复请求，先完成的一方胜出，另一方被取消
+ */
+public class HedgePolicy {
+    //默认的测量间隔(毫秒)
+    public static final long DEFAULT_INTERVAL = 1000;
+    //默认的慢速比例，速度低于其他线程中位数的该比例时认为是慢速线程
+    public static final double DEFAULT_MIN_RATE_RATIO = 0.2;
+    //默认的停顿时间(毫秒)，没有收到数据或持续慢速超过该时间时发送重复请求
+    public static final long DEFAULT_STALL_TIMEOUT = 5000;
+    //默认的最小剩余长度，慢速线程剩余的部分小于该值时不值得重新建立连接
+    public static final long DEFAULT_MIN_REMAINING = 64 * 1024;
+
+    //测量间隔(纳秒)
+    private final long intervalNanos;
+    private final double minRateRatio;
+    //停顿时间(纳秒)
+    private final long stallNanos;
+    private final long minRemaining;
+    //各线程上次测量的结果，只由下载器的等待线程访问
+    private final Map<DownloadThread, Sample> samples = new HashMap<DownloadThread, Sample>();
+    //最近一次有两个以上线程时速度的中位数，其他线程都结束后仍用它判断剩下的线程
+    private double referenceRate = -1;
+    private long lastSample;
+    //发送的重复请求数和其中先完成的数量
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger won = new AtomicInteger();
+
+    public HedgePolicy() {
+        this(DEFAULT_INTERVAL, DEFAULT_MIN_RATE_RATIO, DEFAULT_STALL_TIMEOUT, DEFAULT_MIN_REMAINING);
+    }
+
+    /**
+     * @param interval     测量间隔(毫秒)
+     * @param minRateRatio 速度低于其他线程中位数的该比例时认为是慢速线程
+     * @param stallTimeout 没有收到数据或持续慢速超过该时间(毫秒)时发送重复请求
+     * @param minRemaining 慢速线程剩余的长度小于该值时不发送重复请求，停顿的线程不受限制
+     */
+    public HedgePolicy(long interval, double minRateRatio, long stallTimeout, long minRemaining) {
+        if (interval <= 0 || stallTimeout <= 0) throw new IllegalArgumentException("interval and stallTimeout must be positive");
+        this.intervalNanos = interval * 1000000L;
+        this.minRateRatio = minRateRatio;
+        this.stallNanos = stallTimeout * 1000000L;
+        this.minRemaining = minRemaining;
+    }
+
+    public long getInterval() {
+        return intervalNanos / 1000000L;
+    }
+
+    public double getMinRateRatio() {
+        return minRateRatio;
+    }
+
+    public long getStallTimeout() {
+        return stallNanos / 1000000L;
+    }
+
+    public long getMinRemaining() {
+        return minRemaining;
+    }
+
+    /**
+     * 已经发送的重复请求数
+     */
+    public int getStartedCount() {
+        return started.get();
+    }
+
+    /**
+     * 重复请求先完成、取消了慢速线程的次数
+     */
+    public int getWonCount() {
+        return won.get();
+    }
+
+    void onStarted() {
+        started.incrementAndGet();
+    }
+
+    void onWon() {
+        won.incrementAndGet();
+    }
+
+    /**
+     * 重新开始测量，暂停后继续下载时调用，计数不清零
+     */
+    public synchronized void reset() {
+        samples.clear();
+        referenceRate = -1;
+        lastSample = 0;
+    }
+
+    /**
+     * 一个测量间隔结束时测量各线程的速度，找出停顿或慢速的线程
+     *
+     * @param now     当前时间(纳秒)
+     * @param threads 下载器的线程位置，空闲位置为null
+     * @return 需要发送重复请求的线程，测量间隔未到时为空
+     */
+    synchronized List<DownloadThread> sample(long now, DownloadThread[] threads) {
+        List<DownloadThread> stragglers = new ArrayList<DownloadThread>();
+        if (lastSample != 0 && now - lastSample < intervalNanos) return stragglers;
+        lastSample = now;
+        Map<DownloadThread, Sample> current = new HashMap<DownloadThread, Sample>();
+        List<Double> rates = new ArrayList<Double>();
+        for (DownloadThread thread : threads) {
+            if (thread == null || !thread.isActive()) continue;
+            long bytes = thread.getDownloadedLength();
+            Sample sample = samples.get(thread);
+            if (sample == null) {
+                //第一次测量，从此时开始计算停顿时间
+                sample = new Sample(now, bytes);
+            } else {
+                sample.rate = (bytes - sample.bytes) * 1000000000.0 / (now - sample.time);
+                if (bytes > sample.bytes) sample.progressAt = now;
+                sample.time = now;
+                sample.bytes = bytes;
+                rates.add(sample.rate);
+            }
+            current.put(thread, sample);
+        }
+        samples.clear();
+        samples.putAll(current);
+        if (rates.size() >= 2) {
+            Collections.sort(rates);
+            int middle = rates.size() / 2;
+            referenceRate = rates.size() % 2 == 1 ? rates.get(middle) : (rates.get(middle - 1) + rates.get(middle)) / 2;
+        }
+        for (Map.Entry<DownloadThread, Sample> entry : samples.entrySet()) {
+            DownloadThread thread = entry.getKey();
+            Sample sample = entry.getValue();
+            //重复请求本身不再被重复
+            if (thread.isHedge()) continue;
+            Segment segment = thread.getSegment();
+            if (segment == null || segment.isHedged()) continue;
+            boolean slow = sample.rate >= 0 && referenceRate > 0 && sample.rate < referenceRate * minRateRatio;
+            if (!slow) {
+                sample.slowSince = 0;
+            } else if (sample.slowSince == 0) {
+                sample.slowSince = now;
+            }
+            if (now - sample.progressAt >= stallNanos) {
+                stragglers.add(thread);
+            } else if (slow && now - sample.slowSince >= stallNanos && segment.getRemaining() >= minRemaining) {
+                stragglers.add(thread);
+            }
+        }
+        return stragglers;
+    }
+
+    /**
+     * 一个线程的测量结果
+     */
+    private static final class Sample {
+        //测量时间和当时的已下载长度
+        long time;
+        long bytes;
+        //上一个间隔的速度(字节/秒)，为负时尚未测量
+        double rate = -1;
+        //最后一次收到数据的时间
+        long progressAt;
+        //开始持续慢速的时间，不是慢速时为0
+        long slowSince;
+
+        Sample(long time, long bytes) {
+            this.time = time;
+            this.bytes = bytes;
+            this.progressAt = time;
+        }
+    }
+}
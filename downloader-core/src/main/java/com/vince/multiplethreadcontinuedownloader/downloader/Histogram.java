@@ -0,0 +1,108 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按2的幂分桶的直方图，记录和读取都只使用原子操作，不加锁也不分配对象，可以在下载线程的热路径上一直开启；
+ * 第b个桶记录[2^(b-1), 2^b)之间的值，百分位数返回所在桶的上界，误差不超过一倍
+ */
+public class Histogram {
+    //0和负数一个桶，正数按最高位分为63个桶
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一个值
+     */
+    public void record(long value) {
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            //其他线程同时更新了最大值，重新比较
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 平均值，没有记录时返回0
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * 百分位数的估计值
+     *
+     * @param percentile 0到100之间
+     * @return 所在桶的上界，不超过记录过的最大值，没有记录时返回0
+     */
+    public long getPercentile(double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(n * percentile / 100);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * 第index个桶的记录数，用于导出完整的分布
+     */
+    public long getBucketCount(int index) {
+        return counts.get(index);
+    }
+
+    public int getBucketSize() {
+        return BUCKETS;
+    }
+
+    /**
+     * 第index个桶的上界(包含)
+     */
+    public static long upperBound(int index) {
+        if (index == 0) return 0;
+        return index >= 63 ? Long.MAX_VALUE : (1L << index) - 1;
+    }
+
+    /**
+     * 清除所有记录
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    private static int bucket(long value) {
+        return value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+    }
+}
@@ -0,0 +1,64 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * 下载段请求返回了不能使用的响应码，由重试策略根据响应码判断是否重试
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+    //响应码
+    private final int code;
+    //Retry-After要求的等待时间(毫秒)，没有时为-1
+    private final long retryAfter;
+
+    public HttpStatusException(int code, long retryAfter) {
+        super("Unexpected response code " + code);
+        this.code = code;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * 从连接的响应创建
+     */
+    static HttpStatusException from(HttpURLConnection http) throws IOException {
+        return new HttpStatusException(http.getResponseCode(), parseRetryAfter(http.getHeaderField("Retry-After"), System.currentTimeMillis()));
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * 解析Retry-After头字段，可以是秒数或HTTP日期
+     *
+     * @param value 头字段的值，可以为null
+     * @param now   当前时间(毫秒)
+     * @return 等待时间(毫秒)，没有或无法解析时返回-1
+     */
+    static long parseRetryAfter(String value, long now) {
+        if (value == null) return -1;
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            //不是秒数时按HTTP日期解析
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(value).getTime() - now);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+/**
+ * 校验跟踪器，收集下载线程写入时计算的数据块校验值，由断点写入器与下载进度一起保存；
+ * 续传时只重新校验块位图中断点附近的块，可选地在下载过程中计算整个文件的SHA-256
+ */
+public class IntegrityTracker {
+    private static final String TAG = "IntegrityTracker";
+    //续传时每个下载段至少重新校验的数据块数
+    private static final int VERIFY_TAIL = 2;
+    //读取文件的缓冲区大小
+    private static final int READ_SIZE = 64 * 1024;
+    //数据块大小，与块位图的块大小相同，每个数据块的校验值都落在一个块之内
+    private volatile int chunkSize = ChunkBitmap.DEFAULT_CHUNK_SIZE;
+    //已经计算完、等待断点写入器保存的校验值
+    private final ConcurrentLinkedQueue<ChunkHash> pending = new ConcurrentLinkedQueue<ChunkHash>();
+    //已经保存的校验值，重新开始下载时记录被删除后重新写入
+    private final List<ChunkHash> saved = new ArrayList<ChunkHash>();
+    //整个文件的SHA-256，为null时不计算
+    private MessageDigest sha256;
+    //SHA-256已经计算到的位置，写入该位置的线程直接计算，其他数据在连续后从文件中补充读取
+    private volatile long digestPosition;
+    //期望的SHA-256，为null时只计算不比较
+    private String expectedSha256;
+    //计算完成的SHA-256
+    private volatile String sha256Hex;
+    private final Object digestLock = new Object();
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * 设置数据块大小，由下载器设置为块位图的块大小
+     *
+     * @param chunkSize 字节数
+     */
+    void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 下载线程结束一个数据块时调用
+     */
+    void record(ChunkHash hash) {
+        pending.offer(hash);
+    }
+
+    /**
+     * 取出所有等待保存的校验值，断点写入器须在读取下载段位置之前调用，保证保存的校验值不超过保存的进度
+     */
+    List<ChunkHash> drain() {
+        List<ChunkHash> hashes = new ArrayList<ChunkHash>();
+        ChunkHash hash;
+        while ((hash = pending.poll()) != null) hashes.add(hash);
+        return hashes;
+    }
+
+    /**
+     * 保存失败时放回，留待下次保存
+     */
+    void requeue(List<ChunkHash> hashes) {
+        pending.addAll(hashes);
+    }
+
+    /**
+     * 记录已经保存的校验值
+     */
+    synchronized void markSaved(List<ChunkHash> hashes) {
+        saved.addAll(hashes);
+    }
+
+    /**
+     * 获取已经保存的校验值
+     */
+    synchronized List<ChunkHash> getSaved() {
+        return new ArrayList<ChunkHash>(saved);
+    }
+
+    /**
+     * 续传前校验块位图中已经完成的块，校验值不能完整覆盖的块视为未完成；每段连续完成的块中与未完成部分相邻的
+     * 即断点附近的块重新读取校验，至少校验VERIFY_TAIL块，校验失败时标记为未完成并继续向前直到一块通过
+     *
+     * @param bitmap 下载记录中的块位图，校验失败的块被标记为未完成
+     * @param hashes 下载记录中的校验值
+     * @param file   已经下载的文件
+     */
+    void verify(ChunkBitmap bitmap, List<ChunkHash> hashes, File file) {
+        synchronized (this) {
+            saved.clear();
+        }
+        int count = bitmap.getChunkCount();
+        if (!file.exists()) {
+            //文件已被删除，从头下载
+            print("File " + file + " is missing, restart all chunks");
+            for (int i = 0; i < count; i++) bitmap.setComplete(i, false);
+            return;
+        }
+        List<ChunkHash> sorted = new ArrayList<ChunkHash>(hashes);
+        Collections.sort(sorted, new Comparator<ChunkHash>() {
+            @Override
+            public int compare(ChunkHash a, ChunkHash b) {
+                //开始位置相同时长的在前，重复请求与慢速线程写入同一位置时优先使用覆盖更多的校验值
+                if (a.getOffset() == b.getOffset()) return a.getEnd() > b.getEnd() ? -1 : (a.getEnd() == b.getEnd() ? 0 : 1);
+                return a.getOffset() < b.getOffset() ? -1 : 1;
+            }
+        });
+        //每个已完成的块从块开头连续覆盖到块末尾的校验值
+        List<List<ChunkHash>> chains = new ArrayList<List<ChunkHash>>();
+        for (int i = 0; i < count; i++) chains.add(null);
+        int index = 0;
+        for (int i = 0; i < count; i++) {
+            long start = bitmap.getChunkStart(i);
+            long end = bitmap.getChunkEnd(i);
+            while (index < sorted.size() && sorted.get(index).getOffset() < start) index++;
+            if (!bitmap.isComplete(i)) continue;
+            List<ChunkHash> chain = new ArrayList<ChunkHash>();
+            long covered = start;
+            for (int j = index; j < sorted.size() && sorted.get(j).getOffset() < end; j++) {
+                ChunkHash hash = sorted.get(j);
+                if (hash.getOffset() == covered && hash.getEnd() <= end) {
+                    chain.add(hash);
+                    covered = hash.getEnd();
+                }
+            }
+            if (covered == end) {
+                chains.set(i, chain);
+            } else {
+                //写入完成但校验值还没有保存时异常退出
+                bitmap.setComplete(i, false);
+            }
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            int rolledBack = 0;
+            for (int i = 0; i < count - 1; i++) {
+                //已完成的块后面紧接着未完成的块，说明异常退出前有线程在此写入
+                if (!bitmap.isComplete(i) || bitmap.isComplete(i + 1)) continue;
+                int checked = 0;
+                for (int j = i; j >= 0 && bitmap.isComplete(j); j--) {
+                    checked++;
+                    if (check(raf, chains.get(j))) {
+                        if (checked >= VERIFY_TAIL) break;
+                    } else {
+                        print("Chunk " + j + " is corrupted");
+                        bitmap.setComplete(j, false);
+                        rolledBack++;
+                    }
+                }
+            }
+            if (rolledBack > 0) print(rolledBack + " chunks roll back");
+        } catch (IOException e) {
+            //无法读取文件时从头下载
+            print("Can't verify " + file + ":" + e);
+            for (int i = 0; i < count; i++) bitmap.setComplete(i, false);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        //只保留仍然完成的块的校验值，其他块重新下载时重新计算
+        List<ChunkHash> kept = new ArrayList<ChunkHash>();
+        for (int i = 0; i < count; i++) {
+            if (bitmap.isComplete(i)) kept.addAll(chains.get(i));
+        }
+        markSaved(kept);
+    }
+
+    /**
+     * 读取文件中的一块数据并逐个比较校验值
+     */
+    private static boolean check(RandomAccessFile raf, List<ChunkHash> chain) throws IOException {
+        for (ChunkHash hash : chain) {
+            if (!check(raf, hash)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 读取文件中的数据块并比较校验值
+     */
+    private static boolean check(RandomAccessFile raf, ChunkHash hash) throws IOException {
+        if (hash.getEnd() > raf.length()) return false;
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[(int) Math.min(READ_SIZE, hash.getLength())];
+        raf.seek(hash.getOffset());
+        long remaining = hash.getLength();
+        while (remaining > 0) {
+            int n = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) return false;
+            crc.update(buffer, 0, n);
+            remaining -= n;
+        }
+        return crc.getValue() == hash.getCrc();
+    }
+
+    /**
+     * 开启整个文件的SHA-256计算
+     *
+     * @param expected 期望的十六进制SHA-256，为null时只计算不比较
+     */
+    public void enableSha256(String expected) {
+        synchronized (digestLock) {
+            this.expectedSha256 = expected != null ? expected.toLowerCase() : null;
+            if (sha256 != null) return;
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            digestPosition = 0;
+        }
+    }
+
+    public boolean isSha256Enabled() {
+        synchronized (digestLock) {
+            return sha256 != null;
+        }
+    }
+
+    /**
+     * 计算完成的SHA-256
+     *
+     * @return 十六进制字符串，没有开启或没有完成时返回null
+     */
+    public String getSha256() {
+        return sha256Hex;
+    }
+
+    /**
+     * 写入位置正好是SHA-256已经计算到的位置时直接计算，其他线程的数据只比较一次位置，不加锁
+     */
+    void digest(byte[] b, int off, int len, long position) {
+        if (position != digestPosition) return;
+        synchronized (digestLock) {
+            if (sha256 == null || position != digestPosition) return;
+            sha256.update(b, off, len);
+            digestPosition = position + len;
+        }
+    }
+
+    /**
+     * 从文件中补充读取已经连续下载、但不是在计算位置写入的数据，这些数据刚刚写入，通常仍在页缓存中
+     *
+     * @param file     下载文件
+     * @param frontier 从文件开头连续下载的长度
+     */
+    void advanceDigest(SaveFileChannel file, long frontier) throws IOException {
+        if (frontier <= digestPosition) return;
+        synchronized (digestLock) {
+            if (sha256 == null) return;
+            ByteBuffer buffer = null;
+            while (digestPosition < frontier) {
+                if (buffer == null) buffer = ByteBuffer.allocate(READ_SIZE);
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), frontier - digestPosition));
+                int n = file.read(buffer, digestPosition);
+                if (n <= 0) throw new IOException("Unexpected end of file at " + digestPosition);
+                sha256.update(buffer.array(), 0, n);
+                digestPosition += n;
+            }
+        }
+    }
+
+    /**
+     * 下载完成后结束SHA-256的计算并与期望值比较
+     *
+     * @param file     下载文件
+     * @param fileSize 文件大小
+     * @throws IOException SHA-256与期望值不一致
+     */
+    void finishDigest(SaveFileChannel file, long fileSize) throws IOException {
+        advanceDigest(file, fileSize);
+        synchronized (digestLock) {
+            if (sha256 == null) return;
+            StringBuilder hex = new StringBuilder();
+            for (byte b : sha256.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            sha256Hex = hex.toString();
+            //重新开始计算，以便再次下载
+            digestPosition = 0;
+            print("SHA-256 " + sha256Hex);
+            if (expectedSha256 != null && !expectedSha256.equals(sha256Hex)) {
+                throw new IOException("SHA-256 mismatch, expected " + expectedSha256 + " but was " + sha256Hex);
+            }
+        }
+    }
+
+    private static void print(String msg) {
+        DownloadLog.i(TAG, msg);
+    }
+}
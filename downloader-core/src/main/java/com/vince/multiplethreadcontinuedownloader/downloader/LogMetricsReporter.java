@@ -0,0 +1,39 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+/**
+ * 把下载指标打印为一行日志的导出器，延迟按毫秒显示中位数和99分位数
+ */
+public class LogMetricsReporter implements MetricsReporter {
+    private static final String TAG = "DownloadMetrics";
+    //日志中区分各下载的名称
+    private final String name;
+
+    public LogMetricsReporter(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void report(DownloadMetrics metrics) {
+        DownloadLog.i(TAG, name
+                + " throughput=" + (long) metrics.getThroughput() + "B/s"
+                + " written=" + metrics.getBytesWritten()
+                + " inFlight=" + metrics.getBytesInFlight()
+                + " requests=" + metrics.getRequestCount()
+                + " retries=" + metrics.getRetryCount()
+                + " failures=" + metrics.getFailureCount()
+                + " hedges=" + metrics.getHedgesWon() + "/" + metrics.getHedgesStarted()
+                + " segment=" + metrics.getSegmentThroughput().getPercentile(50) + "B/s"
+                + " connect=" + latency(metrics.getConnectLatency())
+                + " ttfb=" + latency(metrics.getTimeToFirstByte())
+                + " write=" + latency(metrics.getDiskWriteLatency())
+                + " checkpoint=" + latency(metrics.getCheckpointLatency()));
+    }
+
+    private static String latency(Histogram histogram) {
+        return millis(histogram.getPercentile(50)) + "/" + millis(histogram.getPercentile(99)) + "ms";
+    }
+
+    private static String millis(long nanos) {
+        return String.valueOf(nanos / 1000000.0);
+    }
+}
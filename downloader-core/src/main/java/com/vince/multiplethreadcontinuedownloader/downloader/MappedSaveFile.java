@@ -0,0 +1,265 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 内存映射的下载文件，已经设置好长度的文件按固定大小的窗口映射到内存，下载线程把数据直接复制到映射区域，不再每次写入都调用系统调用；
+ * 同时映射的窗口数有上限，超过时解除最久未使用的窗口，比一个窗口大的文件按需重新映射；
+ * 保存下载进度前把修改过的窗口写回存储设备，暂停和完成时解除所有映射
+ * <p>
+ * 设置长度后的文件是稀疏文件，存储空间不足在复制数据时才会发现，此时与通道写入一样抛出StorageException
+ */
+public class MappedSaveFile extends SaveFileChannel {
+    //默认的窗口大小，32位设备的地址空间有限，不映射整个文件
+    public static final int DEFAULT_WINDOW_SIZE = 32 * 1024 * 1024;
+    //默认最多同时映射的窗口数
+    public static final int DEFAULT_MAX_WINDOWS = 8;
+    //立即解除映射的方法，JDK 9及以上为Unsafe.invokeCleaner，Android为NioUtils.freeDirectBuffer，都不支持时为null，由垃圾回收解除
+    private static final Object UNSAFE;
+    private static final Method UNMAP;
+
+    static {
+        Object unsafe = null;
+        Method unmap = null;
+        try {
+            //通过反射调用，源码仍然可以按Java 7编译
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            unmap = type.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (Exception e) {
+            unsafe = null;
+            unmap = null;
+        } catch (LinkageError e) {
+            unsafe = null;
+            unmap = null;
+        }
+        if (unmap == null) {
+            try {
+                unmap = Class.forName("java.nio.NioUtils").getMethod("freeDirectBuffer", ByteBuffer.class);
+            } catch (Exception e) {
+                unmap = null;
+            } catch (LinkageError e) {
+                unmap = null;
+            }
+        }
+        UNSAFE = unsafe;
+        UNMAP = unmap;
+    }
+
+    //文件长度，映射的范围不超过该长度
+    private final long length;
+    private final int windowSize;
+    private final int maxWindows;
+    //各窗口的映射，未映射时为null，只在持有写锁时修改
+    private final MappedByteBuffer[] windows;
+    //各窗口是否有尚未写回的数据
+    private final AtomicIntegerArray dirty;
+    //各窗口最近一次使用的时间序号，用于选择解除映射的窗口
+    private final AtomicLongArray lastUsed;
+    private final AtomicLong clock = new AtomicLong();
+    //已经映射的窗口数，只在持有写锁时访问
+    private int mapped;
+    //关闭后不再映射，只在持有写锁时修改
+    private volatile boolean closed;
+    //复制数据和写回时持有读锁，映射、解除映射和关闭时持有写锁，解除映射后不会再有线程访问该窗口
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 使用默认的窗口大小和窗口数打开下载文件
+     */
+    public MappedSaveFile(File saveFile, long length, DurabilityPolicy policy) throws IOException {
+        this(saveFile, length, policy, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_WINDOWS);
+    }
+
+    /**
+     * 打开下载文件并设置文件大小，窗口在第一次写入时才映射
+     *
+     * @param saveFile   下载的数据保存到的文件
+     * @param length     文件大小，必须大于0
+     * @param policy     持久化策略
+     * @param windowSize 每个窗口的大小
+     * @param maxWindows 最多同时映射的窗口数，通常不少于同时写入的线程数
+     * @throws IOException
+     */
+    public MappedSaveFile(File saveFile, long length, DurabilityPolicy policy, int windowSize, int maxWindows) throws IOException {
+        super(saveFile, length, policy);
+        if (length <= 0 || windowSize <= 0 || maxWindows <= 0) {
+            super.close();
+            throw new IllegalArgumentException("Invalid mapping of " + length + " bytes");
+        }
+        long count = (length + windowSize - 1) / windowSize;
+        if (count > Integer.MAX_VALUE) {
+            super.close();
+            throw new IllegalArgumentException("windowSize too small for " + length);
+        }
+        this.length = length;
+        this.windowSize = windowSize;
+        this.maxWindows = maxWindows;
+        this.windows = new MappedByteBuffer[(int) count];
+        this.dirty = new AtomicIntegerArray((int) count);
+        this.lastUsed = new AtomicLongArray((int) count);
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * 当前映射的窗口数
+     */
+    public int getMappedWindows() {
+        lock.readLock().lock();
+        try {
+            return mapped;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    void writeFully(ByteBuffer src, long position) throws IOException {
+        if (position < 0 || position + src.remaining() > length) {
+            throw new IOException("Write of " + src.remaining() + " bytes at " + position + " beyond the file length " + length);
+        }
+        while (src.hasRemaining()) {
+            int index = (int) (position / windowSize);
+            int offset = (int) (position - (long) index * windowSize);
+            int n = Math.min(src.remaining(), windowSize - offset);
+            lock.readLock().lock();
+            try {
+                MappedByteBuffer window;
+                while ((window = windows[index]) == null) {
+                    //映射需要写锁，先释放读锁，映射后重新检查，期间可能被其他线程解除
+                    lock.readLock().unlock();
+                    try {
+                        map(index);
+                    } finally {
+                        lock.readLock().lock();
+                    }
+                }
+                if (closed) throw new ClosedChannelException();
+                //窗口由多个线程共享，复制到各自的视图，不改变窗口本身的位置
+                ByteBuffer target = window.duplicate();
+                target.position(offset);
+                int limit = src.limit();
+                src.limit(src.position() + n);
+                try {
+                    target.put(src);
+                } catch (InternalError e) {
+                    //存储空间不足等原因使映射的页面无法写入
+                    throw new IOException("Mapped write failed at " + position, e);
+                } finally {
+                    src.limit(limit);
+                }
+                lastUsed.set(index, clock.incrementAndGet());
+                if (getPolicy() == DurabilityPolicy.SYNC_EVERY_WRITE) {
+                    window.force();
+                } else {
+                    //复制之后再标记，写回时看到标记就一定包含这次复制的数据
+                    dirty.set(index, 1);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * 映射指定的窗口，已经映射的窗口数达到上限时先解除最久未使用的窗口
+     */
+    private void map(int index) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) throw new ClosedChannelException();
+            if (windows[index] != null) return;
+            if (mapped >= maxWindows) unmap(leastRecentlyUsed());
+            long start = (long) index * windowSize;
+            FileChannel channel = getChannel();
+            windows[index] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(windowSize, length - start));
+            mapped++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int leastRecentlyUsed() {
+        int victim = -1;
+        for (int i = 0; i < windows.length; i++) {
+            if (windows[i] != null && (victim < 0 || lastUsed.get(i) < lastUsed.get(victim))) victim = i;
+        }
+        return victim;
+    }
+
+    /**
+     * 解除窗口的映射，修改过的页面仍在页缓存中，由下一次同步写回
+     */
+    private void unmap(int index) {
+        MappedByteBuffer window = windows[index];
+        if (window == null) return;
+        windows[index] = null;
+        mapped--;
+        if (UNMAP == null) return;
+        try {
+            UNMAP.invoke(UNSAFE, window);
+        } catch (Exception e) {
+            //由垃圾回收解除
+        }
+    }
+
+    /**
+     * 写回修改过的窗口，再同步整个文件，已经解除映射的窗口的数据由文件同步写回
+     */
+    @Override
+    public void sync() throws IOException {
+        if (getPolicy() == DurabilityPolicy.SYNC_EVERY_WRITE) return;
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < windows.length; i++) {
+                if (windows[i] != null && dirty.getAndSet(i, 0) == 1) windows[i].force();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        super.sync();
+    }
+
+    /**
+     * 写回并解除所有映射，然后同步并关闭文件，之后返回的线程写入时抛出ClosedChannelException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.writeLock().lock();
+            try {
+                closed = true;
+                for (int i = 0; i < windows.length; i++) {
+                    if (windows[i] == null) continue;
+                    if (dirty.getAndSet(i, 0) == 1) windows[i].force();
+                    unmap(i);
+                }
+            } finally {
+                //写回失败时也解除剩余的映射
+                for (int i = 0; i < windows.length; i++) {
+                    unmap(i);
+                }
+                lock.writeLock().unlock();
+            }
+        } finally {
+            super.close();
+        }
+    }
+}
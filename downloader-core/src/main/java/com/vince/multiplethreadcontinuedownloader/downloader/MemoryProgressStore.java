@@ -0,0 +1,143 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 保存在内存中的下载进度，进程内暂停后可以继续下载，进程结束后丢失，用于没有数据库的环境和测试
+ */
+public class MemoryProgressStore implements ProgressStore {
+    //下载路径对应的块位图，保存和读取时复制，与下载器使用的位图互不影响
+    private final Map<String, ChunkBitmap> progress = new HashMap<String, ChunkBitmap>();
+    //下载路径对应的数据块校验值
+    private final Map<String, List<ChunkHash>> hashes = new HashMap<String, List<ChunkHash>>();
+    //下载路径对应的远程文件验证信息
+    private final Map<String, FileValidator> validators = new HashMap<String, FileValidator>();
+    //下载队列
+    private final Map<String, DownloadJob> jobs = new LinkedHashMap<String, DownloadJob>();
+
+    @Override
+    public synchronized ChunkBitmap getProgress(String path) {
+        ChunkBitmap bitmap = progress.get(path);
+        return bitmap != null ? copy(bitmap) : null;
+    }
+
+    @Override
+    public synchronized void saveProgress(String path, ChunkBitmap bitmap) {
+        putProgress(path, bitmap);
+    }
+
+    /**
+     * 内存中没有旧版本的下载记录
+     */
+    @Override
+    public List<Segment> getData(String path) {
+        return new ArrayList<Segment>();
+    }
+
+    @Override
+    public synchronized List<ChunkHash> getHashes(String path) {
+        List<ChunkHash> list = hashes.get(path);
+        return list != null ? new ArrayList<ChunkHash>(list) : new ArrayList<ChunkHash>();
+    }
+
+    @Override
+    public synchronized void saveHashes(String path, List<ChunkHash> list) {
+        appendHashes(path, list);
+    }
+
+    @Override
+    public synchronized void saveCheckpoint(String path, ChunkBitmap bitmap, List<ChunkHash> list) {
+        appendHashes(path, list);
+        if (bitmap != null) putProgress(path, bitmap);
+    }
+
+    @Override
+    public synchronized FileValidator getValidator(String path) {
+        return validators.get(path);
+    }
+
+    @Override
+    public synchronized void saveValidator(String path, FileValidator validator) {
+        validators.put(path, validator);
+    }
+
+    @Override
+    public synchronized void deleteValidator(String path) {
+        validators.remove(path);
+    }
+
+    @Override
+    public synchronized Map<String, FileValidator> getValidators(List<String> paths) {
+        Map<String, FileValidator> result = new HashMap<String, FileValidator>();
+        for (String path : paths) {
+            FileValidator validator = validators.get(path);
+            if (validator != null) result.put(path, validator);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void saveValidators(Map<String, FileValidator> map) {
+        for (Map.Entry<String, FileValidator> entry : map.entrySet()) {
+            if (entry.getValue() != null) {
+                validators.put(entry.getKey(), entry.getValue());
+            } else {
+                validators.remove(entry.getKey());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void delete(String path) {
+        progress.remove(path);
+        hashes.remove(path);
+    }
+
+    @Override
+    public synchronized List<DownloadJob> getJobs() {
+        List<DownloadJob> list = new ArrayList<DownloadJob>(jobs.values());
+        //优先级从高到低，相同时保持加入顺序
+        Collections.sort(list, new Comparator<DownloadJob>() {
+            @Override
+            public int compare(DownloadJob a, DownloadJob b) {
+                return a.getPriority() == b.getPriority() ? 0 : (a.getPriority() > b.getPriority() ? -1 : 1);
+            }
+        });
+        return list;
+    }
+
+    @Override
+    public synchronized void saveJob(DownloadJob job) {
+        jobs.remove(job.getUrl());
+        jobs.put(job.getUrl(), new DownloadJob(job.getUrl(), job.getSaveDir(), job.getThreadNum(), job.getPriority()));
+    }
+
+    @Override
+    public synchronized void deleteJob(String path) {
+        jobs.remove(path);
+    }
+
+    private void putProgress(String path, ChunkBitmap bitmap) {
+        progress.put(path, copy(bitmap));
+    }
+
+    private void appendHashes(String path, List<ChunkHash> list) {
+        if (list.isEmpty()) return;
+        List<ChunkHash> saved = hashes.get(path);
+        if (saved == null) {
+            saved = new ArrayList<ChunkHash>();
+            hashes.put(path, saved);
+        }
+        saved.addAll(list);
+    }
+
+    private static ChunkBitmap copy(ChunkBitmap bitmap) {
+        return new ChunkBitmap(bitmap.getFileSize(), bitmap.getChunkSize(), bitmap.toByteArray());
+    }
+}
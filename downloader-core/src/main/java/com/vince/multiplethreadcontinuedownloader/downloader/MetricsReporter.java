@@ -0,0 +1,12 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+/**
+ * 下载指标的导出方式，由下载器按设置的间隔和下载结束时调用
+ */
+public interface MetricsReporter {
+	/**
+	 * 导出指标，在下载器的等待线程中调用，不应长时间阻塞
+	 * @param metrics 下载指标，读取不加锁
+	 */
+	public void report(DownloadMetrics metrics);
+}
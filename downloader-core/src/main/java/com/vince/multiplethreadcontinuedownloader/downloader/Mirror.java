@@ -0,0 +1,86 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.net.URL;
+
+/**
+ * 同一文件的一个下载地址，记录正在使用它的连接数和每个连接测得的下载速度，下载失败后被放弃
+ */
+public class Mirror {
+    //速度的平滑系数，新的测量值所占的比例
+    private static final double RATE_WEIGHT = 0.3;
+    //没有收到数据的请求持续超过该时间(纳秒)才计入速度，避免暂停或立即结束的请求把速度拉低
+    private static final long MIN_SAMPLE_NANOS = 1000 * 1000 * 1000L;
+
+    private final URL url;
+    //正在使用该地址的请求数
+    private int active;
+    //平滑后的单个连接的速度(字节/秒)，为负时尚未测量
+    private double rate = -1;
+    //是否因为失败被放弃
+    private boolean dropped;
+
+    public Mirror(URL url) {
+        this.url = url;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public String getHost() {
+        return url.getHost();
+    }
+
+    /**
+     * 是否可以由非阻塞引擎直接读写，https需要HttpURLConnection
+     */
+    boolean isPlainHttp() {
+        return "http".equalsIgnoreCase(url.getProtocol());
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    /**
+     * 单个连接的下载速度
+     *
+     * @return 字节/秒，尚未测量时返回-1
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized boolean isDropped() {
+        return dropped;
+    }
+
+    synchronized void drop() {
+        dropped = true;
+    }
+
+    /**
+     * 开始一个请求
+     */
+    synchronized void acquire() {
+        active++;
+    }
+
+    /**
+     * 请求结束，把这次请求的速度计入平滑后的速度
+     *
+     * @param bytes 请求下载的长度
+     * @param nanos 请求持续的时间
+     */
+    synchronized void release(long bytes, long nanos) {
+        active--;
+        if (nanos <= 0 || (bytes == 0 && nanos < MIN_SAMPLE_NANOS)) return;
+        double sample = bytes * 1000000000.0 / nanos;
+        rate = rate < 0 ? sample : rate * (1 - RATE_WEIGHT) + sample * RATE_WEIGHT;
+    }
+
+    @Override
+    public String toString() {
+        return url.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一个下载的所有镜像，第一个是下载路径本身，每个请求开始时按各镜像的速度和正在使用的连接数选择镜像，
+ * 使各镜像的连接数与其速度成正比；失败的镜像被放弃，最后一个可用的镜像不会被放弃
+ */
+final class MirrorSet {
+    private final List<Mirror> mirrors = new ArrayList<Mirror>();
+
+    MirrorSet(Mirror primary) {
+        mirrors.add(primary);
+    }
+
+    synchronized void add(Mirror mirror) {
+        mirrors.add(mirror);
+    }
+
+    /**
+     * 下载路径本身，获取文件信息的连接属于它
+     */
+    synchronized Mirror getPrimary() {
+        return mirrors.get(0);
+    }
+
+    synchronized List<Mirror> getAll() {
+        return new ArrayList<Mirror>(mirrors);
+    }
+
+    /**
+     * 放弃失败的镜像
+     *
+     * @return 是否已经放弃，没有其他可用的镜像时返回false，由重试策略处理
+     */
+    synchronized boolean drop(Mirror mirror) {
+        if (mirror.isDropped()) return true;
+        for (Mirror other : mirrors) {
+            if (other != mirror && !other.isDropped()) {
+                mirror.drop();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 为一个请求选择镜像，选择增加一个连接后每个连接分到的速度最大的镜像，尚未测量的镜像按最快的速度估计，
+     * 相同时保留当前的镜像以复用长连接
+     *
+     * @param current  该任务上一个请求使用的镜像，可以为null
+     * @param avoid    尽量不使用的镜像，重复请求避开慢速线程的镜像，可以为null
+     * @param httpOnly 是否只能选择http镜像
+     */
+    synchronized Mirror select(Mirror current, Mirror avoid, boolean httpOnly) {
+        double fastest = 0;
+        for (Mirror mirror : mirrors) {
+            if (!mirror.isDropped() && mirror.getRate() > fastest) fastest = mirror.getRate();
+        }
+        Mirror best = null;
+        double bestScore = 0;
+        //第一轮避开指定的镜像，没有其他镜像时再使用它
+        for (int pass = 0; pass < 2 && best == null; pass++) {
+            for (Mirror mirror : mirrors) {
+                if (mirror.isDropped() || (httpOnly && !mirror.isPlainHttp())) continue;
+                if (pass == 0 && mirror == avoid) continue;
+                double rate = mirror.getRate() > 0 ? mirror.getRate() : (fastest > 0 ? fastest : 1);
+                double score = (mirror.getActiveCount() + 1) / rate;
+                if (best == null || score < bestScore || (score == bestScore && mirror == current)) {
+                    best = mirror;
+                    bestScore = score;
+                }
+            }
+        }
+        if (best != null) return best;
+        //所有可用的镜像都不能使用时沿用当前的镜像
+        return current != null ? current : mirrors.get(0);
+    }
+}
@@ -0,0 +1,55 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分槽的下载长度计数器，每条线程累加自己的槽，读取总长度时汇总所有槽，累加时不需要加锁
+ */
+public class ProgressCounter {
+    //每个槽之间间隔的long数量，使不同线程的槽落在不同的缓存行上，避免伪共享
+    private static final int PADDING = 16;
+    //各槽的计数
+    private final AtomicLongArray cells;
+    //槽数减一，槽数为2的幂
+    private final int mask;
+    //计数器创建前已经下载的长度
+    private final long base;
+
+    /**
+     * @param stripes 槽数，通常为线程数，向上取整为2的幂
+     * @param base    初始长度
+     */
+    public ProgressCounter(int stripes, long base) {
+        int size = Integer.highestOneBit(Math.max(1, stripes));
+        if (size < stripes) size <<= 1;
+        this.mask = size - 1;
+        this.base = base;
+        //首尾各留出一段间隔，避免与其他对象共享缓存行
+        this.cells = new AtomicLongArray((size + 1) * PADDING);
+    }
+
+    /**
+     * 累加指定槽的长度
+     *
+     * @param slot  槽号，通常为线程id
+     * @param delta 新下载的长度
+     */
+    public void add(int slot, long delta) {
+        cells.getAndAdd(index(slot), delta);
+    }
+
+    /**
+     * 汇总所有槽得到总长度，与并发的累加之间没有原子性，只用于显示进度和判断完成
+     */
+    public long sum() {
+        long sum = base;
+        for (int i = 0; i <= mask; i++) {
+            sum += cells.get(index(i));
+        }
+        return sum;
+    }
+
+    private int index(int slot) {
+        return ((slot & mask) + 1) * PADDING;
+    }
+}
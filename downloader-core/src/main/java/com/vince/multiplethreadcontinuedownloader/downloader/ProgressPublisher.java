@@ -0,0 +1,63 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 下载进度发布器，由下载线程在写入数据后调用，按最小时间间隔和最小增量限制监听器的通知频率
+ */
+public class ProgressPublisher {
+    //默认的最小通知间隔(毫秒)
+    public static final long DEFAULT_MIN_INTERVAL = 200;
+    //默认的最小通知增量(字节)
+    public static final long DEFAULT_MIN_DELTA = 0;
+    //已下载长度计数器
+    private final ProgressCounter progress;
+    //下载进度监听器
+    private final DownloadProgressListener listener;
+    //两次通知之间的最小间隔(纳秒)
+    private final long minIntervalNanos;
+    //两次通知之间的最小增量
+    private final long minDelta;
+    //保证同一时刻只有一个线程在通知监听器
+    private final AtomicBoolean publishing = new AtomicBoolean();
+    //上次通知的时间和长度
+    private volatile long lastTime;
+    private volatile long lastSize = -1;
+
+    public ProgressPublisher(ProgressCounter progress, DownloadProgressListener listener, long minInterval, long minDelta) {
+        this.progress = progress;
+        this.listener = listener;
+        this.minIntervalNanos = minInterval * 1000000L;
+        this.minDelta = minDelta;
+        this.lastTime = System.nanoTime() - this.minIntervalNanos;
+    }
+
+    /**
+     * 下载线程写入数据后调用，未达到间隔或增量时直接返回，其他线程正在通知时也直接返回
+     */
+    public void onProgress() {
+        long now = System.nanoTime();
+        if (now - lastTime < minIntervalNanos) return;
+        long size = progress.sum();
+        if (size - lastSize < minDelta || size == lastSize) return;
+        if (!publishing.compareAndSet(false, true)) return;
+        try {
+            lastTime = now;
+            lastSize = size;
+            listener.onDownloadSize(size);
+        } finally {
+            publishing.set(false);
+        }
+    }
+
+    /**
+     * 不受频率限制地通知最新进度，在下载结束时调用
+     */
+    public void publish() {
+        long size = progress.sum();
+        if (size == lastSize) return;
+        lastTime = System.nanoTime();
+        lastSize = size;
+        listener.onDownloadSize(size);
+    }
+}
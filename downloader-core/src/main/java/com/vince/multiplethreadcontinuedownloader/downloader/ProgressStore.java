@@ -0,0 +1,110 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 下载进度的存储，保存已经完成的块的位图、数据块校验值、远程文件验证信息以及下载管理器的下载队列，
+ * Android中由SQLite实现，其他环境可以使用MemoryProgressStore或自行实现
+ */
+public interface ProgressStore {
+	/**
+	 * 获取下载路径保存的块位图
+	 * @param path 下载路径
+	 * @return 块位图，没有记录时返回null
+	 */
+	public ChunkBitmap getProgress(String path);
+
+	/**
+	 * 保存块位图，同一下载路径只保留一条
+	 * @param path 下载路径
+	 * @param bitmap 块位图
+	 */
+	public void saveProgress(String path, ChunkBitmap bitmap);
+
+	/**
+	 * 获取旧版本按下载段保存的进度，只用于转换为块位图
+	 * @param path 下载路径
+	 * @return 按id排列的下载段，没有记录时返回空集合
+	 */
+	public List<Segment> getData(String path);
+
+	/**
+	 * 获取下载路径已经保存的数据块校验值
+	 * @param path 下载路径
+	 * @return 校验值集合，没有记录时返回空集合
+	 */
+	public List<ChunkHash> getHashes(String path);
+
+	/**
+	 * 追加保存数据块校验值
+	 * @param path 下载路径
+	 * @param hashes 校验值集合
+	 */
+	public void saveHashes(String path, List<ChunkHash> hashes);
+
+	/**
+	 * 在一次写入中追加保存数据块校验值并保存块位图，断点写入器刷新时调用，中途失败时两者都不保存
+	 * @param path 下载路径
+	 * @param bitmap 块位图，没有变化时为null
+	 * @param hashes 校验值集合
+	 */
+	public void saveCheckpoint(String path, ChunkBitmap bitmap, List<ChunkHash> hashes);
+
+	/**
+	 * 获取下载路径保存的远程文件验证信息
+	 * @param path 下载路径
+	 * @return 验证信息，没有记录时返回null
+	 */
+	public FileValidator getValidator(String path);
+
+	/**
+	 * 保存远程文件验证信息，同一下载路径只保留一条，下载完成后仍然保留，用于条件请求
+	 * @param path 下载路径
+	 * @param validator 验证信息
+	 */
+	public void saveValidator(String path, FileValidator validator);
+
+	/**
+	 * 删除远程文件验证信息，取消下载或文件变化时调用
+	 * @param path 下载路径
+	 */
+	public void deleteValidator(String path);
+
+	/**
+	 * 批量获取多个下载路径保存的远程文件验证信息
+	 * @param paths 下载路径集合
+	 * @return 下载路径对应的验证信息，没有记录的下载路径不包含在内
+	 */
+	public Map<String, FileValidator> getValidators(List<String> paths);
+
+	/**
+	 * 在一次写入中保存多个下载路径的远程文件验证信息，批量下载结束时调用
+	 * @param validators 下载路径对应的验证信息，值为null时删除该下载路径的验证信息
+	 */
+	public void saveValidators(Map<String, FileValidator> validators);
+
+	/**
+	 * 删除下载路径的块位图、旧版本的下载段和数据块校验值
+	 * @param path 下载路径
+	 */
+	public void delete(String path);
+
+	/**
+	 * 获取下载队列中的所有任务
+	 * @return 按优先级从高到低、加入先后排列的下载任务
+	 */
+	public List<DownloadJob> getJobs();
+
+	/**
+	 * 把下载任务加入下载队列，同一下载路径只保留一条
+	 * @param job 下载任务
+	 */
+	public void saveJob(DownloadJob job);
+
+	/**
+	 * 从下载队列中删除下载任务
+	 * @param path 下载路径
+	 */
+	public void deleteJob(String path);
+}
@@ -0,0 +1,79 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+/**
+ * 令牌桶限速器，下载线程写入数据后扣除令牌，令牌不足时等待到令牌恢复为非负，
+ * 速率可以在下载过程中修改，等待中的线程在下一次检查时按新速率继续
+ */
+public class RateLimiter {
+    //令牌桶容量对应的时间(毫秒)，空闲后最多突发这段时间的数据量
+    private static final long BURST_MILLIS = 100;
+    //所有下载器共享的全局限速器，默认不限速
+    private static final RateLimiter GLOBAL = new RateLimiter(0);
+
+    //每秒的字节数，0为不限速
+    private long rate;
+    //当前的令牌数，扣除后可以为负，负数部分需要等待补充
+    private double tokens;
+    //上次补充令牌的时间
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param rate 每秒的字节数，0为不限速
+     */
+    public RateLimiter(long rate) {
+        setRate(rate);
+    }
+
+    public static RateLimiter getGlobal() {
+        return GLOBAL;
+    }
+
+    /**
+     * 修改速率，已经扣除的令牌按新速率补充
+     *
+     * @param rate 每秒的字节数，0为不限速
+     */
+    public synchronized void setRate(long rate) {
+        if (rate < 0) throw new IllegalArgumentException("Negative rate " + rate);
+        refill(System.nanoTime());
+        this.rate = rate;
+        //取消限速时清除欠下的令牌，重新限速时从空桶开始
+        if (rate == 0 || tokens > capacity()) tokens = rate == 0 ? 0 : capacity();
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * 扣除已经读取的字节数对应的令牌
+     *
+     * @param bytes 字节数
+     */
+    public synchronized void consume(int bytes) {
+        if (rate == 0) return;
+        refill(System.nanoTime());
+        tokens -= bytes;
+    }
+
+    /**
+     * 令牌恢复为非负还需要的时间
+     *
+     * @return 纳秒，不需要等待时返回0
+     */
+    public synchronized long getDelay() {
+        if (rate == 0) return 0;
+        refill(System.nanoTime());
+        if (tokens >= 0) return 0;
+        return (long) Math.ceil(-tokens * 1000000000L / rate);
+    }
+
+    private double capacity() {
+        return Math.max(1, rate * BURST_MILLIS / 1000.0);
+    }
+
+    private void refill(long now) {
+        if (rate > 0) tokens = Math.min(capacity(), tokens + (now - lastRefill) * (double) rate / 1000000000L);
+        lastRefill = now;
+    }
+}
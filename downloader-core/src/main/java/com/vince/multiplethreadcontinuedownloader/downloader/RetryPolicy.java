@@ -0,0 +1,149 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * 下载段失败后的重试策略，区分可以恢复的错误(超时、连接重置、5xx、408和429)与不能恢复的错误(其他4xx、本地文件读写失败)，
+ * 可以恢复时按指数退避加随机抖动等待后重新下载，每个下载段连续失败的次数有上限；
+ * 同一主机的连续失败在所有下载之间共享，主机整体退避，服务器返回Retry-After时至少等待该时间
+ */
+public class RetryPolicy {
+    //默认的第一次重试等待时间(毫秒)
+    public static final long DEFAULT_BASE_DELAY = 1000;
+    //默认的最长等待时间(毫秒)
+    public static final long DEFAULT_MAX_DELAY = 60 * 1000;
+    //默认的每个下载段最多连续失败次数
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    //各主机的连续失败次数和可以再次请求的时间，所有下载共享
+    private static final Map<String, HostState> HOSTS = new HashMap<String, HostState>();
+    private static final Random RANDOM = new Random();
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+
+    public RetryPolicy() {
+        this(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param baseDelay   第一次重试的等待时间(毫秒)，之后每次加倍
+     * @param maxDelay    最长等待时间(毫秒)，Retry-After超过该时间时不再重试
+     * @param maxAttempts 每个下载段最多连续失败的次数，两次失败之间下载了新数据时重新计数
+     */
+    public RetryPolicy(long baseDelay, long maxDelay, int maxAttempts) {
+        if (baseDelay <= 0 || maxDelay < baseDelay || maxAttempts <= 0) throw new IllegalArgumentException("Invalid retry policy");
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 判断错误是否可以通过重试恢复
+     *
+     * @param error 下载线程结束时的异常
+     */
+    public boolean isRetryable(Exception error) {
+        if (error instanceof StorageException) return false;
+        if (error instanceof HttpStatusException) {
+            int code = ((HttpStatusException) error).getCode();
+            return code == 408 || code == 429 || code >= 500;
+        }
+        //证书错误重试也不会改变
+        if (error instanceof SSLHandshakeException || error instanceof SSLPeerUnverifiedException) return false;
+        //超时、连接被拒绝或重置、数据流提前结束等网络错误
+        return error instanceof IOException;
+    }
+
+    /**
+     * 下载段失败时调用，记录失败次数并计算重新下载前的等待时间
+     *
+     * @param segment 失败的下载段，可以为null
+     * @param host    下载地址的主机名
+     * @param error   失败的原因
+     * @return 等待时间(毫秒)，不能恢复或失败次数超过上限时返回-1
+     */
+    public long onFailure(Segment segment, String host, Exception error) {
+        if (!isRetryable(error)) return -1;
+        int attempts = segment != null ? segment.recordFailure() : 1;
+        if (attempts > maxAttempts) return -1;
+        long retryAfter = error instanceof HttpStatusException ? ((HttpStatusException) error).getRetryAfter() : -1;
+        if (retryAfter > maxDelay) return -1;
+        long now = System.currentTimeMillis();
+        long delay;
+        synchronized (HOSTS) {
+            HostState state = HOSTS.get(host);
+            if (state == null) {
+                state = new HostState();
+                HOSTS.put(host, state);
+            }
+            state.failures++;
+            //下载段和主机的失败次数取较大的一方计算退避时间
+            delay = Math.max(backoff(attempts), backoff(state.failures));
+            if (retryAfter > delay) delay = retryAfter;
+            //主机在此之前不再接受重试，同一主机的其他下载段至少等到该时间
+            state.blockedUntil = Math.max(state.blockedUntil, now + delay);
+            delay = state.blockedUntil - now;
+        }
+        if (segment != null) segment.setRetryAt(now + delay);
+        return delay;
+    }
+
+    /**
+     * 线程从主机正常下载了数据后调用，清除该主机的连续失败次数
+     */
+    public void onSuccess(String host) {
+        synchronized (HOSTS) {
+            HostState state = HOSTS.get(host);
+            if (state != null && state.blockedUntil <= System.currentTimeMillis()) HOSTS.remove(host);
+        }
+    }
+
+    /**
+     * 清除所有主机的失败状态
+     */
+    static void resetHosts() {
+        synchronized (HOSTS) {
+            HOSTS.clear();
+        }
+    }
+
+    /**
+     * 第n次失败后的等待时间，按指数增长到最长等待时间，在后一半之间随机抖动，避免多个连接同时重试
+     */
+    private long backoff(int failures) {
+        long delay = baseDelay;
+        for (int i = 1; i < failures && delay < maxDelay; i++) delay *= 2;
+        delay = Math.min(delay, maxDelay);
+        long half = delay / 2;
+        synchronized (RANDOM) {
+            return half + (long) (RANDOM.nextDouble() * (delay - half));
+        }
+    }
+
+    /**
+     * 一个主机的失败状态
+     */
+    private static final class HostState {
+        int failures;
+        long blockedUntil;
+    }
+}
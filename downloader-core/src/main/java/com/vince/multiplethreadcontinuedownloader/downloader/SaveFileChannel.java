@@ -0,0 +1,138 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * 下载文件的共享通道，所有下载线程按位置并发写入，不需要seek也不需要加锁；
+ * 读写失败时抛出StorageException，与网络错误区分，不再重试
+ */
+public class SaveFileChannel {
+    //下载的数据保存到的文件
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    //持久化策略
+    private final DurabilityPolicy policy;
+    //记录写入耗时的下载指标，为null时不记录
+    private volatile DownloadMetrics metrics;
+
+    /**
+     * 打开下载文件并设置文件大小
+     *
+     * @param saveFile 下载的数据保存到的文件
+     * @param length   文件大小，小于等于0时不设置
+     * @param policy   持久化策略
+     * @throws IOException
+     */
+    public SaveFileChannel(File saveFile, long length, DurabilityPolicy policy) throws IOException {
+        this.file = new RandomAccessFile(saveFile, "rw");
+        this.policy = policy;
+        if (length > 0 && this.file.length() != length) this.file.setLength(length);
+        this.channel = this.file.getChannel();
+    }
+
+    public DurabilityPolicy getPolicy() {
+        return policy;
+    }
+
+    void setMetrics(DownloadMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 把缓冲区中剩余的数据写入文件的指定位置
+     *
+     * @param src      数据缓冲区
+     * @param position 文件中的位置
+     * @throws IOException
+     */
+    public void write(ByteBuffer src, long position) throws IOException {
+        DownloadMetrics metrics = this.metrics;
+        int length = src.remaining();
+        long begin = 0;
+        if (metrics != null) {
+            metrics.onWriteStart(length);
+            begin = System.nanoTime();
+        }
+        try {
+            writeFully(src, position);
+        } catch (ClosedChannelException e) {
+            //下载结束后才返回的线程，不是存储设备的错误
+            throw e;
+        } catch (IOException e) {
+            throw new StorageException("Write failed at " + position, e);
+        } finally {
+            if (metrics != null) metrics.onWriteEnd(length, length - src.remaining(), System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 把缓冲区中剩余的数据全部写入文件，按持久化策略同步，读写失败的分类和运行指标由write()处理
+     *
+     * @param src      数据缓冲区
+     * @param position 文件中的位置
+     * @throws IOException
+     */
+    void writeFully(ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+        if (policy == DurabilityPolicy.SYNC_EVERY_WRITE) channel.force(false);
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 从文件的指定位置读取数据到缓冲区，用于补充计算校验值
+     *
+     * @param dst      数据缓冲区
+     * @param position 文件中的位置
+     * @return 读取的字节数，到达文件末尾时返回-1
+     * @throws IOException
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        try {
+            return channel.read(dst, position);
+        } catch (ClosedChannelException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new StorageException("Read failed at " + position, e);
+        }
+    }
+
+    /**
+     * 把已经写入的数据同步到存储设备，在保存下载进度之前调用
+     *
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        //每次写入都已同步时无需再同步
+        if (policy == DurabilityPolicy.SYNC_EVERY_WRITE) return;
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new StorageException("Sync failed", e);
+        }
+    }
+
+    /**
+     * 同步并关闭文件
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            file.close();
+        }
+    }
+}
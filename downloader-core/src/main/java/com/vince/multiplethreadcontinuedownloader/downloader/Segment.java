@@ -0,0 +1,193 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+/**
+ * 下载段，表示文件中[start, end]的一段数据及其已经下载的长度，end会在被其他线程拆分时缩小
+ */
+public class Segment {
+    //下载段id，只在本次下载的内存中使用，进度按块位图保存
+    private final int id;
+    //开始位置
+    private final long start;
+    //结束位置(包含)
+    private long end;
+    //已经分配给下载线程写入的位置
+    private long position;
+    //已经写入文件的长度，只由负责的线程修改
+    private volatile long downloaded;
+    //已经保存到数据库的长度，只由断点写入器访问
+    private long flushed;
+    //是否已经有线程负责该段
+    private boolean assigned;
+    //是否有重复请求正在下载该段剩余的部分，此时不再拆分
+    private boolean hedged;
+    //连续失败的次数和最近一次失败时已经下载的长度，两次失败之间有进展时重新计数
+    private int failures;
+    private long failedDownloaded;
+    //失败后可以重新领取的时间(毫秒)，为0时可以立即领取
+    private long retryAt;
+
+    public Segment(int id, long start, long end, long downloaded) {
+        this.id = id;
+        this.start = start;
+        this.end = end;
+        this.downloaded = downloaded;
+        this.position = start + downloaded;
+        this.flushed = downloaded;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public synchronized long getEnd() {
+        return end;
+    }
+
+    public long getDownloaded() {
+        return downloaded;
+    }
+
+    long getFlushed() {
+        return flushed;
+    }
+
+    void setFlushed(long flushed) {
+        this.flushed = flushed;
+    }
+
+    /**
+     * 获取还未分配写入的长度
+     */
+    public synchronized long getRemaining() {
+        return end + 1 - position;
+    }
+
+    public synchronized boolean isComplete() {
+        return start + downloaded > end;
+    }
+
+    synchronized boolean isAssigned() {
+        return assigned;
+    }
+
+    synchronized void setAssigned(boolean assigned) {
+        this.assigned = assigned;
+    }
+
+    synchronized boolean isHedged() {
+        return hedged;
+    }
+
+    /**
+     * 记录一次失败
+     *
+     * @return 连续失败的次数，上次失败后下载了新数据时从1开始
+     */
+    synchronized int recordFailure() {
+        if (downloaded > failedDownloaded) failures = 0;
+        failedDownloaded = downloaded;
+        return ++failures;
+    }
+
+    /**
+     * 清除失败次数，用户重新开始下载时调用
+     */
+    synchronized void resetFailures() {
+        failures = 0;
+        retryAt = 0;
+    }
+
+    synchronized long getRetryAt() {
+        return retryAt;
+    }
+
+    synchronized void setRetryAt(long retryAt) {
+        this.retryAt = retryAt;
+    }
+
+    /**
+     * 负责的线程失败后释放该段，丢弃已申请但未写入的部分
+     */
+    synchronized void release() {
+        this.assigned = false;
+        this.position = start + downloaded;
+    }
+
+    /**
+     * 申请写入接下来的数据
+     *
+     * @param length 读取到的数据长度
+     * @return 允许写入的长度，小于length表示该段剩余部分已被拆分给其他线程
+     */
+    synchronized int reserve(int length) {
+        int allowed = (int) Math.min(length, end + 1 - position);
+        if (allowed < 0) allowed = 0;
+        position += allowed;
+        return allowed;
+    }
+
+    /**
+     * 确认申请的数据已经写入文件
+     *
+     * @param length 写入的长度
+     * @return 该段已经下载的长度
+     */
+    long commit(int length) {
+        downloaded += length;
+        return downloaded;
+    }
+
+    /**
+     * 从未分配的部分中拆出后一半作为新的下载段
+     *
+     * @param newId   新下载段的id
+     * @param minSize 可拆分的最小剩余长度
+     * @return 新下载段，剩余长度不足时返回null
+     */
+    synchronized Segment split(int newId, int minSize) {
+        long remaining = end + 1 - position;
+        if (remaining < minSize) return null;
+        long mid = position + remaining / 2;
+        Segment tail = new Segment(newId, mid, end, 0);
+        end = mid - 1;
+        return tail;
+    }
+
+    /**
+     * 为负责的线程过慢时发送的重复请求创建下载段，范围是该段还未分配的全部剩余部分，
+     * 重复请求写入自己的下载段，两边先完成的一方胜出
+     *
+     * @param newId 重复请求下载段的id
+     * @return 重复请求的下载段，已经有重复请求或没有剩余部分时返回null
+     */
+    synchronized Segment hedge(int newId) {
+        if (hedged || position > end) return null;
+        hedged = true;
+        return new Segment(newId, position, end, 0);
+    }
+
+    /**
+     * 重复请求先下载完成时截短该段，只保留负责的线程已经申请写入的部分
+     *
+     * @param from 重复请求的开始位置，负责的线程失败后从更前的位置重新开始时，截到该位置为止
+     * @return 截掉的部分的开始位置，重复请求补上从该位置到原结束位置的数据；该段已经全部分配时返回-1，负责的线程胜出
+     */
+    synchronized long truncate(long from) {
+        hedged = false;
+        if (position > end) return -1;
+        long cut = Math.max(position, from);
+        end = cut - 1;
+        return cut;
+    }
+
+    /**
+     * 重复请求失败或被取消时调用，该段恢复为普通的下载段
+     */
+    synchronized void unhedge() {
+        hedged = false;
+    }
+}
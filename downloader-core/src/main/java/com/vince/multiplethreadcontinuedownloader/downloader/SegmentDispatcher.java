@@ -0,0 +1,188 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享的下载线程任务调度器，限制总连接数和每个主机的连接数，
+ * 按下载优先级、该下载已占用的连接数和排队先后选择下一个任务，运行超过时间片的任务在有其他下载等待时让出连接。
+ * 支持虚拟线程时每个任务使用新的虚拟线程，否则使用线程池
+ */
+public class SegmentDispatcher implements SegmentExecutor {
+    //默认的时间片(毫秒)
+    public static final long DEFAULT_QUANTUM = 10 * 1000;
+    //总连接数上限
+    private final int maxConnections;
+    //每个主机的连接数上限
+    private final int maxConnectionsPerHost;
+    //运行的任务的线程池，线程数等于总连接数上限
+    private final ExecutorService pool;
+    //时间片
+    private volatile long quantumNanos = DEFAULT_QUANTUM * 1000000L;
+    //排队的任务
+    private final List<Pending> waiting = new ArrayList<Pending>();
+    //运行中的任务数
+    private int active;
+    private final Map<String, Integer> activePerHost = new HashMap<String, Integer>();
+    private final Map<FileDownloader, Integer> activePerDownload = new HashMap<FileDownloader, Integer>();
+    //排队序号
+    private long sequence;
+
+    private static final class Pending {
+        final FileDownloader downloader;
+        final DownloadThread task;
+        final String host;
+        final long sequence;
+
+        Pending(FileDownloader downloader, DownloadThread task, long sequence) {
+            this.downloader = downloader;
+            this.task = task;
+            this.host = downloader.getHost();
+            this.sequence = sequence;
+        }
+    }
+
+    public SegmentDispatcher(int maxConnections, int maxConnectionsPerHost) {
+        if (maxConnections <= 0 || maxConnectionsPerHost <= 0) throw new IllegalArgumentException("Connection limits must be positive");
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConnections, maxConnections, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        this.pool = executor;
+    }
+
+    /**
+     * 设置时间片，任务运行超过该时间且有其他下载在等待时让出连接
+     *
+     * @param quantum 毫秒
+     */
+    public void setQuantum(long quantum) {
+        this.quantumNanos = quantum * 1000000L;
+    }
+
+    @Override
+    public void execute(FileDownloader downloader, DownloadThread task) {
+        if (downloader.getExited()) {
+            task.skip();
+            return;
+        }
+        synchronized (this) {
+            waiting.add(new Pending(downloader, task, sequence++));
+            dispatch();
+        }
+    }
+
+    @Override
+    public boolean shouldYield(FileDownloader downloader, long runningNanos) {
+        if (runningNanos < quantumNanos) return false;
+        synchronized (this) {
+            String host = downloader.getHost();
+            for (Pending pending : waiting) {
+                if (pending.downloader == downloader || pending.downloader.getPriority() < downloader.getPriority()) continue;
+                //同一主机的任务在本任务让出后即可运行
+                if (pending.host.equals(host) || count(activePerHost, pending.host) < maxConnectionsPerHost) return true;
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public void release(FileDownloader downloader) {
+        List<DownloadThread> skipped = new ArrayList<DownloadThread>();
+        synchronized (this) {
+            for (Iterator<Pending> it = waiting.iterator(); it.hasNext(); ) {
+                Pending pending = it.next();
+                if (pending.downloader == downloader) {
+                    it.remove();
+                    skipped.add(pending.task);
+                }
+            }
+        }
+        for (DownloadThread task : skipped) {
+            task.skip();
+        }
+    }
+
+    /**
+     * 关闭线程池，运行中的任务会继续运行到结束
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * 在连接数允许的范围内运行排队的任务，调用时须持有锁
+     */
+    private void dispatch() {
+        while (active < maxConnections) {
+            Pending next = null;
+            for (Pending pending : waiting) {
+                if (count(activePerHost, pending.host) >= maxConnectionsPerHost) continue;
+                if (next == null || before(pending, next)) next = pending;
+            }
+            if (next == null) return;
+            waiting.remove(next);
+            active++;
+            increment(activePerHost, next.host, 1);
+            increment(activePerDownload, next.downloader, 1);
+            final Pending running = next;
+            Runnable command = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        running.task.run();
+                    } finally {
+                        finished(running);
+                    }
+                }
+            };
+            //虚拟线程不需要复用，连接数已由调度器限制
+            if (SegmentThreads.isVirtualEnabled()) {
+                SegmentThreads.start(command, "DownloadThread-" + running.task.getThreadId());
+            } else {
+                pool.execute(command);
+            }
+        }
+    }
+
+    private synchronized void finished(Pending pending) {
+        active--;
+        increment(activePerHost, pending.host, -1);
+        increment(activePerDownload, pending.downloader, -1);
+        dispatch();
+    }
+
+    /**
+     * 优先级高的先运行，优先级相同时占用连接少的下载先运行，再按排队先后
+     */
+    private boolean before(Pending a, Pending b) {
+        int pa = a.downloader.getPriority();
+        int pb = b.downloader.getPriority();
+        if (pa != pb) return pa > pb;
+        int ca = count(activePerDownload, a.downloader);
+        int cb = count(activePerDownload, b.downloader);
+        if (ca != cb) return ca < cb;
+        return a.sequence < b.sequence;
+    }
+
+    private static <K> int count(Map<K, Integer> map, K key) {
+        Integer value = map.get(key);
+        return value == null ? 0 : value;
+    }
+
+    private static <K> void increment(Map<K, Integer> map, K key, int delta) {
+        int value = count(map, key) + delta;
+        if (value == 0) {
+            map.remove(key);
+        } else {
+            map.put(key, value);
+        }
+    }
+}
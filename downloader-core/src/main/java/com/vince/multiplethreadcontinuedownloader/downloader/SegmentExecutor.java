@@ -0,0 +1,27 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+/**
+ * 下载线程任务的执行器，默认每个任务使用独立的线程，下载管理器提供共享线程池和连接数限制的实现
+ */
+public interface SegmentExecutor {
+	/**
+	 * 执行下载线程任务，任务结束时会调用FileDownloader的onThreadExit
+	 * @param downloader 任务所属的下载器
+	 * @param task 下载线程任务
+	 */
+	public void execute(FileDownloader downloader, DownloadThread task);
+
+	/**
+	 * 下载线程任务在读取数据的间隙调用，判断是否应该让出连接给其他下载
+	 * @param downloader 任务所属的下载器
+	 * @param runningNanos 任务已经运行的时间
+	 * @return 返回true时任务保存进度后结束，由下载器重新排队
+	 */
+	public boolean shouldYield(FileDownloader downloader, long runningNanos);
+
+	/**
+	 * 下载器暂停时调用，排队中尚未运行的任务应立即结束
+	 * @param downloader 暂停的下载器
+	 */
+	public void release(FileDownloader downloader);
+}
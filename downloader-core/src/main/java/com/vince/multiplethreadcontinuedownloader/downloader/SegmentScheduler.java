@@ -0,0 +1,207 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 下载段调度器，给下载线程分配下载段，没有空闲的下载段时拆分剩余最多的段的后一半给空闲线程，
+ * 续传时的下载段是块位图中合并后的未完成部分，可以按任意顺序领取；
+ * 有流正在按顺序读取时，优先分配和拆分读取位置之后最近的段
+ */
+public class SegmentScheduler {
+    //默认的可拆分最小剩余长度
+    public static final int DEFAULT_MIN_SPLIT_SIZE = 256 * 1024;
+    //所有下载段
+    private final List<Segment> segments;
+    //下一个新建下载段的id
+    private int nextId;
+    //剩余长度小于该值的下载段不再拆分
+    private volatile int minSplitSize = DEFAULT_MIN_SPLIT_SIZE;
+    //是否可以拆分下载段，服务器不支持Range请求时不能拆分
+    private volatile boolean splitEnabled = true;
+    //按顺序读取的流的位置，为负时没有优先的位置
+    private volatile long priorityPosition = -1;
+
+    public SegmentScheduler(List<Segment> segments) {
+        this.segments = new ArrayList<Segment>(segments);
+        for (Segment segment : segments) {
+            nextId = Math.max(nextId, segment.getId());
+        }
+        nextId++;
+    }
+
+    public void setMinSplitSize(int minSplitSize) {
+        this.minSplitSize = minSplitSize;
+    }
+
+    public void setSplitEnabled(boolean splitEnabled) {
+        this.splitEnabled = splitEnabled;
+    }
+
+    /**
+     * 设置优先下载的位置，流读取到该位置时调用
+     *
+     * @param position 文件中的位置，为负时取消优先
+     */
+    public void setPriorityPosition(long position) {
+        this.priorityPosition = position;
+    }
+
+    /**
+     * 获取从指定位置开始连续写入文件的数据的结束位置，只包括各下载段已经写入的部分
+     *
+     * @param position 文件中的位置
+     * @return 没有下载段在该位置写入了数据时返回position
+     */
+    public synchronized long getWrittenEnd(long position) {
+        long end = position;
+        boolean extended = true;
+        //相邻的下载段首尾相接，继续向后查找
+        while (extended) {
+            extended = false;
+            for (Segment segment : segments) {
+                long written = segment.getStart() + segment.getDownloaded();
+                if (segment.getStart() <= end && written > end) {
+                    end = written;
+                    extended = true;
+                }
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 获取所有下载段的快照
+     */
+    public synchronized List<Segment> getSegments() {
+        return new ArrayList<Segment>(segments);
+    }
+
+    /**
+     * 获取所有下载段已经下载的长度之和
+     */
+    public synchronized long getDownloadedSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.getDownloaded();
+        }
+        return size;
+    }
+
+    /**
+     * 给空闲线程分配下载段，优先分配无人负责的未完成段，其次拆分剩余最多的段；
+     * 有优先的位置时分配该位置之后最近的段，拆分时也先拆分它
+     *
+     * @return 下载段，没有可分配的工作时返回null
+     */
+    public synchronized Segment next() {
+        long now = System.currentTimeMillis();
+        long priority = this.priorityPosition;
+        Segment found = null;
+        for (Segment segment : segments) {
+            //失败后还在退避的段暂不分配
+            if (!segment.isAssigned() && !segment.isComplete() && segment.getRetryAt() <= now) {
+                if (priority < 0) {
+                    found = segment;
+                    break;
+                }
+                if (found == null || closer(segment, found, priority)) found = segment;
+            }
+        }
+        if (found != null) {
+            found.setAssigned(true);
+            found.setRetryAt(0);
+            return found;
+        }
+        return steal(priority);
+    }
+
+    /**
+     * 比较两个段离优先位置的远近，结束在优先位置之前的段已经读过，排在最后
+     */
+    private static boolean closer(Segment a, Segment b, long priority) {
+        boolean aAhead = a.getEnd() >= priority;
+        boolean bAhead = b.getEnd() >= priority;
+        if (aAhead != bAhead) return aAhead;
+        return a.getStart() < b.getStart();
+    }
+
+    /**
+     * 获取失败后等待重新下载的段中最早可以领取的时间
+     *
+     * @return 毫秒，没有等待中的段时返回0
+     */
+    public synchronized long getRetryAt() {
+        long retryAt = 0;
+        for (Segment segment : segments) {
+            long at = segment.getRetryAt();
+            if (at > 0 && !segment.isAssigned() && !segment.isComplete() && (retryAt == 0 || at < retryAt)) retryAt = at;
+        }
+        return retryAt;
+    }
+
+    /**
+     * 清除所有段的失败次数，用户重新开始下载时调用
+     */
+    public synchronized void resetFailures() {
+        for (Segment segment : segments) {
+            segment.resetFailures();
+        }
+    }
+
+    /**
+     * 释放失败线程负责的下载段，使其可以重新分配
+     */
+    public synchronized void release(Segment segment) {
+        segment.release();
+    }
+
+    /**
+     * 为慢速线程负责的下载段创建重复请求的下载段，重复请求的段不加入调度器，胜出后才把补上的部分加入
+     *
+     * @param victim 慢速线程负责的下载段
+     * @return 重复请求的下载段，没有剩余部分或已经有重复请求时返回null
+     */
+    public synchronized Segment hedge(Segment victim) {
+        if (!splitEnabled || victim.isComplete()) return null;
+        Segment hedge = victim.hedge(nextId);
+        if (hedge != null) nextId++;
+        return hedge;
+    }
+
+    /**
+     * 加入重复请求胜出后补上的已完成部分，由断点写入器标记到块位图中
+     */
+    public synchronized void adopt(Segment segment) {
+        //尚未保存，下次刷新时写入块位图
+        segment.setFlushed(0);
+        segments.add(segment);
+    }
+
+    private Segment steal(long priority) {
+        if (!splitEnabled) return null;
+        Segment victim = null;
+        long max = 0;
+        Segment ahead = null;
+        for (Segment segment : segments) {
+            long remaining = segment.getRemaining();
+            //有重复请求的段不拆分，否则重复请求的范围与拆出的段重叠
+            if (!segment.isAssigned() || segment.isHedged()) continue;
+            if (remaining > max) {
+                victim = segment;
+                max = remaining;
+            }
+            //读取位置之后最近的可拆分的段
+            if (priority >= 0 && remaining >= minSplitSize && (ahead == null || closer(segment, ahead, priority))) ahead = segment;
+        }
+        if (victim == null) return null;
+        Segment tail = ahead != null ? ahead.split(nextId, minSplitSize) : null;
+        if (tail == null) tail = victim.split(nextId, minSplitSize);
+        if (tail == null) return null;
+        nextId++;
+        tail.setAssigned(true);
+        //下载段只存在于内存中，进度按块位图保存，拆分不需要记录
+        segments.add(tail);
+        return tail;
+    }
+}
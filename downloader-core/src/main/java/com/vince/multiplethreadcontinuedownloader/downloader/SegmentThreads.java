@@ -0,0 +1,95 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.lang.reflect.Method;
+
+/**
+ * 创建运行下载线程任务的线程，JDK 21及以上使用虚拟线程，每个任务只占用几KB内存，
+ * Android和旧版本JDK没有虚拟线程，使用平台线程
+ */
+public final class SegmentThreads {
+    //平台线程的优先级，Thread.NORM_PRIORITY = 5 Thread.MIN_PRIORITY = 1 Thread.MAX_PRIORITY = 10
+    private static final int PLATFORM_PRIORITY = 7;
+    //Thread.ofVirtual()返回的构建器及其方法，不支持时为null
+    private static final Object VIRTUAL_BUILDER;
+    private static final Method NAME;
+    private static final Method UNSTARTED;
+    //是否使用虚拟线程
+    private static volatile boolean virtualEnabled;
+
+    static {
+        Object builder = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            //通过反射调用，源码仍然可以按Java 7编译
+            builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> type = Class.forName("java.lang.Thread$Builder");
+            name = type.getMethod("name", String.class);
+            unstarted = type.getMethod("unstarted", Runnable.class);
+        } catch (Exception e) {
+            builder = null;
+        } catch (LinkageError e) {
+            builder = null;
+        }
+        VIRTUAL_BUILDER = builder;
+        NAME = name;
+        UNSTARTED = unstarted;
+        virtualEnabled = builder != null;
+    }
+
+    private SegmentThreads() {
+    }
+
+    /**
+     * 当前运行环境是否支持虚拟线程
+     */
+    public static boolean isVirtualSupported() {
+        return VIRTUAL_BUILDER != null;
+    }
+
+    public static boolean isVirtualEnabled() {
+        return virtualEnabled;
+    }
+
+    /**
+     * 设置是否使用虚拟线程，不支持时无效
+     *
+     * @param enabled 为false时总是使用平台线程
+     */
+    public static void setVirtualEnabled(boolean enabled) {
+        virtualEnabled = enabled && VIRTUAL_BUILDER != null;
+    }
+
+    /**
+     * 创建尚未启动的线程
+     *
+     * @param task 任务
+     * @param name 线程名
+     * @return 线程
+     */
+    public static Thread newThread(Runnable task, String name) {
+        if (virtualEnabled) {
+            try {
+                //Thread.Builder不是线程安全的，每次设置名称和创建线程时加锁
+                synchronized (VIRTUAL_BUILDER) {
+                    return (Thread) UNSTARTED.invoke(NAME.invoke(VIRTUAL_BUILDER, name), task);
+                }
+            } catch (Exception e) {
+                DownloadLog.i("SegmentThreads", "virtual thread unavailable:" + e);
+                virtualEnabled = false;
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setPriority(PLATFORM_PRIORITY);
+        return thread;
+    }
+
+    /**
+     * 创建并启动线程
+     */
+    public static Thread start(Runnable task, String name) {
+        Thread thread = newThread(task, name);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,863 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于Selector的非阻塞下载引擎，所有下载的下载段连接由少量选择器线程复用，收到的数据从直接内存缓冲区写入文件通道。
+ * 作为下载线程任务的执行器设置给FileDownloader，下载段的领取、拆分、重试和断点保存与阻塞方式相同；
+ * 只支持http协议，其他协议的任务仍在独立线程中运行
+ * <p>
+ * 选择器线程只做套接字读写和缓冲区交接：域名解析、写入文件、保存进度、领取下载段和结束任务都交给工作线程，
+ * 一次缓慢的同步或数据库写入只影响当前连接；连接把缓冲区交给工作线程后停止读取，工作线程完成后再回到选择器线程继续
+ */
+public class SelectorEngine implements SegmentExecutor {
+    private static final String TAG = "SelectorEngine";
+    //连接超时时间(毫秒)
+    private static final long CONNECT_TIMEOUT = 5 * 1000;
+    //响应头的最大长度
+    private static final int HEADER_LIMIT = 16 * 1024;
+    //一个请求最多跟随的重定向次数
+    private static final int MAX_REDIRECTS = 5;
+    //每个选择器线程的读取缓冲区大小
+    private static final int READ_BUFFER = 64 * 1024;
+    //限速等待时最长的检查间隔(毫秒)
+    private static final long THROTTLE_SLICE = 50;
+    //有连接时检查撤回和取消的最长间隔(毫秒)，停顿的连接没有事件，只能定时检查
+    private static final long STOP_CHECK = 200;
+    //连接状态
+    private static final int CONNECTING = 0;
+    private static final int WRITING = 1;
+    private static final int HEADERS = 2;
+    private static final int BODY = 3;
+    private static final int RESOLVING = 4;
+    //连接的读取缓冲区，交给工作线程写入文件期间不能再读取，每个连接一个
+    private static final BufferPool BUFFERS = new BufferPool(READ_BUFFER, READ_BUFFER, true);
+    //所有下载器默认共享的引擎
+    private static SelectorEngine shared;
+
+    private final Looper[] loopers;
+    //轮流分配选择器线程
+    private final AtomicInteger next = new AtomicInteger();
+    //执行可能阻塞的操作的工作线程，每个连接同时只有一个操作，线程数不超过连接数，空闲时回收
+    private final ExecutorService workers;
+
+    /**
+     * @param threads 选择器线程数
+     * @throws IOException 无法打开Selector
+     */
+    public SelectorEngine(int threads) throws IOException {
+        if (threads <= 0) throw new IllegalArgumentException("threads must be positive");
+        final AtomicInteger count = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = SegmentThreads.newThread(r, "SelectorEngine-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.loopers = new Looper[threads];
+        for (int i = 0; i < threads; i++) {
+            loopers[i] = new Looper("SelectorEngine-" + (i + 1), workers);
+        }
+    }
+
+    /**
+     * 获取共享的引擎，只有一个选择器线程，第一次调用时创建
+     */
+    public static synchronized SelectorEngine getShared() {
+        if (shared == null) {
+            try {
+                shared = new SelectorEngine(1);
+            } catch (IOException e) {
+                throw new RuntimeException("Can't open selector", e);
+            }
+        }
+        return shared;
+    }
+
+    @Override
+    public void execute(FileDownloader downloader, DownloadThread task) {
+        if (!"http".equalsIgnoreCase(task.getUrl().getProtocol())) {
+            //https等协议需要HttpURLConnection，使用独立线程
+            SegmentThreads.start(task, "DownloadThread-" + task.getThreadId());
+            return;
+        }
+        if (downloader.getExited()) {
+            task.skip();
+            return;
+        }
+        Looper looper = loopers[(next.getAndIncrement() & Integer.MAX_VALUE) % loopers.length];
+        looper.post(new Connection(looper, downloader, task));
+    }
+
+    /**
+     * 非阻塞连接不占用线程，不需要让出
+     */
+    @Override
+    public boolean shouldYield(FileDownloader downloader, long runningNanos) {
+        return false;
+    }
+
+    @Override
+    public void release(final FileDownloader downloader) {
+        for (final Looper looper : loopers) {
+            looper.post(new Runnable() {
+                @Override
+                public void run() {
+                    looper.release(downloader);
+                }
+            });
+        }
+    }
+
+    /**
+     * 停止所有选择器线程，未完成的连接按失败结束，工作线程空闲后自动回收
+     */
+    public void shutdown() {
+        for (Looper looper : loopers) {
+            looper.stop();
+        }
+    }
+
+    /**
+     * 选择器线程，处理分配给它的所有连接
+     */
+    private static final class Looper implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final ExecutorService workers;
+        //其他线程提交的操作
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        //本线程的连接，只在本线程中访问
+        private final List<Connection> connections = new ArrayList<Connection>();
+        private volatile boolean stopped;
+
+        Looper(String name, ExecutorService workers) throws IOException {
+            this.workers = workers;
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        void post(Runnable task) {
+            tasks.offer(task);
+            selector.wakeup();
+        }
+
+        void stop() {
+            stopped = true;
+            selector.wakeup();
+        }
+
+        void release(FileDownloader downloader) {
+            for (Connection connection : new ArrayList<Connection>(connections)) {
+                if (connection.downloader == downloader) connection.finish(null);
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                try {
+                    long now = System.nanoTime();
+                    long timeout = connections.isEmpty() ? 0 : STOP_CHECK;
+                    for (Connection connection : connections) {
+                        long deadline = connection.deadline();
+                        if (deadline > 0) {
+                            long wait = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - now) + 1);
+                            timeout = timeout == 0 ? wait : Math.min(timeout, wait);
+                        }
+                    }
+                    selector.select(timeout);
+                    runTasks();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid()) ((Connection) key.attachment()).handle(key);
+                    }
+                    now = System.nanoTime();
+                    for (Connection connection : new ArrayList<Connection>(connections)) {
+                        connection.checkTimers(now);
+                    }
+                } catch (IOException e) {
+                    DownloadLog.i(TAG, "select failed:" + e);
+                }
+            }
+            for (Connection connection : new ArrayList<Connection>(connections)) {
+                connection.finish(new IOException("Engine shut down"));
+            }
+            //工作线程中还有操作的连接在操作完成后结束
+            while (!connections.isEmpty()) {
+                try {
+                    selector.select(STOP_CHECK);
+                } catch (IOException e) {
+                    DownloadLog.i(TAG, "select failed:" + e);
+                }
+                runTasks();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                DownloadLog.i(TAG, "close failed:" + e);
+            }
+        }
+    }
+
+    /**
+     * 一个下载线程任务对应的连接，依次下载领取到的下载段，响应体读完时复用长连接请求下一段；
+     * 除工作线程中运行的领取、解析和写入外，所有字段只在选择器线程中访问，交接通过任务队列保证可见性
+     */
+    private static final class Connection implements Runnable {
+        private final Looper looper;
+        private final FileDownloader downloader;
+        private final DownloadThread task;
+        //当前连接的镜像，以及请求的地址、主机和端口，镜像重定向后请求的地址为重定向后的地址
+        private Mirror mirror;
+        private URL url;
+        private String host;
+        private int port;
+        //解析后的地址，主机变化时重新解析
+        private InetSocketAddress address;
+        //工作线程领取下载段时选择的镜像
+        private Mirror selected;
+        //请求行中的路径和Host头字段
+        private String target;
+        private String hostHeader;
+        private SocketChannel channel;
+        private SelectionKey key;
+        //当前请求是否使用了之前请求留下的长连接
+        private boolean reused;
+        private int state;
+        private Segment segment;
+        private ByteBuffer request;
+        private ByteBuffer header;
+        //读取缓冲区，从池中获取，结束时归还
+        private ByteBuffer buffer;
+        //工作线程中是否有本连接的操作，此时不读取也不结束，结束请求推迟到操作完成
+        private boolean busy;
+        private boolean finishPending;
+        private Exception finishError;
+        //当前请求是否收到了数据
+        private boolean received;
+        //响应要求重定向到的地址，以及当前请求已经跟随的重定向次数
+        private URL redirect;
+        private int redirects;
+        //响应体剩余的长度，未知时为-1
+        private long bodyRemaining;
+        //响应结束后连接是否可以复用
+        private boolean keepAlive;
+        private long connectDeadline;
+        //最近一次读到数据的时间，等待响应或读取响应体时超过读取超时没有数据则请求失败
+        private long lastRead;
+        //开始建立连接和请求发送完毕的时间，用于测量连接耗时和首字节耗时
+        private long connectStart;
+        private long requestSent;
+        //限速时恢复读取的时间
+        private long resumeAt;
+        private boolean done;
+
+        Connection(Looper looper, FileDownloader downloader, DownloadThread task) {
+            this.looper = looper;
+            this.downloader = downloader;
+            this.task = task;
+            this.segment = task.getSegment();
+        }
+
+        /**
+         * 切换到另一个镜像，之前的长连接属于其他主机，不能复用
+         */
+        private void setMirror(Mirror mirror) {
+            if (mirror == this.mirror) return;
+            this.mirror = mirror;
+            setTarget(mirror.getUrl());
+        }
+
+        /**
+         * 设置请求的地址，主机不同时之前的长连接不能复用；同一镜像之后的请求继续使用重定向后的地址，可以复用到新主机的长连接
+         */
+        private void setTarget(URL url) {
+            closeChannel();
+            if (this.url == null || !url.getAuthority().equalsIgnoreCase(this.url.getAuthority())) address = null;
+            this.url = url;
+            this.host = url.getHost();
+            this.port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+            String path = url.getFile();
+            this.target = path == null || path.length() == 0 ? "/" : path;
+            this.hostHeader = url.getPort() != -1 ? host + ":" + url.getPort() : host;
+        }
+
+        /**
+         * 在选择器线程中开始运行
+         */
+        @Override
+        public void run() {
+            looper.connections.add(this);
+            if (looper.stopped) {
+                finish(new IOException("Engine shut down"));
+                return;
+            }
+            buffer = BUFFERS.acquire(READ_BUFFER);
+            task.setTaskStart(System.nanoTime());
+            proceed();
+        }
+
+        /**
+         * 在工作线程中领取下一个下载段，然后回到选择器线程发送请求，没有剩余工作或需要停止时结束
+         */
+        private void proceed() {
+            //等待期间长连接上的事件不处理
+            if (key != null) key.interestOps(0);
+            busy = true;
+            looper.workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean claimed = false;
+                    Exception error = null;
+                    try {
+                        claimed = claim();
+                    } catch (RuntimeException e) {
+                        error = e;
+                    }
+                    final boolean next = claimed;
+                    final Exception cause = error;
+                    looper.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            afterClaim(next, cause);
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * 领取下载段并选择镜像，在工作线程中运行，结束重复请求时可能保存进度
+         *
+         * @return 是否领取到需要下载的下载段
+         */
+        private boolean claim() {
+            //上一个请求的速度计入其镜像
+            task.endRequest();
+            while (true) {
+                if (stopping()) return false;
+                //重复请求下载完或慢速线程已经申请完全部数据时结束比较，之后领取普通的下载段
+                if (task.isHedge() && (segment.isComplete() || task.raceLost())) {
+                    downloader.endHedge(task);
+                    segment = null;
+                }
+                if (segment != null && !segment.isComplete()) break;
+                segment = downloader.nextSegment();
+                task.setSegment(segment);
+                if (segment == null) return false;
+            }
+            //获取文件信息时打开的连接只能以阻塞方式读取，直接断开
+            HttpURLConnection probe = downloader.takeProbeConnection(segment);
+            if (probe != null) probe.disconnect();
+            //按各镜像的速度选择镜像，https镜像需要HttpURLConnection，不能选择
+            selected = downloader.selectMirror(task, true);
+            task.beginRequest(selected);
+            return true;
+        }
+
+        private void afterClaim(boolean claimed, Exception error) {
+            busy = false;
+            if (finishPending) {
+                finish(finishError);
+                return;
+            }
+            if (error != null || !claimed) {
+                finish(error);
+                return;
+            }
+            try {
+                setMirror(selected);
+                redirects = 0;
+                request = buildRequest();
+                if (channel != null) {
+                    //复用长连接，不需要建立连接
+                    downloader.getMetrics().onConnect(0);
+                    reused = true;
+                    state = WRITING;
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else {
+                    connect();
+                }
+            } catch (IOException e) {
+                finish(e);
+            }
+        }
+
+        /**
+         * 请求当前下载段剩余的范围
+         */
+        private ByteBuffer buildRequest() throws IOException {
+            long startPos = segment.getStart() + segment.getDownloaded();
+            //远程文件变化时服务器返回整个新文件，不会把新文件的数据写到旧文件的后面
+            String ifRange = downloader.getIfRange();
+            return ByteBuffer.wrap(("GET " + target + " HTTP/1.1\r\n"
+                    + "Host: " + hostHeader + "\r\n"
+                    + "Accept: */*\r\n"
+                    + "Accept-Language: zh-CN\r\n"
+                    + "Referer: " + mirror.getUrl() + "\r\n"
+                    + "User-Agent: " + FileDownloader.USER_AGENT + "\r\n"
+                    + "Range: bytes=" + startPos + "-" + segment.getEnd() + "\r\n"
+                    + (ifRange != null ? "If-Range: " + ifRange + "\r\n" : "")
+                    + "Connection: keep-alive\r\n\r\n").getBytes("ISO-8859-1"));
+        }
+
+        private void connect() throws IOException {
+            reused = false;
+            connectStart = System.nanoTime();
+            if (address == null) {
+                resolve();
+                return;
+            }
+            open();
+        }
+
+        /**
+         * 在工作线程中解析主机名，解析期间没有连接，可以随时结束
+         */
+        private void resolve() {
+            state = RESOLVING;
+            final String name = host;
+            final int number = port;
+            looper.workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final InetSocketAddress resolved = new InetSocketAddress(name, number);
+                    looper.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            afterResolve(resolved);
+                        }
+                    });
+                }
+            });
+        }
+
+        private void afterResolve(InetSocketAddress resolved) {
+            //解析期间已经结束，解析期间没有连接，不会转到其他主机
+            if (done || state != RESOLVING) return;
+            if (resolved.isUnresolved()) {
+                finish(new UnknownHostException(host));
+                return;
+            }
+            address = resolved;
+            try {
+                open();
+            } catch (IOException e) {
+                finish(e);
+            } catch (RuntimeException e) {
+                finish(e);
+            }
+        }
+
+        private void open() throws IOException {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(address)) {
+                downloader.getMetrics().onConnect(System.nanoTime() - connectStart);
+                state = WRITING;
+                key = channel.register(looper.selector, SelectionKey.OP_WRITE, this);
+            } else {
+                state = CONNECTING;
+                connectDeadline = System.nanoTime() + CONNECT_TIMEOUT * 1000000L;
+                key = channel.register(looper.selector, SelectionKey.OP_CONNECT, this);
+            }
+        }
+
+        void handle(SelectionKey key) {
+            try {
+                if (state == CONNECTING && key.isConnectable()) {
+                    if (channel.finishConnect()) {
+                        downloader.getMetrics().onConnect(System.nanoTime() - connectStart);
+                        connectDeadline = 0;
+                        state = WRITING;
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                } else if (state == WRITING && key.isWritable()) {
+                    channel.write(request);
+                    if (!request.hasRemaining()) {
+                        requestSent = System.nanoTime();
+                        lastRead = requestSent;
+                        state = HEADERS;
+                        received = false;
+                        if (header == null) header = ByteBuffer.allocate(HEADER_LIMIT);
+                        header.clear();
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    read();
+                }
+            } catch (IOException e) {
+                finish(e);
+            } catch (RuntimeException e) {
+                finish(e);
+            }
+        }
+
+        private void read() throws IOException {
+            buffer.clear();
+            int n = channel.read(buffer);
+            if (n == -1) {
+                if (reused && !received) {
+                    //长连接已经被服务器关闭，用新连接重新发送请求
+                    closeChannel();
+                    request.rewind();
+                    connect();
+                    return;
+                }
+                throw new IOException("Segment " + segment.getId() + " ended before position " + segment.getEnd());
+            }
+            if (n == 0) return;
+            lastRead = System.nanoTime();
+            if (!received) downloader.getMetrics().onFirstByte(System.nanoTime() - requestSent);
+            received = true;
+            buffer.flip();
+            if (state == HEADERS) {
+                if (!readHeader(buffer)) return;
+                if (redirect != null) {
+                    follow();
+                    return;
+                }
+                state = BODY;
+            }
+            if (buffer.hasRemaining()) {
+                write();
+                return;
+            }
+            if (bodyRemaining == 0) {
+                throw new IOException("Segment " + segment.getId() + " ended before position " + segment.getEnd());
+            }
+            afterRead();
+        }
+
+        /**
+         * 累积响应头直到空行
+         *
+         * @return 响应头是否已经完整
+         */
+        private boolean readHeader(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (!header.hasRemaining()) throw new IOException("Response header too large");
+                header.put(buffer.get());
+                int p = header.position();
+                if (p >= 4 && header.get(p - 4) == '\r' && header.get(p - 3) == '\n' && header.get(p - 2) == '\r' && header.get(p - 1) == '\n') {
+                    parseHeader(new String(header.array(), 0, p, "ISO-8859-1"));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 向重定向后的地址重新发送同一范围的请求，重定向的响应体不需要，直接断开连接
+         */
+        private void follow() throws IOException {
+            URL location = redirect;
+            redirect = null;
+            if (++redirects > MAX_REDIRECTS) throw new IOException("Too many redirects for " + mirror.getUrl());
+            setTarget(location);
+            request = buildRequest();
+            connect();
+        }
+
+        private void parseHeader(String text) throws IOException {
+            String[] lines = text.split("\r\n");
+            String[] status = lines[0].split(" ");
+            if (status.length < 2) throw new IOException("Bad status line " + lines[0]);
+            int code;
+            try {
+                code = Integer.parseInt(status[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad status line " + lines[0]);
+            }
+            long startPos = segment.getStart() + segment.getDownloaded();
+            //发送了If-Range却返回整个文件，说明远程文件已经变化
+            if (code == HttpURLConnection.HTTP_OK && downloader.getIfRange() != null) {
+                downloader.onContentChanged();
+                throw new IOException("Remote file changed");
+            }
+            String retryAfter = null;
+            String location = null;
+            bodyRemaining = -1;
+            keepAlive = status[0].equals("HTTP/1.1");
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) continue;
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.US);
+                String value = lines[i].substring(colon + 1).trim();
+                if ("content-length".equals(name)) {
+                    try {
+                        bodyRemaining = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Bad Content-Length " + value);
+                    }
+                } else if ("connection".equals(name)) {
+                    if ("close".equalsIgnoreCase(value)) keepAlive = false;
+                } else if ("retry-after".equals(name)) {
+                    retryAfter = value;
+                } else if ("location".equals(name)) {
+                    location = value;
+                } else if ("transfer-encoding".equals(name) && !"identity".equalsIgnoreCase(value)) {
+                    throw new IOException("Unsupported Transfer-Encoding " + value);
+                }
+            }
+            //与HttpURLConnection一样只跟随同一协议的重定向，https的地址需要HttpURLConnection，交给重试策略
+            if (location != null && isRedirect(code)) {
+                URL next = new URL(url, location);
+                if ("http".equalsIgnoreCase(next.getProtocol())) {
+                    redirect = next;
+                    return;
+                }
+            }
+            //服务器忽略了Range时返回的是整个文件，只有从文件开头开始时可以使用；错误的响应码和Retry-After交给重试策略
+            if (code != HttpURLConnection.HTTP_PARTIAL && !(code == HttpURLConnection.HTTP_OK && startPos == 0)) {
+                throw new HttpStatusException(code, HttpStatusException.parseRetryAfter(retryAfter, System.currentTimeMillis()));
+            }
+            if (bodyRemaining < 0) keepAlive = false;
+        }
+
+        private static boolean isRedirect(int code) {
+            return code == HttpURLConnection.HTTP_MOVED_PERM || code == HttpURLConnection.HTTP_MOVED_TEMP
+                    || code == HttpURLConnection.HTTP_SEE_OTHER || code == 307 || code == 308;
+        }
+
+        /**
+         * 把缓冲区交给工作线程写入文件中当前下载段的位置，写入期间停止读取
+         */
+        private void write() {
+            key.interestOps(0);
+            busy = true;
+            final int n = bodyRemaining >= 0 && buffer.remaining() > bodyRemaining ? (int) bodyRemaining : buffer.remaining();
+            looper.workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int written = 0;
+                    Exception error = null;
+                    try {
+                        written = writeBody(n);
+                    } catch (IOException e) {
+                        error = e;
+                    } catch (RuntimeException e) {
+                        error = e;
+                    }
+                    final int length = written;
+                    final Exception cause = error;
+                    looper.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            afterWrite(n, length, cause);
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * 在工作线程中写入响应体，同时更新进度，进度达到阈值时保存断点
+         *
+         * @param n 属于本次响应的长度
+         * @return 写入的长度，剩余部分被拆分给其他线程后只写入属于本段的数据
+         */
+        private int writeBody(int n) throws IOException {
+            int length = segment.reserve(n);
+            if (length > 0) {
+                buffer.limit(buffer.position() + length);
+                long position = segment.getStart() + segment.getDownloaded();
+                task.getHasher().update(buffer, position);
+                task.getSaveFile().write(buffer, position);
+                segment.commit(length);
+                task.addDownloaded(length);
+                //重复请求的数据在胜出后一次性计入
+                if (!task.isHedge()) downloader.update(task.getThreadId(), length);
+                downloader.consumeBandwidth(length);
+            }
+            return length;
+        }
+
+        /**
+         * 写入完成后回到选择器线程，当前下载段完成或被拆走时转到下一段，否则继续读取
+         */
+        private void afterWrite(int n, int length, Exception error) {
+            busy = false;
+            if (finishPending) {
+                finish(error != null ? error : finishError);
+                return;
+            }
+            if (error != null) {
+                finish(error);
+                return;
+            }
+            try {
+                if (bodyRemaining >= 0) bodyRemaining -= n;
+                if (length < n || segment.isComplete() || task.raceLost()) {
+                    //响应体刚好读完时保留连接请求下一段，否则剩余数据属于其他段，断开连接
+                    if (!(length == n && bodyRemaining == 0 && keepAlive)) closeChannel();
+                    if (checkYield()) return;
+                    proceed();
+                    return;
+                }
+                if (bodyRemaining == 0) {
+                    throw new IOException("Segment " + segment.getId() + " ended before position " + segment.getEnd());
+                }
+                //写入的时间不算作服务器停顿
+                lastRead = System.nanoTime();
+                key.interestOps(SelectionKey.OP_READ);
+                afterRead();
+            } catch (IOException e) {
+                finish(e);
+            } catch (RuntimeException e) {
+                finish(e);
+            }
+        }
+
+        private void afterRead() {
+            if (checkYield()) return;
+            long delay = downloader.getBandwidthDelay();
+            if (delay > 0) {
+                //超出速率限制时暂停读取，到时间后恢复
+                resumeAt = System.nanoTime() + Math.min(delay, THROTTLE_SLICE * 1000000L);
+                key.interestOps(0);
+            }
+        }
+
+        /**
+         * 运行时间片用完或需要停止时结束连接
+         */
+        private boolean checkYield() {
+            if (downloader.shouldYield(System.nanoTime() - task.getTaskStart())) task.markYielded();
+            if (stopping()) {
+                finish(null);
+                return true;
+            }
+            return false;
+        }
+
+        private boolean stopping() {
+            return downloader.getExited() || task.isYielded() || task.isRetired() || task.isCancelled();
+        }
+
+        /**
+         * 最近需要检查的时间，没有时返回0
+         */
+        long deadline() {
+            long deadline = connectDeadline;
+            if (resumeAt > 0 && (deadline == 0 || resumeAt < deadline)) deadline = resumeAt;
+            long read = readDeadline();
+            if (read > 0 && (deadline == 0 || read < deadline)) deadline = read;
+            return deadline;
+        }
+
+        /**
+         * 读取超时的时间，与阻塞方式的读取超时相同，限速暂停读取时不计算，没有时返回0
+         */
+        private long readDeadline() {
+            if (channel == null || busy || resumeAt > 0 || (state != HEADERS && state != BODY)) return 0;
+            return lastRead + FileDownloader.READ_TIMEOUT * 1000000L;
+        }
+
+        void checkTimers(long now) {
+            if (done) return;
+            if (stopping()) {
+                finish(null);
+                return;
+            }
+            if (connectDeadline > 0 && now >= connectDeadline) {
+                finish(new SocketTimeoutException("connect timed out"));
+                return;
+            }
+            long readDeadline = readDeadline();
+            if (readDeadline > 0 && now >= readDeadline) {
+                //停顿的服务器不会产生事件，由重试策略决定是否重新请求
+                finish(new SocketTimeoutException("Read timed out"));
+                return;
+            }
+            if (resumeAt > 0 && now >= resumeAt) {
+                long delay = downloader.getBandwidthDelay();
+                if (delay > 0) {
+                    resumeAt = now + Math.min(delay, THROTTLE_SLICE * 1000000L);
+                } else {
+                    resumeAt = 0;
+                    //暂停读取的时间不算作服务器停顿
+                    lastRead = now;
+                    if (key != null && key.isValid()) key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        /**
+         * 关闭连接，在工作线程中结束任务，由下载器决定是否重启；工作线程中有本连接的操作时在操作完成后结束
+         *
+         * @param error 出错时的异常，正常结束或暂停时为null
+         */
+        void finish(final Exception error) {
+            if (done) return;
+            if (busy) {
+                if (!finishPending) finishError = error;
+                finishPending = true;
+                return;
+            }
+            done = true;
+            closeChannel();
+            looper.connections.remove(this);
+            if (buffer != null) {
+                BUFFERS.release(buffer);
+                buffer = null;
+            }
+            //结束时保存进度并通知监听器
+            looper.workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    task.complete(error);
+                }
+            });
+        }
+
+        private void closeChannel() {
+            connectDeadline = 0;
+            resumeAt = 0;
+            if (key != null) key.cancel();
+            key = null;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    DownloadLog.i(TAG, "close failed:" + e);
+                }
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.IOException;
+
+/**
+ * 读写本地文件失败，例如存储空间已满或存储设备被移除，重试也不能恢复
+ */
+public class StorageException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public StorageException(String message, IOException cause) {
+        super(message + ": " + cause, cause);
+    }
+}
@@ -0,0 +1,16 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+/**
+ * 下载线程把数据写入文件的方式
+ */
+public enum WriteMode {
+    /**
+     * 通过所有线程共享的文件通道按位置写入，每次写入一次系统调用
+     */
+    CHANNEL,
+    /**
+     * 把文件按窗口映射到内存，数据直接复制到映射区域，保存下载进度前写回存储设备；
+     * 适合高速下载的大文件，小文件仍然按CHANNEL写入
+     */
+    MEMORY_MAPPED
+}
@@ -0,0 +1,139 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 小文件只用一个连接且不保存进度，批量下载复用长连接并在一次写入中保存所有文件的验证信息
+ */
+public class BatchDownloadTest extends DownloadTestCase {
+    private static final int FILE_SIZE = 20 * 1024;
+    private static final int FILE_COUNT = 100;
+    //与store是同一个对象
+    private CountingStore counting;
+
+    public BatchDownloadTest() {
+        super("batch-test", FILE_SIZE, 5);
+    }
+
+    @Override
+    protected ProgressStore createStore() {
+        counting = new CountingStore();
+        return counting;
+    }
+
+    @Test
+    public void smallFileUsesOneRequestWithoutPersistedState() throws Exception {
+        new File(saveDir, "small.bin").delete();
+        int requests = server.getRequestCount();
+        FileDownloader downloader = new FileDownloader(store, server.getUrl("small.bin"), saveDir, 4);
+        assertTrue(downloader.isSmallFile());
+        assertEquals(1, downloader.getThreadSize());
+        assertEquals(FILE_SIZE, downloader.download(null));
+        //获取文件信息的响应体就是整个文件
+        assertEquals(1, server.getRequestCount() - requests);
+        assertEquals(0, counting.writes);
+        assertTrue(Arrays.equals(data, read(downloader.getSaveFile())));
+    }
+
+    @Test
+    public void largerFilesAreSegmented() throws Exception {
+        byte[] large = new byte[(int) FileDownloader.getSmallFileThreshold() + 1];
+        server.setData(large);
+        FileDownloader downloader = new FileDownloader(store, server.getUrl("large.bin"), saveDir, 4);
+        assertTrue(!downloader.isSmallFile());
+        assertEquals(4, downloader.getThreadSize());
+        downloader.discard();
+    }
+
+    @Test
+    public void batchReusesConnectionsAndSavesOnce() throws Exception {
+        List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            urls.add(server.getUrl("manifest-" + i + ".bin"));
+            new File(saveDir, "manifest-" + i + ".bin").delete();
+        }
+        //无法连接的地址只使该文件失败
+        urls.add("http://127.0.0.1:1/unreachable.bin");
+        BatchDownloader batch = new BatchDownloader(store, 8, 3);
+        int connections = server.getConnectionCount();
+        BatchResult result = batch.download(urls, saveDir, null);
+        assertEquals(FILE_COUNT, result.getDownloadedCount());
+        assertEquals((long) FILE_COUNT * FILE_SIZE, result.getDownloadedBytes());
+        assertEquals(1, result.getFailureCount());
+        assertTrue(result.getFailures().containsKey("http://127.0.0.1:1/unreachable.bin"));
+        //每个主机最多3个连接，下载完的连接由下一个文件复用
+        assertTrue("connections: " + (server.getConnectionCount() - connections), server.getConnectionCount() - connections <= 3);
+        //所有文件的验证信息在一次写入中保存
+        assertEquals(1, counting.writes);
+        assertEquals(FILE_COUNT, store.getValidators(urls).size());
+        for (int i = 0; i < FILE_COUNT; i += 17) {
+            assertTrue(Arrays.equals(data, read(new File(saveDir, "manifest-" + i + ".bin"))));
+        }
+
+        //再次同步时服务器确认文件没有变化，不再下载
+        long sent = server.getBytesSent();
+        result = batch.download(urls.subList(0, FILE_COUNT), saveDir, null);
+        assertEquals(FILE_COUNT, result.getUnchangedCount());
+        assertEquals(0, result.getDownloadedCount());
+        assertEquals(sent, server.getBytesSent());
+        assertEquals(2, counting.writes);
+    }
+
+    /**
+     * 记录写入次数的进度存储
+     */
+    private static final class CountingStore extends MemoryProgressStore {
+        volatile int writes;
+
+        @Override
+        public synchronized void saveProgress(String path, ChunkBitmap bitmap) {
+            writes++;
+            super.saveProgress(path, bitmap);
+        }
+
+        @Override
+        public synchronized void saveHashes(String path, List<ChunkHash> list) {
+            writes++;
+            super.saveHashes(path, list);
+        }
+
+        @Override
+        public synchronized void saveCheckpoint(String path, ChunkBitmap bitmap, List<ChunkHash> list) {
+            writes++;
+            super.saveCheckpoint(path, bitmap, list);
+        }
+
+        @Override
+        public synchronized void saveValidator(String path, FileValidator validator) {
+            writes++;
+            super.saveValidator(path, validator);
+        }
+
+        @Override
+        public synchronized void saveValidators(Map<String, FileValidator> map) {
+            writes++;
+            super.saveValidators(map);
+        }
+
+        @Override
+        public synchronized void deleteValidator(String path) {
+            writes++;
+            super.deleteValidator(path);
+        }
+
+        @Override
+        public synchronized void delete(String path) {
+            writes++;
+            super.delete(path);
+        }
+    }
+}
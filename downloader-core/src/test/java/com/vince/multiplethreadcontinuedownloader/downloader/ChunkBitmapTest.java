@@ -0,0 +1,108 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 块位图的标记、未完成块的合并以及按位图从任意位置续传
+ */
+public class ChunkBitmapTest extends DownloadTestCase {
+    private static final int CHUNK_SIZE = 1024;
+    private static final int FILE_SIZE = 64 * CHUNK_SIZE + 10;
+
+    public ChunkBitmapTest() {
+        super("bitmap-test", FILE_SIZE, 5);
+    }
+
+    @Test
+    public void chunkAcrossSegmentsNeedsBothSides() {
+        ChunkBitmap bitmap = new ChunkBitmap(10 * CHUNK_SIZE + 100, CHUNK_SIZE);
+        assertEquals(11, bitmap.getChunkCount());
+        //第一段写到第2块中间，第二段从该位置开始
+        Segment first = new Segment(1, 0, 2500 - 1, 2500);
+        Segment second = new Segment(2, 2500, 5000, 100);
+        bitmap.mark(Arrays.asList(first, second));
+        assertTrue(bitmap.isComplete(1));
+        assertFalse(bitmap.isComplete(2));
+        bitmap.mark(Arrays.asList(first, new Segment(2, 2500, 5000, 600)));
+        assertTrue(bitmap.isComplete(2));
+        assertEquals(3 * CHUNK_SIZE, bitmap.getCompletedSize());
+        assertEquals(3 * CHUNK_SIZE, bitmap.getCompletedPrefix());
+    }
+
+    @Test
+    public void lastChunkIsShorter() {
+        ChunkBitmap bitmap = new ChunkBitmap(2 * CHUNK_SIZE + 100, CHUNK_SIZE);
+        bitmap.markRange(CHUNK_SIZE, 2 * CHUNK_SIZE + 100);
+        assertEquals(CHUNK_SIZE + 100, bitmap.getCompletedSize());
+        List<Segment> missing = bitmap.getMissingSegments();
+        assertEquals(1, missing.size());
+        assertEquals(0, missing.get(0).getStart());
+        assertEquals(CHUNK_SIZE - 1, missing.get(0).getEnd());
+    }
+
+    @Test
+    public void adjacentMissingChunksAreMerged() {
+        ChunkBitmap bitmap = new ChunkBitmap(10 * CHUNK_SIZE, CHUNK_SIZE);
+        bitmap.markRange(0, 2 * CHUNK_SIZE);
+        bitmap.markRange(5 * CHUNK_SIZE, 6 * CHUNK_SIZE);
+        List<Segment> missing = bitmap.getMissingSegments();
+        assertEquals(2, missing.size());
+        assertEquals(2 * CHUNK_SIZE, missing.get(0).getStart());
+        assertEquals(5 * CHUNK_SIZE - 1, missing.get(0).getEnd());
+        assertEquals(6 * CHUNK_SIZE, missing.get(1).getStart());
+        assertEquals(10 * CHUNK_SIZE - 1, missing.get(1).getEnd());
+        //保存后还原
+        ChunkBitmap copy = new ChunkBitmap(bitmap.getFileSize(), CHUNK_SIZE, bitmap.toByteArray());
+        assertEquals(bitmap.getCompletedSize(), copy.getCompletedSize());
+    }
+
+    /**
+     * 每隔一块完成的文件续传时，每段连续的未完成块只用一个Range请求
+     */
+    @Test
+    public void fragmentedResume() throws Exception {
+        String url = server.getUrl("fragmented.bin");
+        new FileDownloader(store, url, saveDir, 1).discard();
+        //偶数块已经下载，奇数块是无效数据
+        ChunkBitmap bitmap = new ChunkBitmap(FILE_SIZE, CHUNK_SIZE);
+        List<ChunkHash> hashes = new ArrayList<ChunkHash>();
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < bitmap.getChunkCount(); i += 2) {
+            int start = (int) bitmap.getChunkStart(i);
+            int length = (int) (bitmap.getChunkEnd(i) - start);
+            System.arraycopy(data, start, content, start, length);
+            CRC32 crc = new CRC32();
+            crc.update(data, start, length);
+            hashes.add(new ChunkHash(start, length, crc.getValue()));
+            bitmap.markRange(start, start + length);
+        }
+        File file = new File(saveDir, "fragmented.bin");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(content);
+        } finally {
+            raf.close();
+        }
+        store.saveProgress(url, bitmap);
+        store.saveHashes(url, hashes);
+
+        FileDownloader downloader = new FileDownloader(store, url, saveDir, 1);
+        assertEquals(bitmap.getCompletedSize(), downloader.getDownloadedSize());
+        int requests = server.getRequestCount();
+        assertEquals(FILE_SIZE, downloader.download(null));
+        //32个未完成的块各为一段，没有更多请求
+        assertEquals(requests + bitmap.getMissingSegments().size(), server.getRequestCount());
+        assertTrue(Arrays.equals(data, read(file)));
+    }
+}
@@ -0,0 +1,102 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 远程文件验证信息的保存、续传时的If-Range以及下载完成后的条件请求，远程文件变化时长度不变，只有ETag不同
+ */
+public class ConditionalRequestTest extends DownloadTestCase {
+    private static final int FILE_SIZE = 2 * 1024 * 1024 + 77;
+    private byte[] changed;
+
+    public ConditionalRequestTest() {
+        super("conditional-test", FILE_SIZE, 3);
+    }
+
+    @Before
+    public void setUp() {
+        changed = new byte[FILE_SIZE];
+        new Random(4).nextBytes(changed);
+    }
+
+    @Test
+    public void unchangedFileIsSkipped() throws Exception {
+        String name = "unchanged.bin";
+        FileDownloader first = fresh(null, name, 3);
+        assertEquals(FILE_SIZE, first.download(null));
+        int requests = server.getRequestCount();
+        FileDownloader second = create(null, name, 3);
+        //只发送了一个条件请求
+        assertEquals(requests + 1, server.getRequestCount());
+        assertEquals(FILE_SIZE, second.getDownloadedSize());
+        assertEquals(FILE_SIZE, second.download(null));
+        assertEquals(requests + 1, server.getRequestCount());
+        assertTrue(Arrays.equals(data, read(second.getSaveFile())));
+    }
+
+    @Test
+    public void changedFileIsDownloadedAgain() throws Exception {
+        String name = "changed.bin";
+        assertEquals(FILE_SIZE, fresh(null, name, 3).download(null));
+        server.setData(changed);
+        FileDownloader second = create(null, name, 3);
+        assertEquals(0, second.getDownloadedSize());
+        assertEquals(FILE_SIZE, second.download(null));
+        assertTrue(Arrays.equals(changed, read(second.getSaveFile())));
+    }
+
+    @Test
+    public void changedBeforeResume() throws Exception {
+        String name = "changed-resume.bin";
+        FileDownloader first = fresh(null, name, 3);
+        pauseAfter(first, FILE_SIZE / 2);
+        server.setData(changed);
+        FileDownloader second = create(null, name, 3);
+        //旧文件的进度被丢弃
+        assertEquals(0, second.getDownloadedSize());
+        assertEquals(FILE_SIZE, second.download(null));
+        assertTrue(Arrays.equals(changed, read(second.getSaveFile())));
+    }
+
+    @Test
+    public void blockingChangedDuringDownload() throws Exception {
+        checkChangedDuringDownload(null, "blocking-changed.bin");
+    }
+
+    @Test
+    public void selectorChangedDuringDownload() throws Exception {
+        checkChangedDuringDownload(SelectorEngine.getShared(), "selector-changed.bin");
+    }
+
+    /**
+     * 暂停后远程文件变化，续传的下载段通过If-Range发现变化，下载失败并删除记录，重新下载得到新文件
+     */
+    private void checkChangedDuringDownload(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader first = fresh(engine, name, 3);
+        //暂停时只保存完整的块，等每个连接都下载了一个块以上再暂停
+        pauseAfter(first, FILE_SIZE / 2);
+        //续传时获取的验证信息仍是旧文件的，之后文件才变化
+        FileDownloader second = create(engine, name, 3);
+        assertTrue(second.getDownloadedSize() > 0);
+        server.setData(changed);
+        try {
+            second.download(null);
+            fail("content change not detected");
+        } catch (Exception e) {
+            assertNull(store.getProgress(server.getUrl(name)));
+        }
+        FileDownloader third = create(engine, name, 3);
+        assertEquals(0, third.getDownloadedSize());
+        assertEquals(FILE_SIZE, third.download(null));
+        assertTrue(Arrays.equals(changed, read(third.getSaveFile())));
+    }
+}
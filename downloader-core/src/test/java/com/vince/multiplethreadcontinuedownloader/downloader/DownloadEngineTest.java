@@ -0,0 +1,99 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 阻塞的下载线程和非阻塞的SelectorEngine对本地HTTP服务器执行相同的完整性和断点续传测试
+ */
+public class DownloadEngineTest extends DownloadTestCase {
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 123;
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    public DownloadEngineTest() {
+        super("engine-test", FILE_SIZE, 1);
+    }
+
+    @Test
+    public void blockingDownload() throws Exception {
+        checkDownload(null, "blocking.bin");
+    }
+
+    @Test
+    public void selectorDownload() throws Exception {
+        checkDownload(SelectorEngine.getShared(), "selector.bin");
+    }
+
+    @Test
+    public void blockingWithoutRanges() throws Exception {
+        server.setRangeSupported(false);
+        checkDownload(null, "blocking-norange.bin");
+    }
+
+    @Test
+    public void selectorWithoutRanges() throws Exception {
+        server.setRangeSupported(false);
+        checkDownload(SelectorEngine.getShared(), "selector-norange.bin");
+    }
+
+    @Test
+    public void blockingResume() throws Exception {
+        checkResume(null, "blocking-resume.bin");
+    }
+
+    @Test
+    public void selectorResume() throws Exception {
+        checkResume(SelectorEngine.getShared(), "selector-resume.bin");
+    }
+
+    /**
+     * 下载路径重定向时下载段请求重定向后的地址，下载段请求再次被重定向时非阻塞引擎跟随Location
+     */
+    @Test
+    public void blockingRedirect() throws Exception {
+        checkRedirect(null, "blocking-redirect.bin");
+    }
+
+    @Test
+    public void selectorRedirect() throws Exception {
+        checkRedirect(SelectorEngine.getShared(), "selector-redirect.bin");
+    }
+
+    @Override
+    protected void configure(FileDownloader downloader) {
+        downloader.setChunkSize(CHUNK_SIZE);
+    }
+
+    private void checkDownload(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader downloader = fresh(engine, name, 3);
+        assertEquals(FILE_SIZE, downloader.download(null));
+        assertTrue(Arrays.equals(data, read(downloader.getSaveFile())));
+    }
+
+    private void checkRedirect(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader downloader = fresh(engine, "redirect/" + name, 3);
+        assertEquals(server.getUrl(name), downloader.getPrimaryMirror().getUrl().toString());
+        server.redirectRequests(2);
+        assertEquals(FILE_SIZE, downloader.download(null));
+        assertTrue(Arrays.equals(data, read(downloader.getSaveFile())));
+    }
+
+    /**
+     * 下载到一半时暂停，用不同的线程数重新创建下载器，应从保存的块位图继续并得到完整的文件
+     */
+    private void checkResume(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader first = fresh(engine, name, 3);
+        pauseAfter(first, FILE_SIZE / 3);
+        long paused = first.getDownloadedSize();
+        FileDownloader second = create(engine, name, 2);
+        //续传从块位图中已完成的块继续，每个正在下载的位置最多丢失两个未写满的块
+        assertEquals("saved progress", store.getProgress(server.getUrl(name)).getCompletedSize(), second.getDownloadedSize());
+        assertTrue("lost too much progress", paused - second.getDownloadedSize() <= 8 * CHUNK_SIZE);
+        assertEquals(FILE_SIZE, second.download(null));
+        assertTrue(Arrays.equals(data, read(second.getSaveFile())));
+    }
+}
@@ -0,0 +1,132 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 下载测试的公共部分：每个测试用随机内容启动一个LocalHttpServer，下载到临时目录下的独立子目录，进度保存在内存中；
+ * 子类通过configure()设置创建的下载器，阻塞方式和非阻塞方式的测试分别传入null和SelectorEngine.getShared()
+ */
+public abstract class DownloadTestCase {
+    private final String dirName;
+    private final int fileSize;
+    private final long seed;
+    protected byte[] data;
+    protected LocalHttpServer server;
+    protected File saveDir;
+    //同一测试中的下载器共享的进度存储，模拟应用重启后读取保存的进度
+    protected ProgressStore store;
+
+    /**
+     * @param dirName  临时目录下保存下载文件的子目录
+     * @param fileSize 服务器提供的文件大小
+     * @param seed     生成文件内容的随机数种子
+     */
+    protected DownloadTestCase(String dirName, int fileSize, long seed) {
+        this.dirName = dirName;
+        this.fileSize = fileSize;
+        this.seed = seed;
+    }
+
+    @Before
+    public void setUpServer() throws Exception {
+        data = new byte[fileSize];
+        new Random(seed).nextBytes(data);
+        server = new LocalHttpServer(data);
+        saveDir = new File(System.getProperty("java.io.tmpdir"), dirName);
+        if (!saveDir.exists() && !saveDir.mkdirs()) throw new IOException("Can't create " + saveDir);
+        store = createStore();
+        //主机的失败状态在所有下载之间共享，各测试之间清除
+        RetryPolicy.resetHosts();
+    }
+
+    @After
+    public void tearDownServer() throws Exception {
+        server.close();
+        RetryPolicy.resetHosts();
+    }
+
+    /**
+     * 创建保存下载进度的存储，默认保存在内存中
+     */
+    protected ProgressStore createStore() {
+        return new MemoryProgressStore();
+    }
+
+    /**
+     * 设置创建的下载器，默认使用下载器的默认设置
+     */
+    protected void configure(FileDownloader downloader) {
+    }
+
+    protected FileDownloader create(SegmentExecutor engine, String name, int threadNum) {
+        FileDownloader downloader = new FileDownloader(store, server.getUrl(name), saveDir, threadNum);
+        downloader.setSegmentExecutor(engine);
+        configure(downloader);
+        return downloader;
+    }
+
+    /**
+     * 先丢弃之前的测试留下的进度和文件，再创建下载器
+     */
+    protected FileDownloader fresh(SegmentExecutor engine, String name, int threadNum) {
+        new FileDownloader(store, server.getUrl(name), saveDir, threadNum).discard();
+        return create(engine, name, threadNum);
+    }
+
+    /**
+     * 在新线程中下载，失败由调用者通过下载器或读取的流检查
+     */
+    protected static Thread start(final FileDownloader downloader) {
+        Thread runner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    downloader.download(null);
+                } catch (Exception e) {
+                    //暂停或失败后返回
+                }
+            }
+        });
+        runner.start();
+        return runner;
+    }
+
+    /**
+     * 减慢服务器的发送速度后开始下载，下载了指定的大小后暂停，暂停时还没有下载完成
+     */
+    protected void pauseAfter(FileDownloader downloader, long size) throws Exception {
+        server.setChunkDelay(5);
+        Thread runner = start(downloader);
+        long deadline = System.currentTimeMillis() + 30 * 1000;
+        while (downloader.getDownloadedSize() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        downloader.exit();
+        runner.join();
+        server.setChunkDelay(0);
+        assertTrue("paused too late", downloader.getDownloadedSize() < fileSize);
+    }
+
+    protected static byte[] read(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int n;
+            while (offset < content.length && (n = in.read(content, offset, content.length - offset)) != -1) {
+                offset += n;
+            }
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+}
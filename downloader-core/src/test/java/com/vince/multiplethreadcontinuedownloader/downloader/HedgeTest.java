@@ -0,0 +1,58 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 一个下载段的连接停顿时，空闲的线程位置重复请求其剩余部分，重复请求先完成后取消停顿的线程；
+ * JDK的HttpURLConnection断开时要等待正在进行的读取返回，因此服务器的停顿有时限
+ */
+public class HedgeTest extends DownloadTestCase {
+    private static final int FILE_SIZE = 4 * 1024 * 1024 + 77;
+
+    public HedgeTest() {
+        super("hedge-test", FILE_SIZE, 6);
+    }
+
+    @Test(timeout = 30000)
+    public void blockingStalledSegment() throws Exception {
+        checkStalledSegment(null, "blocking-stalled.bin");
+    }
+
+    @Test(timeout = 30000)
+    public void selectorStalledSegment() throws Exception {
+        checkStalledSegment(SelectorEngine.getShared(), "selector-stalled.bin");
+    }
+
+    @Test
+    public void healthySegmentsAreNotHedged() throws Exception {
+        FileDownloader downloader = fresh(null, "healthy.bin", 2);
+        assertEquals(FILE_SIZE, downloader.download(null));
+        assertEquals(0, downloader.getHedgePolicy().getStartedCount());
+        assertTrue(Arrays.equals(data, read(downloader.getSaveFile())));
+    }
+
+    @Override
+    protected void configure(FileDownloader downloader) {
+        downloader.setHedgePolicy(new HedgePolicy(100, HedgePolicy.DEFAULT_MIN_RATE_RATIO, 500, HedgePolicy.DEFAULT_MIN_REMAINING));
+    }
+
+    /**
+     * 第二个下载段的响应在开始后不久停顿，重复请求在停顿结束前完成
+     */
+    private void checkStalledSegment(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader downloader = fresh(engine, name, 2);
+        //两个线程平均分块，第二段从文件的一半开始
+        long second = (FILE_SIZE + 1) / 2;
+        server.stallOnce(second + 100 * 1024, 3000);
+        assertEquals(FILE_SIZE, downloader.download(null));
+        HedgePolicy policy = downloader.getHedgePolicy();
+        assertEquals(1, policy.getStartedCount());
+        assertEquals(1, policy.getWonCount());
+        assertTrue(Arrays.equals(data, read(downloader.getSaveFile())));
+    }
+}
@@ -0,0 +1,110 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Test;
+
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 数据块校验值的保存、续传时的校验回退以及整个文件的SHA-256
+ */
+public class IntegrityTest extends DownloadTestCase {
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 123;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    public IntegrityTest() {
+        super("integrity-test", FILE_SIZE, 2);
+    }
+
+    @Test
+    public void blockingSha256() throws Exception {
+        checkSha256(null, "blocking-sha.bin");
+    }
+
+    @Test
+    public void selectorSha256() throws Exception {
+        checkSha256(SelectorEngine.getShared(), "selector-sha.bin");
+    }
+
+    @Test
+    public void sha256Mismatch() throws Exception {
+        String name = "mismatch.bin";
+        FileDownloader downloader = fresh(null, name, 3);
+        downloader.enableSha256("00");
+        try {
+            downloader.download(null);
+            fail("SHA-256 mismatch not detected");
+        } catch (Exception e) {
+            //下载记录已删除，重新下载时从头开始
+            assertNull(store.getProgress(server.getUrl(name)));
+        }
+    }
+
+    @Test
+    public void blockingCorruptedChunk() throws Exception {
+        checkCorruptedChunk(null, "blocking-torn.bin");
+    }
+
+    @Test
+    public void selectorCorruptedChunk() throws Exception {
+        checkCorruptedChunk(SelectorEngine.getShared(), "selector-torn.bin");
+    }
+
+    @Override
+    protected void configure(FileDownloader downloader) {
+        downloader.setChunkSize(CHUNK_SIZE);
+    }
+
+    private void checkSha256(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader downloader = fresh(engine, name, 3);
+        String expected = hex(MessageDigest.getInstance("SHA-256").digest(data));
+        downloader.enableSha256(expected.toUpperCase());
+        assertEquals(FILE_SIZE, downloader.download(null));
+        assertEquals(expected, downloader.getSha256());
+    }
+
+    /**
+     * 暂停后破坏第一个断点前的块，续传时该块应标记为未完成并重新下载
+     */
+    private void checkCorruptedChunk(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader first = fresh(engine, name, 3);
+        pauseAfter(first, FILE_SIZE / 3);
+        assertFalse(store.getHashes(server.getUrl(name)).isEmpty());
+
+        ChunkBitmap saved = store.getProgress(server.getUrl(name));
+        long completed = saved.getCompletedSize();
+        //第一个后面紧接着未完成块的已完成块
+        int tail = -1;
+        for (int i = 0; i + 1 < saved.getChunkCount() && tail < 0; i++) {
+            if (saved.isComplete(i) && !saved.isComplete(i + 1)) tail = i;
+        }
+        assertTrue("no checkpoint", tail >= 0);
+        //模拟断电时没有写完的数据
+        RandomAccessFile raf = new RandomAccessFile(first.getSaveFile(), "rw");
+        try {
+            raf.seek(saved.getChunkEnd(tail) - 16);
+            raf.write(new byte[16]);
+        } finally {
+            raf.close();
+        }
+
+        FileDownloader second = create(engine, name, 3);
+        //只有损坏的块被重新下载
+        assertEquals(completed - CHUNK_SIZE, second.getDownloadedSize());
+        assertEquals(FILE_SIZE, second.download(null));
+        assertTrue(Arrays.equals(data, read(second.getSaveFile())));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+}
@@ -0,0 +1,271 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 测试用的本地HTTP服务器，提供一个文件，支持HEAD、Range、If-Range、If-None-Match请求和长连接，可以限制发送速度，
+ * 也可以让一个响应在指定位置停顿一段时间，或让接下来的若干个请求返回错误的响应码或重定向；
+ * 路径以/redirect/开头的请求重定向到去掉该前缀的路径
+ */
+public class LocalHttpServer {
+    //文件内容和对应的ETag，更换内容时一起替换
+    private volatile Content content;
+    private final ServerSocket serverSocket;
+    //是否支持Range请求
+    private volatile boolean rangeSupported = true;
+    //每发送8K数据后休眠的毫秒数
+    private volatile long chunkDelay;
+    //接受的连接数、收到的请求数和发送的响应体字节数
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    //第一个经过该位置的响应在此停顿，为-1时不停顿
+    private final AtomicLong stallAt = new AtomicLong(-1);
+    //停顿的毫秒数
+    private volatile long stallMillis;
+    //还要返回错误的请求数，错误的响应码和Retry-After
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int failureCode;
+    private volatile String failureRetryAfter;
+    //还要重定向的请求数
+    private final AtomicInteger redirects = new AtomicInteger();
+
+    public LocalHttpServer(byte[] data) throws IOException {
+        this.content = new Content(data, 1);
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "LocalHttpServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getUrl(String name) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + name;
+    }
+
+    /**
+     * 更换文件内容，ETag和Last-Modified随之变化
+     */
+    public void setData(byte[] data) {
+        this.content = new Content(data, content.version + 1);
+    }
+
+    public void setRangeSupported(boolean rangeSupported) {
+        this.rangeSupported = rangeSupported;
+    }
+
+    public void setChunkDelay(long chunkDelay) {
+        this.chunkDelay = chunkDelay;
+    }
+
+    /**
+     * 下一个经过指定位置的响应发送到该位置后停顿，然后继续发送，只生效一次；
+     * 从文件开头开始的响应不停顿，避免获取文件信息的响应提前经过该位置
+     */
+    public void stallOnce(long position, long millis) {
+        stallMillis = millis;
+        stallAt.set(position);
+    }
+
+    /**
+     * 接下来的若干个不从文件开头开始的Range请求返回指定的响应码，获取文件信息的请求不受影响
+     *
+     * @param count      返回错误的请求数
+     * @param code       响应码
+     * @param retryAfter Retry-After的值，为null时不发送
+     */
+    public void failRequests(int count, int code, String retryAfter) {
+        failureCode = code;
+        failureRetryAfter = retryAfter;
+        failures.set(count);
+    }
+
+    /**
+     * 接下来的若干个不从文件开头开始的Range请求返回307，重定向到路径前加上/moved的绝对地址
+     *
+     * @param count 重定向的请求数
+     */
+    public void redirectRequests(int count) {
+        redirects.set(count);
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public long getBytesSent() {
+        return sent.get();
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            //同一连接上依次处理多个请求
+            while ((requestLine = readLine(in)) != null) {
+                if (requestLine.length() == 0) continue;
+                requests.incrementAndGet();
+                String[] parts = requestLine.split(" ");
+                String method = parts[0];
+                String path = parts[1];
+                String range = null;
+                String ifRange = null;
+                String ifNoneMatch = null;
+                boolean close = false;
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    String name = line.substring(0, colon).trim();
+                    String value = line.substring(colon + 1).trim();
+                    if ("Range".equalsIgnoreCase(name)) range = value;
+                    if ("If-Range".equalsIgnoreCase(name)) ifRange = value;
+                    if ("If-None-Match".equalsIgnoreCase(name)) ifNoneMatch = value;
+                    if ("Connection".equalsIgnoreCase(name) && "close".equalsIgnoreCase(value)) close = true;
+                }
+                String location = null;
+                if (path.startsWith("/redirect/")) {
+                    location = path.substring("/redirect".length());
+                } else if (range != null && !range.startsWith("bytes=0-") && redirects.getAndDecrement() > 0) {
+                    location = "http://127.0.0.1:" + serverSocket.getLocalPort() + "/moved" + path;
+                }
+                if (location != null) {
+                    out.write(("HTTP/1.1 " + (path.startsWith("/redirect/") ? "302 Found" : "307 Temporary Redirect")
+                            + "\r\nLocation: " + location + "\r\nContent-Length: 0\r\n\r\n").getBytes("ISO-8859-1"));
+                    out.flush();
+                    continue;
+                }
+                Content current = this.content;
+                byte[] data = current.data;
+                if (current.etag.equals(ifNoneMatch)) {
+                    out.write(("HTTP/1.1 304 Not Modified\r\nETag: " + current.etag + "\r\n\r\n").getBytes("ISO-8859-1"));
+                    out.flush();
+                    continue;
+                }
+                //If-Range与当前的ETag或Last-Modified不一致时返回整个文件
+                if (ifRange != null && !ifRange.equals(current.etag) && !ifRange.equals(current.lastModified)) range = null;
+                if (range != null && !range.startsWith("bytes=0-") && failures.getAndDecrement() > 0) {
+                    StringBuilder error = new StringBuilder("HTTP/1.1 ").append(failureCode).append(" Error\r\n");
+                    if (failureRetryAfter != null) error.append("Retry-After: ").append(failureRetryAfter).append("\r\n");
+                    error.append("Content-Length: 0\r\n\r\n");
+                    out.write(error.toString().getBytes("ISO-8859-1"));
+                    out.flush();
+                    continue;
+                }
+                long from = 0;
+                long to = data.length - 1;
+                StringBuilder header = new StringBuilder();
+                if (range != null && rangeSupported) {
+                    String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                    from = Long.parseLong(bounds[0]);
+                    if (bounds[1].length() > 0) to = Math.min(Long.parseLong(bounds[1]), data.length - 1);
+                    header.append("HTTP/1.1 206 Partial Content\r\n");
+                    header.append("Content-Range: bytes ").append(from).append('-').append(to).append('/').append(data.length).append("\r\n");
+                } else {
+                    header.append("HTTP/1.1 200 OK\r\n");
+                }
+                if (rangeSupported) header.append("Accept-Ranges: bytes\r\n");
+                header.append("ETag: ").append(current.etag).append("\r\n");
+                header.append("Last-Modified: ").append(current.lastModified).append("\r\n");
+                header.append("Content-Length: ").append(to - from + 1).append("\r\n\r\n");
+                out.write(header.toString().getBytes("ISO-8859-1"));
+                if (!"HEAD".equals(method)) {
+                    for (long p = from; p <= to; ) {
+                        int n = (int) Math.min(8192, to - p + 1);
+                        long stall = stallAt.get();
+                        if (from > 0 && stall >= p && stall < p + n && stallAt.compareAndSet(stall, -1)) {
+                            out.write(data, (int) p, (int) (stall - p));
+                            out.flush();
+                            Thread.sleep(stallMillis);
+                            out.write(data, (int) stall, (int) (p + n - stall));
+                            sent.addAndGet(n);
+                            p += n;
+                            continue;
+                        }
+                        out.write(data, (int) p, n);
+                        sent.addAndGet(n);
+                        p += n;
+                        if (chunkDelay > 0) Thread.sleep(chunkDelay);
+                    }
+                }
+                out.flush();
+                if (close) break;
+            }
+        } catch (Exception e) {
+            //客户端断开连接
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //忽略
+            }
+        }
+    }
+
+    private static final class Content {
+        final byte[] data;
+        final int version;
+        final String etag;
+        final String lastModified;
+
+        Content(byte[] data, int version) {
+            this.data = data;
+            this.version = version;
+            this.etag = "\"v" + version + "\"";
+            this.lastModified = "Mon, 0" + Math.min(version, 9) + " Jan 2024 00:00:00 GMT";
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') line.setLength(length - 1);
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+}
@@ -0,0 +1,132 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 内存映射写入：窗口数受限时按需重新映射，跨越窗口边界的写入拆分到两个窗口，关闭后写入失败，下载和续传的结果与通道写入相同
+ */
+public class MappedWriteTest extends DownloadTestCase {
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 123;
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    public MappedWriteTest() {
+        super("mapped-test", FILE_SIZE, 25);
+    }
+
+    /**
+     * 4个线程乱序写入，64KB的窗口最多同时映射2个，写入过程中不断解除和重新映射
+     */
+    @Test(timeout = 30000)
+    public void concurrentWritesRemapWindows() throws Exception {
+        File file = new File(saveDir, "remap.bin");
+        final MappedSaveFile output = new MappedSaveFile(file, FILE_SIZE, DurabilityPolicy.SYNC_ON_CHECKPOINT, 64 * 1024, 2);
+        final int pieces = (FILE_SIZE + 999) / 1000;
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final int first = t;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        //每个线程写入间隔的数据片，按窗口交错访问
+                        for (int i = pieces - 1 - first; i >= 0; i -= 4) {
+                            int offset = i * 1000;
+                            output.write(ByteBuffer.wrap(data, offset, Math.min(1000, FILE_SIZE - offset)), offset);
+                            if (i % 97 == 0) output.sync();
+                        }
+                    } catch (Exception e) {
+                        error.set(e);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertTrue("mapped " + output.getMappedWindows(), output.getMappedWindows() <= 2);
+        output.close();
+        if (error.get() != null) throw error.get();
+        assertTrue(Arrays.equals(data, read(file)));
+    }
+
+    @Test
+    public void writeSpansWindowBoundary() throws Exception {
+        File file = new File(saveDir, "boundary.bin");
+        MappedSaveFile output = new MappedSaveFile(file, 10000, DurabilityPolicy.SYNC_EVERY_WRITE, 4096, 1);
+        try {
+            ByteBuffer src = ByteBuffer.wrap(data, 0, 10000);
+            output.write(src, 0);
+            assertEquals(0, src.remaining());
+            assertEquals(1, output.getMappedWindows());
+        } finally {
+            output.close();
+        }
+        assertTrue(Arrays.equals(Arrays.copyOf(data, 10000), read(file)));
+    }
+
+    @Test
+    public void writeAfterCloseFails() throws Exception {
+        MappedSaveFile output = new MappedSaveFile(new File(saveDir, "closed.bin"), 10000, DurabilityPolicy.SYNC_ON_COMPLETION);
+        output.write(ByteBuffer.wrap(data, 0, 100), 0);
+        output.close();
+        assertEquals(0, output.getMappedWindows());
+        try {
+            output.write(ByteBuffer.wrap(data, 0, 100), 100);
+            fail("write after close should fail");
+        } catch (ClosedChannelException e) {
+            //暂停后返回的线程不视为存储错误
+        }
+    }
+
+    @Test
+    public void writeBeyondLengthFails() throws Exception {
+        MappedSaveFile output = new MappedSaveFile(new File(saveDir, "beyond.bin"), 10000, DurabilityPolicy.SYNC_ON_COMPLETION);
+        try {
+            output.write(ByteBuffer.wrap(data, 0, 100), 9950);
+            fail("write beyond the file should fail");
+        } catch (StorageException e) {
+            //映射的范围不超过文件长度
+        } finally {
+            output.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void blockingMappedResume() throws Exception {
+        checkResume(null, "blocking-mapped.bin");
+    }
+
+    @Test(timeout = 60000)
+    public void selectorMappedResume() throws Exception {
+        checkResume(SelectorEngine.getShared(), "selector-mapped.bin");
+    }
+
+    @Override
+    protected void configure(FileDownloader downloader) {
+        downloader.setChunkSize(CHUNK_SIZE);
+        downloader.setWriteMode(WriteMode.MEMORY_MAPPED);
+    }
+
+    /**
+     * 内存映射写入时暂停，保存的进度之前的数据都已写回，续传后得到完整的文件
+     */
+    private void checkResume(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader first = fresh(engine, name, 3);
+        pauseAfter(first, FILE_SIZE / 3);
+        FileDownloader second = create(engine, name, 2);
+        assertEquals(FILE_SIZE, second.download(null));
+        assertTrue(Arrays.equals(data, read(second.getSaveFile())));
+    }
+}
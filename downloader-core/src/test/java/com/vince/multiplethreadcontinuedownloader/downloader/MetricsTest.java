@@ -0,0 +1,76 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 运行指标的记录和导出，以及直方图的百分位数
+ */
+public class MetricsTest extends DownloadTestCase {
+    private static final int FILE_SIZE = 2 * 1024 * 1024 + 77;
+
+    public MetricsTest() {
+        super("metrics-test", FILE_SIZE, 11);
+    }
+
+    @Test
+    public void blockingDownloadIsMeasured() throws Exception {
+        checkMeasured(null, "blocking-metrics.bin");
+    }
+
+    @Test
+    public void selectorDownloadIsMeasured() throws Exception {
+        checkMeasured(SelectorEngine.getShared(), "selector-metrics.bin");
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        //50落在[32, 63]的桶中
+        assertEquals(63, histogram.getPercentile(50));
+        //最大的桶的上界不超过最大值
+        assertEquals(100, histogram.getPercentile(99));
+        histogram.reset();
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    private void checkMeasured(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader downloader = fresh(engine, name, 3);
+        downloader.setRetryPolicy(new RetryPolicy(10, 2000, 5));
+        final List<Long> reported = new ArrayList<Long>();
+        DownloadMetrics metrics = downloader.getMetrics();
+        metrics.setReporter(new MetricsReporter() {
+            @Override
+            public void report(DownloadMetrics metrics) {
+                reported.add(metrics.getBytesWritten());
+            }
+        }, 50);
+        server.failRequests(2, 503, null);
+        assertEquals(FILE_SIZE, downloader.download(null));
+        assertEquals(FILE_SIZE, metrics.getBytesWritten());
+        assertEquals(0, metrics.getBytesInFlight());
+        assertEquals(2, metrics.getRetryCount());
+        assertEquals(0, metrics.getFailureCount());
+        assertTrue(metrics.getRequestCount() >= 3);
+        assertTrue(metrics.getConnectLatency().getCount() >= 2);
+        assertTrue(metrics.getTimeToFirstByte().getCount() >= 2);
+        assertTrue(metrics.getDiskWriteLatency().getCount() > 0);
+        assertTrue(metrics.getCheckpointLatency().getCount() > 0);
+        assertTrue(metrics.getSegmentThroughput().getCount() > 0);
+        assertTrue(metrics.getThroughput() > 0);
+        //下载结束时导出最终的值
+        assertTrue(reported.size() >= 1);
+        assertEquals(FILE_SIZE, (long) reported.get(reported.size() - 1));
+    }
+}
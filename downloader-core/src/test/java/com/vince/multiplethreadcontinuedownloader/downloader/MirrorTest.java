@@ -0,0 +1,98 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 从多个镜像下载同一文件：镜像使用前确认长度和验证信息，下载段按速度分散到各镜像，失败的镜像被放弃
+ */
+public class MirrorTest extends DownloadTestCase {
+    private static final int FILE_SIZE = 4 * 1024 * 1024 + 77;
+    //下载器的主地址在server上，mirror提供同一文件
+    private LocalHttpServer mirror;
+
+    public MirrorTest() {
+        super("mirror-test", FILE_SIZE, 8);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mirror = new LocalHttpServer(data);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mirror.close();
+    }
+
+    @Test
+    public void blockingSegmentsUseBothMirrors() throws Exception {
+        checkBothMirrors(null, "blocking-mirrors.bin");
+    }
+
+    @Test
+    public void selectorSegmentsUseBothMirrors() throws Exception {
+        checkBothMirrors(SelectorEngine.getShared(), "selector-mirrors.bin");
+    }
+
+    @Test
+    public void mismatchedMirrorIsRejected() throws Exception {
+        byte[] other = new byte[FILE_SIZE];
+        new Random(9).nextBytes(other);
+        //长度相同，ETag不同
+        mirror.setData(other);
+        FileDownloader downloader = fresh(null, "mismatched.bin", 4);
+        assertFalse(downloader.addMirror(mirror.getUrl("mismatched.bin")));
+        assertEquals(1, downloader.getMirrors().size());
+        assertEquals(FILE_SIZE, downloader.download(null));
+        assertEquals(0, mirror.getBytesSent());
+        assertTrue(Arrays.equals(data, read(downloader.getSaveFile())));
+    }
+
+    @Test(timeout = 20000)
+    public void failingMirrorIsDropped() throws Exception {
+        FileDownloader downloader = fresh(null, "failing.bin", 4);
+        assertTrue(downloader.addMirror(mirror.getUrl("failing.bin")));
+        mirror.failRequests(1000, 404, null);
+        //镜像失败时不经过重试策略的等待
+        downloader.setRetryPolicy(new RetryPolicy(60 * 1000, 60 * 1000, 1));
+        assertEquals(FILE_SIZE, downloader.download(null));
+        List<Mirror> mirrors = downloader.getMirrors();
+        assertFalse(mirrors.get(0).isDropped());
+        assertTrue(mirrors.get(1).isDropped());
+        assertTrue(Arrays.equals(data, read(downloader.getSaveFile())));
+    }
+
+    @Test
+    public void slowMirrorGetsLessData() throws Exception {
+        FileDownloader downloader = fresh(null, "slow.bin", 4);
+        assertTrue(downloader.addMirror(mirror.getUrl("slow.bin")));
+        mirror.setChunkDelay(20);
+        assertEquals(FILE_SIZE, downloader.download(null));
+        assertTrue(mirror.getBytesSent() < server.getBytesSent() / 2);
+        assertTrue(Arrays.equals(data, read(downloader.getSaveFile())));
+    }
+
+    /**
+     * 两个镜像的速度相同，连接平均分配，各自发送了一部分数据
+     */
+    private void checkBothMirrors(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader downloader = fresh(engine, name, 4);
+        assertTrue(downloader.addMirror(mirror.getUrl(name)));
+        server.setChunkDelay(1);
+        mirror.setChunkDelay(1);
+        assertEquals(FILE_SIZE, downloader.download(null));
+        assertTrue(server.getBytesSent() > 0);
+        assertTrue(mirror.getBytesSent() > 0);
+        assertTrue(Arrays.equals(data, read(downloader.getSaveFile())));
+    }
+}
@@ -0,0 +1,42 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 分槽计数器：多条线程并发累加后总长度准确，槽号超过槽数时回绕到已有的槽
+ */
+public class ProgressCounterTest {
+
+    @Test
+    public void concurrentAddsSumExactly() throws Exception {
+        final ProgressCounter counter = new ProgressCounter(4, 100);
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            final int slot = i + 1;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < 10000; n++) {
+                        counter.add(slot, 3);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        assertEquals(100 + 8 * 10000 * 3, counter.sum());
+    }
+
+    @Test
+    public void slotsWrapAround() {
+        ProgressCounter counter = new ProgressCounter(3, 0);
+        counter.add(0, 1);
+        counter.add(4, 2);
+        counter.add(1023, 4);
+        assertEquals(7, counter.sum());
+    }
+}
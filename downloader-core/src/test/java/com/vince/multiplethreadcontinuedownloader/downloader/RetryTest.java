@@ -0,0 +1,116 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 下载段失败后的重试：可以恢复的错误退避后重新下载，不能恢复的错误和失败次数超过上限时结束下载并把原因交给调用者
+ */
+public class RetryTest extends DownloadTestCase {
+    private static final int FILE_SIZE = 2 * 1024 * 1024 + 77;
+
+    public RetryTest() {
+        super("retry-test", FILE_SIZE, 7);
+    }
+
+    @Test
+    public void blockingTransientErrorsAreRetried() throws Exception {
+        checkTransientErrors(null, "blocking-transient.bin");
+    }
+
+    @Test
+    public void selectorTransientErrorsAreRetried() throws Exception {
+        checkTransientErrors(SelectorEngine.getShared(), "selector-transient.bin");
+    }
+
+    @Test(timeout = 10000)
+    public void notFoundFailsWithoutRetry() throws Exception {
+        FileDownloader downloader = fresh(null, "not-found.bin", 3);
+        int requests = server.getRequestCount();
+        server.failRequests(1000, 404, null);
+        HttpStatusException error = expectFailure(downloader);
+        assertEquals(404, error.getCode());
+        //每个连接的Range请求都没有重试
+        assertTrue(server.getRequestCount() - requests <= 3);
+    }
+
+    @Test(timeout = 10000)
+    public void retryAfterIsHonoured() throws Exception {
+        FileDownloader downloader = fresh(null, "retry-after.bin", 2);
+        server.failRequests(1, 429, "1");
+        long start = System.currentTimeMillis();
+        assertEquals(FILE_SIZE, downloader.download(null));
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        assertTrue(Arrays.equals(data, read(downloader.getSaveFile())));
+    }
+
+    @Test(timeout = 10000)
+    public void repeatedFailuresGiveUp() throws Exception {
+        FileDownloader downloader = fresh(null, "give-up.bin", 2);
+        downloader.setRetryPolicy(new RetryPolicy(10, 50, 3));
+        server.failRequests(1000, 503, null);
+        //每个下载段最多重试3次，不会一直重试下去
+        HttpStatusException error = expectFailure(downloader);
+        assertEquals(503, error.getCode());
+        //已经下载的进度保留，排除原因后可以继续下载
+        server.failRequests(0, 503, null);
+        FileDownloader resumed = create(null, "give-up.bin", 2);
+        assertTrue(resumed.getDownloadedSize() > 0);
+        assertEquals(FILE_SIZE, resumed.download(null));
+        assertTrue(Arrays.equals(data, read(resumed.getSaveFile())));
+    }
+
+    @Test
+    public void errorsAreClassified() {
+        RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.isRetryable(new HttpStatusException(503, -1)));
+        assertTrue(policy.isRetryable(new HttpStatusException(429, 1000)));
+        assertTrue(policy.isRetryable(new HttpStatusException(408, -1)));
+        assertTrue(policy.isRetryable(new java.net.SocketTimeoutException()));
+        assertTrue(!policy.isRetryable(new HttpStatusException(404, -1)));
+        assertTrue(!policy.isRetryable(new HttpStatusException(416, -1)));
+        assertTrue(!policy.isRetryable(new StorageException("Write failed", new IOException("No space left on device"))));
+        assertEquals(120000, HttpStatusException.parseRetryAfter("120", 0));
+        assertEquals(-1, HttpStatusException.parseRetryAfter("soon", 0));
+        //Retry-After超过最长等待时间时不再重试
+        Segment segment = new Segment(1, 0, 99, 0);
+        assertEquals(-1, policy.onFailure(segment, "example.com", new HttpStatusException(503, 10 * 60 * 1000)));
+    }
+
+    @Override
+    protected void configure(FileDownloader downloader) {
+        downloader.setRetryPolicy(new RetryPolicy(10, 2000, 5));
+    }
+
+    /**
+     * 前几个Range请求返回503，退避后重新下载得到完整的文件
+     */
+    private void checkTransientErrors(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader downloader = fresh(engine, name, 3);
+        server.failRequests(3, 503, null);
+        assertEquals(FILE_SIZE, downloader.download(null));
+        assertTrue(Arrays.equals(data, read(downloader.getSaveFile())));
+    }
+
+    /**
+     * 下载失败时从异常的原因中找出服务器的响应码
+     */
+    private static HttpStatusException expectFailure(FileDownloader downloader) {
+        try {
+            downloader.download(null);
+        } catch (Exception e) {
+            Throwable cause = e;
+            while (cause != null && !(cause instanceof HttpStatusException)) cause = cause.getCause();
+            assertTrue("cause lost: " + e, cause != null);
+            return (HttpStatusException) cause;
+        }
+        fail("download should fail");
+        return null;
+    }
+}
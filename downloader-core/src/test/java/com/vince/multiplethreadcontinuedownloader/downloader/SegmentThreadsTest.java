@@ -0,0 +1,33 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JDK 21及以上创建虚拟线程，其他环境创建优先级为7的平台线程
+ */
+public class SegmentThreadsTest {
+    @Test
+    public void threadKindMatchesRuntime() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        Thread thread = SegmentThreads.newThread(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, "DownloadThread-1");
+        assertEquals("DownloadThread-1", thread.getName());
+        if (SegmentThreads.isVirtualEnabled()) {
+            assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+        } else {
+            assertEquals(7, thread.getPriority());
+        }
+        thread.start();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+}
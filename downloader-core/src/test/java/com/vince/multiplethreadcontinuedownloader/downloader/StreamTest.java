@@ -0,0 +1,121 @@
+package com.vince.multiplethreadcontinuedownloader.downloader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 按顺序读取正在下载的文件：连续的数据立即可以读取，读取的位置之后的段优先下载，下载失败时读取结束
+ */
+public class StreamTest extends DownloadTestCase {
+    private static final int FILE_SIZE = 4 * 1024 * 1024 + 77;
+
+    public StreamTest() {
+        super("stream-test", FILE_SIZE, 10);
+    }
+
+    @Test(timeout = 30000)
+    public void blockingStreamWhileDownloading() throws Exception {
+        checkStreamWhileDownloading(null, "blocking-stream.bin");
+    }
+
+    @Test(timeout = 30000)
+    public void selectorStreamWhileDownloading() throws Exception {
+        checkStreamWhileDownloading(SelectorEngine.getShared(), "selector-stream.bin");
+    }
+
+    @Test
+    public void completedFileIsReadImmediately() throws Exception {
+        FileDownloader downloader = fresh(null, "completed.bin", 3);
+        assertEquals(FILE_SIZE, downloader.download(null));
+        DownloadStream stream = downloader.openStream(FILE_SIZE - 100);
+        assertEquals(100, stream.available());
+        byte[] tail = readAll(stream);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, FILE_SIZE - 100, FILE_SIZE), tail));
+    }
+
+    @Test(timeout = 20000)
+    public void failedDownloadEndsStream() throws Exception {
+        final FileDownloader downloader = fresh(null, "failed-stream.bin", 3);
+        server.failRequests(1000, 404, null);
+        //第一段读取获取文件信息的响应，从第二段开始读取
+        DownloadStream stream = downloader.openStream(FILE_SIZE / 2);
+        Thread runner = start(downloader);
+        try {
+            stream.read();
+            fail("stream should fail");
+        } catch (IOException e) {
+            //下载失败
+        }
+        runner.join();
+        stream.close();
+    }
+
+    @Test
+    public void schedulerPrefersSegmentAfterReader() {
+        List<Segment> segments = new ArrayList<Segment>();
+        segments.add(new Segment(1, 0, 999, 0));
+        segments.add(new Segment(2, 1000, 1999, 0));
+        segments.add(new Segment(3, 2000, 2999, 0));
+        SegmentScheduler scheduler = new SegmentScheduler(segments);
+        scheduler.setMinSplitSize(100);
+        scheduler.setPriorityPosition(1500);
+        assertEquals(2, scheduler.next().getId());
+        assertEquals(3, scheduler.next().getId());
+        //读过的段最后分配
+        assertEquals(1, scheduler.next().getId());
+        //都已分配时拆分读取位置所在的段，而不是剩余最多的第一个段
+        scheduler.setPriorityPosition(2500);
+        Segment tail = scheduler.next();
+        assertEquals(2500, tail.getStart());
+        assertEquals(2999, tail.getEnd());
+    }
+
+    /**
+     * 下载开始前打开流，下载完成前已经读到数据，读完后内容完整
+     */
+    private void checkStreamWhileDownloading(SegmentExecutor engine, String name) throws Exception {
+        FileDownloader downloader = fresh(engine, name, 3);
+        server.setChunkDelay(2);
+        DownloadStream stream = downloader.openStream();
+        Thread runner = start(downloader);
+        byte[] first = new byte[1024];
+        assertEquals(first.length, readFully(stream, first));
+        //读到第一块数据时下载还没有完成
+        assertTrue(runner.isAlive());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(first);
+        out.write(readAll(stream));
+        stream.close();
+        runner.join();
+        assertTrue(Arrays.equals(data, out.toByteArray()));
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        int n;
+        while (offset < buffer.length && (n = in.read(buffer, offset, buffer.length - offset)) != -1) {
+            offset += n;
+        }
+        return offset;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}